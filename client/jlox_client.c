@@ -0,0 +1,126 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Tiny client for jlox --daemon, relays one script run over a socket
+#   #                                                                 #
+#   ###################################################################
+*/
+
+#include <limits.h>
+#include <pwd.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/socket.h>
+#include <sys/un.h>
+#include <unistd.h>
+
+// exit status when the daemon cannot be reached, sysexits.h EX_UNAVAILABLE
+#define EXIT_UNAVAILABLE 69
+
+
+// write an entire buffer to the socket
+static int send_all(int fd, const char *data, size_t length) {
+    while (length > 0) {
+        ssize_t written = write(fd, data, length);
+        // give up on any write failure
+        if (written < 0) return -1;
+        data += written;
+        length -= (size_t)written;
+    }
+    return 0;
+}
+
+// send the script path, the whole request
+static int send_request(int fd, const char *path) {
+    if (send_all(fd, path, strlen(path)) < 0) return -1;
+    return send_all(fd, "\n", 1);
+}
+
+// same rule as LoxDaemon.defaultSocket(): $JLOX_SOCKET, else
+// jlox-<user>/jlox.sock under $TMPDIR or /tmp, NULL if the user is unknown
+static const char *socket_path(char *buffer, size_t size) {
+    const char *socket = getenv("JLOX_SOCKET");
+    if (socket != NULL && socket[0] != '\0') return socket;
+
+    const char *temporary = getenv("TMPDIR");
+    if (temporary == NULL || temporary[0] == '\0') temporary = "/tmp";
+
+    struct passwd *user = getpwuid(getuid());
+    if (user == NULL) return NULL;
+
+    int length = snprintf(buffer, size, "%s/jlox-%s/jlox.sock", temporary, user->pw_name);
+    if (length < 0 || (size_t)length >= size) return NULL;
+    return buffer;
+}
+
+// route response frames to stdout/stderr and pass the script status to caller
+static int relay(int fd) {
+    FILE *response = fdopen(fd, "r");
+    // status if the daemon drops the connection mid-run
+    int status = 70;
+
+    char *line = NULL;
+    size_t capacity = 0;
+    ssize_t length;
+
+    // one frame per line
+    while ((length = getline(&line, &capacity, response)) != -1) {
+        if (strncmp(line, "out ", 4) == 0) {
+            fwrite(line + 4, 1, (size_t)length - 4, stdout);
+        }
+        else if (strncmp(line, "err ", 4) == 0) {
+            fwrite(line + 4, 1, (size_t)length - 4, stderr);
+        }
+        else if (strncmp(line, "exit ", 5) == 0) {
+            status = atoi(line + 5);
+        }
+    }
+
+    free(line);
+    fclose(response);
+    return status;
+}
+
+int main(int argc, char **argv) {
+    // require a script to run
+    if (argc != 2) {
+        fprintf(stderr, "Usage: jlox-client [script]\n");
+        return 64;
+    }
+
+    // daemon may run in another directory, send an absolute path
+    char path[PATH_MAX];
+    if (realpath(argv[1], path) == NULL) {
+        fprintf(stderr, "Could not read script '%s'.\n", argv[1]);
+        return 66;
+    }
+
+    // locate daemon socket, it must fit the address
+    struct sockaddr_un address;
+    char buffer[PATH_MAX];
+    const char *socket_file = socket_path(buffer, sizeof(buffer));
+    if (socket_file == NULL || strlen(socket_file) >= sizeof(address.sun_path)) {
+        fprintf(stderr, "Could not determine the jlox daemon socket.\n");
+        return EXIT_UNAVAILABLE;
+    }
+
+    memset(&address, 0, sizeof(address));
+    address.sun_family = AF_UNIX;
+    strcpy(address.sun_path, socket_file);
+
+    int fd = socket(AF_UNIX, SOCK_STREAM, 0);
+    if (fd < 0 || connect(fd, (struct sockaddr *)&address, sizeof(address)) < 0) {
+        fprintf(stderr, "jlox daemon not reachable at %s\n", socket_file);
+        return EXIT_UNAVAILABLE;
+    }
+
+    if (send_request(fd, path) < 0) {
+        fprintf(stderr, "Could not send request to jlox daemon.\n");
+        close(fd);
+        return EXIT_UNAVAILABLE;
+    }
+
+    // stream output until the daemon closes the connection
+    return relay(fd);
+}
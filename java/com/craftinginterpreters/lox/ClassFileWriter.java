@@ -0,0 +1,738 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   JVM back end - minimal class file emitter
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// writes class files without third-party libraries
+    // targets class file version 49 - verified by type inference, so no StackMapTable is needed
+    // only what compiled Lox code uses: static fields, methods, branches, exception handlers
+    // stack depth is tracked per instruction to size max_stack, code is structured so
+    // every jump target is reached with the same depth
+class ClassFileWriter {
+
+    // Java 5 class file format, last version without mandatory stack map frames
+    static final int VERSION = 49;
+
+    // access flags
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    // opcodes used by the compiler
+    static final int ACONST_NULL = 1;
+    static final int ICONST_0 = 3;
+    static final int DCONST_0 = 14;
+    static final int BIPUSH = 16;
+    static final int SIPUSH = 17;
+    static final int LDC = 18;
+    static final int LDC_W = 19;
+    static final int LDC2_W = 20;
+    static final int ILOAD = 21;
+    static final int DLOAD = 24;
+    static final int ALOAD = 25;
+    static final int AALOAD = 50;
+    static final int ISTORE = 54;
+    static final int DSTORE = 57;
+    static final int ASTORE = 58;
+    static final int AASTORE = 83;
+    static final int POP = 87;
+    static final int POP2 = 88;
+    static final int DUP = 89;
+    static final int DUP_X1 = 90;
+    static final int DUP_X2 = 91;
+    static final int DUP2 = 92;
+    static final int SWAP = 95;
+    static final int DADD = 99;
+    static final int DSUB = 103;
+    static final int DMUL = 107;
+    static final int DDIV = 111;
+    static final int DNEG = 119;
+    static final int IINC = 132;
+    static final int I2D = 135;
+    static final int D2I = 142;
+    static final int DCMPL = 151;
+    static final int DCMPG = 152;
+    static final int IFEQ = 153;
+    static final int IFNE = 154;
+    static final int IFLT = 155;
+    static final int IFGE = 156;
+    static final int IFGT = 157;
+    static final int IFLE = 158;
+    static final int IF_ICMPEQ = 159;
+    static final int IF_ICMPNE = 160;
+    static final int IF_ICMPLT = 161;
+    static final int IF_ICMPGE = 162;
+    static final int IF_ACMPEQ = 165;
+    static final int IF_ACMPNE = 166;
+    static final int GOTO = 167;
+    static final int TABLESWITCH = 170;
+    static final int IRETURN = 172;
+    static final int DRETURN = 175;
+    static final int ARETURN = 176;
+    static final int RETURN = 177;
+    static final int GETSTATIC = 178;
+    static final int PUTSTATIC = 179;
+    static final int GETFIELD = 180;
+    static final int PUTFIELD = 181;
+    static final int INVOKEVIRTUAL = 182;
+    static final int INVOKESPECIAL = 183;
+    static final int INVOKESTATIC = 184;
+    static final int INVOKEINTERFACE = 185;
+    static final int NEW = 187;
+    static final int ANEWARRAY = 189;
+    static final int ARRAYLENGTH = 190;
+    static final int ATHROW = 191;
+    static final int CHECKCAST = 192;
+    static final int INSTANCEOF = 193;
+    static final int IFNULL = 198;
+    static final int IFNONNULL = 199;
+
+    // constant pool tags
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    // internal name of the class being written, e.g. com/craftinginterpreters/lox/LoxProgram
+    final String name;
+    private final String superName;
+    private final String[] interfaces;
+    private final int access;
+
+    // constant pool entries, deduplicated by a key describing tag and contents
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    // next free index, entry 0 is reserved
+    private int poolSize = 1;
+
+    // encoded field_info and method_info structures
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<Code> methods = new ArrayList<>();
+
+    ClassFileWriter(int access, String name, String superName, String... interfaces) {
+        this.access = access;
+        this.name = name;
+        this.superName = superName;
+        this.interfaces = interfaces;
+    }
+
+    // ##### constant pool #####
+
+    int utf8(String value) {
+        return entry("U" + value, out -> {
+            out.writeByte(CONSTANT_UTF8);
+            out.writeUTF(value);
+        }, 1);
+    }
+
+    int classRef(String internalName) {
+        int nameIndex = utf8(internalName);
+        return entry("C" + internalName, out -> {
+            out.writeByte(CONSTANT_CLASS);
+            out.writeShort(nameIndex);
+        }, 1);
+    }
+
+    int string(String value) {
+        int valueIndex = utf8(value);
+        return entry("S" + value, out -> {
+            out.writeByte(CONSTANT_STRING);
+            out.writeShort(valueIndex);
+        }, 1);
+    }
+
+    int integer(int value) {
+        return entry("I" + value, out -> {
+            out.writeByte(CONSTANT_INTEGER);
+            out.writeInt(value);
+        }, 1);
+    }
+
+    // doubles take two pool slots
+    int doubleConstant(double value) {
+        return entry("D" + Double.doubleToRawLongBits(value), out -> {
+            out.writeByte(CONSTANT_DOUBLE);
+            out.writeDouble(value);
+        }, 2);
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        int nameIndex = utf8(name);
+        int typeIndex = utf8(descriptor);
+        return entry("N" + name + ":" + descriptor, out -> {
+            out.writeByte(CONSTANT_NAME_AND_TYPE);
+            out.writeShort(nameIndex);
+            out.writeShort(typeIndex);
+        }, 1);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int typeIndex = nameAndType(name, descriptor);
+        return entry(tag + owner + "." + name + ":" + descriptor, out -> {
+            out.writeByte(tag);
+            out.writeShort(ownerIndex);
+            out.writeShort(typeIndex);
+        }, 1);
+    }
+
+    // writes one constant pool entry
+    private interface EntryWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // index of an existing entry, or append a new one
+    private int entry(String key, EntryWriter writer, int slots) {
+        Integer existing = poolIndex.get(key);
+        if (existing != null) return existing;
+
+        try {
+            writer.write(poolOut);
+        }
+        catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+
+        int index = poolSize;
+        poolSize += slots;
+        if (poolSize > 0xFFFF) throw new IllegalStateException("Constant pool overflow.");
+        poolIndex.put(key, index);
+        return index;
+    }
+
+    // ##### members #####
+
+    void field(int access, String name, String descriptor) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            // no attributes
+            out.writeShort(0);
+        }
+        catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+        fields.add(bytes.toByteArray());
+    }
+
+    // start a method, its code is written through the returned object
+    Code method(int access, String name, String descriptor) {
+        Code code = new Code(this, access, name, descriptor);
+        methods.add(code);
+        return code;
+    }
+
+    // finished class file
+    byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            // intern every name before the pool is written out
+            int thisIndex = classRef(name);
+            int superIndex = classRef(superName);
+            int[] interfaceIndexes = new int[interfaces.length];
+            for (int i = 0; i < interfaces.length; i++) {
+                interfaceIndexes[i] = classRef(interfaces[i]);
+            }
+            List<byte[]> encodedMethods = new ArrayList<>();
+            for (Code method : methods) encodedMethods.add(method.encode());
+
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+
+            out.writeShort(poolSize);
+            pool.writeTo(out);
+
+            out.writeShort(access);
+            out.writeShort(thisIndex);
+            out.writeShort(superIndex);
+            out.writeShort(interfaceIndexes.length);
+            for (int index : interfaceIndexes) out.writeShort(index);
+
+            out.writeShort(fields.size());
+            for (byte[] field : fields) out.write(field);
+
+            out.writeShort(encodedMethods.size());
+            for (byte[] method : encodedMethods) out.write(method);
+
+            // no class attributes
+            out.writeShort(0);
+        }
+        catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    // slots an argument list or return type occupies, from a method descriptor
+    static int argumentSlots(String descriptor) {
+        int slots = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            if (c == 'J' || c == 'D') {
+                slots += 2;
+                i++;
+            }
+            else {
+                slots++;
+                // skip array dimensions then the element type
+                while (descriptor.charAt(i) == '[') i++;
+                if (descriptor.charAt(i) == 'L') i = descriptor.indexOf(';', i);
+                i++;
+            }
+        }
+        return slots;
+    }
+
+    static int returnSlots(String descriptor) {
+        char c = descriptor.charAt(descriptor.indexOf(')') + 1);
+        if (c == 'V') return 0;
+        return c == 'J' || c == 'D' ? 2 : 1;
+    }
+
+    static int fieldSlots(String descriptor) {
+        return descriptor.equals("J") || descriptor.equals("D") ? 2 : 1;
+    }
+
+    // ##### code #####
+
+    // jump target, bound once, may be referenced before it is bound
+    static class Label {
+        // offset in the method, -1 until bound
+        int position = -1;
+        // stack depth on arrival, -1 until some jump or fallthrough reaches it
+        int stack = -1;
+        // offsets of branch instructions and their operand locations still to patch
+        private final List<int[]> fixups = new ArrayList<>();
+    }
+
+    // bytecode of one method
+    static class Code {
+        private final ClassFileWriter owner;
+        private final int access;
+        private final String name;
+        private final String descriptor;
+
+        private byte[] code = new byte[256];
+        private int length;
+
+        // operand stack depth after the last instruction, -1 after an unconditional transfer
+        private int stack;
+        private int maxStack;
+        private int maxLocals;
+
+        // exception_table rows, positions are read once every label is bound
+        private final List<Handler> handlers = new ArrayList<>();
+
+        private Code(ClassFileWriter owner, int access, String name, String descriptor) {
+            this.owner = owner;
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            // parameters occupy the first locals, instance methods add 'this'
+            this.maxLocals = argumentSlots(descriptor) + ((access & ACC_STATIC) != 0 ? 0 : 1);
+        }
+
+        // current code offset
+        int position() {
+            return length;
+        }
+
+        // true when the last instruction never falls through
+        boolean unreachable() {
+            return stack < 0;
+        }
+
+        // first free local slot, later slots can be allocated by the caller
+        int localsUsed() {
+            return maxLocals;
+        }
+
+        // allocate a fresh local of the given slot width
+        int newLocal(int slots) {
+            int local = maxLocals;
+            maxLocals += slots;
+            return local;
+        }
+
+        // ##### raw emission #####
+
+        private void u1(int value) {
+            if (length == code.length) code = Arrays.copyOf(code, length * 2);
+            code[length++] = (byte)value;
+        }
+
+        private void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        private void u4(int value) {
+            u2(value >> 16);
+            u2(value);
+        }
+
+        // adjust tracked depth, reaching code after a transfer restarts at depth 0
+        private void adjust(int delta) {
+            if (stack < 0) stack = 0;
+            stack += delta;
+            if (stack < 0) throw new IllegalStateException("Operand stack underflow in " + name);
+            if (stack > maxStack) maxStack = stack;
+        }
+
+        // instruction without operands and its stack effect
+        void op(int opcode, int delta) {
+            adjust(delta);
+            u1(opcode);
+        }
+
+        // ##### constants #####
+
+        void aconstNull() {
+            op(ACONST_NULL, 1);
+        }
+
+        void iconst(int value) {
+            if (value >= -1 && value <= 5) {
+                op(ICONST_0 + value, 1);
+            }
+            else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                adjust(1);
+                u1(BIPUSH);
+                u1(value);
+            }
+            else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                adjust(1);
+                u1(SIPUSH);
+                u2(value);
+            }
+            else {
+                ldcIndex(owner.integer(value), 1);
+            }
+        }
+
+        void ldc(String value) {
+            ldcIndex(owner.string(value), 1);
+        }
+
+        // java.lang.Class constant
+        void ldcClass(String internalName) {
+            ldcIndex(owner.classRef(internalName), 1);
+        }
+
+        void ldc(double value) {
+            adjust(2);
+            u1(LDC2_W);
+            u2(owner.doubleConstant(value));
+        }
+
+        private void ldcIndex(int index, int slots) {
+            adjust(slots);
+            if (index <= 0xFF) {
+                u1(LDC);
+                u1(index);
+            }
+            else {
+                u1(LDC_W);
+                u2(index);
+            }
+        }
+
+        // ##### locals #####
+
+        private void local(int opcode, int local, int delta, int width) {
+            if (local + width > maxLocals) maxLocals = local + width;
+            adjust(delta);
+            if (local <= 0xFF) {
+                u1(opcode);
+                u1(local);
+            }
+            // wide prefix for locals past 255
+            else {
+                u1(196);
+                u1(opcode);
+                u2(local);
+            }
+        }
+
+        void aload(int local) { local(ALOAD, local, 1, 1); }
+        void astore(int local) { local(ASTORE, local, -1, 1); }
+        void iload(int local) { local(ILOAD, local, 1, 1); }
+        void istore(int local) { local(ISTORE, local, -1, 1); }
+        void dload(int local) { local(DLOAD, local, 2, 2); }
+        void dstore(int local) { local(DSTORE, local, -2, 2); }
+
+        void iinc(int local, int amount) {
+            if (local + 1 > maxLocals) maxLocals = local + 1;
+            adjust(0);
+            u1(IINC);
+            u1(local);
+            u1(amount);
+        }
+
+        // ##### members #####
+
+        void getstatic(String owner, String name, String descriptor) {
+            adjust(fieldSlots(descriptor));
+            u1(GETSTATIC);
+            u2(this.owner.memberRef(CONSTANT_FIELDREF, owner, name, descriptor));
+        }
+
+        void putstatic(String owner, String name, String descriptor) {
+            adjust(-fieldSlots(descriptor));
+            u1(PUTSTATIC);
+            u2(this.owner.memberRef(CONSTANT_FIELDREF, owner, name, descriptor));
+        }
+
+        void getfield(String owner, String name, String descriptor) {
+            adjust(fieldSlots(descriptor) - 1);
+            u1(GETFIELD);
+            u2(this.owner.memberRef(CONSTANT_FIELDREF, owner, name, descriptor));
+        }
+
+        void putfield(String owner, String name, String descriptor) {
+            adjust(-fieldSlots(descriptor) - 1);
+            u1(PUTFIELD);
+            u2(this.owner.memberRef(CONSTANT_FIELDREF, owner, name, descriptor));
+        }
+
+        void invokestatic(String owner, String name, String descriptor) {
+            adjust(returnSlots(descriptor) - argumentSlots(descriptor));
+            u1(INVOKESTATIC);
+            u2(this.owner.memberRef(CONSTANT_METHODREF, owner, name, descriptor));
+        }
+
+        void invokevirtual(String owner, String name, String descriptor) {
+            adjust(returnSlots(descriptor) - argumentSlots(descriptor) - 1);
+            u1(INVOKEVIRTUAL);
+            u2(this.owner.memberRef(CONSTANT_METHODREF, owner, name, descriptor));
+        }
+
+        void invokespecial(String owner, String name, String descriptor) {
+            adjust(returnSlots(descriptor) - argumentSlots(descriptor) - 1);
+            u1(INVOKESPECIAL);
+            u2(this.owner.memberRef(CONSTANT_METHODREF, owner, name, descriptor));
+        }
+
+        void invokeinterface(String owner, String name, String descriptor) {
+            int arguments = argumentSlots(descriptor);
+            adjust(returnSlots(descriptor) - arguments - 1);
+            u1(INVOKEINTERFACE);
+            u2(this.owner.memberRef(CONSTANT_INTERFACE_METHODREF, owner, name, descriptor));
+            u1(arguments + 1);
+            u1(0);
+        }
+
+        // ##### types #####
+
+        void newObject(String type) {
+            adjust(1);
+            u1(NEW);
+            u2(owner.classRef(type));
+        }
+
+        void anewarray(String type) {
+            adjust(0);
+            u1(ANEWARRAY);
+            u2(owner.classRef(type));
+        }
+
+        void checkcast(String type) {
+            adjust(0);
+            u1(CHECKCAST);
+            u2(owner.classRef(type));
+        }
+
+        void instanceOf(String type) {
+            adjust(0);
+            u1(INSTANCEOF);
+            u2(owner.classRef(type));
+        }
+
+        // ##### control flow #####
+
+        // bind a label at the current offset
+        void mark(Label label) {
+            label.position = length;
+            // code only reachable by jumping takes the depth recorded by the jumps
+            if (stack < 0) stack = label.stack;
+            else label.stack = stack;
+
+            for (int[] fixup : label.fixups) patch(fixup[0], fixup[1], label.position);
+            label.fixups.clear();
+        }
+
+        // conditional or unconditional branch
+        void jump(int opcode, Label target) {
+            int delta;
+            switch (opcode) {
+                case GOTO: delta = 0; break;
+                case IFEQ: case IFNE: case IFLT: case IFGE: case IFGT: case IFLE:
+                case IFNULL: case IFNONNULL: delta = -1; break;
+                default: delta = -2; break;
+            }
+            adjust(delta);
+
+            int at = length;
+            u1(opcode);
+            if (target.position >= 0) {
+                u2(offset(at, target.position));
+            }
+            else {
+                target.fixups.add(new int[] { at, length });
+                u2(0);
+            }
+            if (target.stack < 0) target.stack = stack;
+
+            if (opcode == GOTO) stack = -1;
+        }
+
+        // dense switch on an int, default and one label per case from low
+        void tableswitch(int low, Label fallback, Label[] cases) {
+            adjust(-1);
+            int at = length;
+            u1(TABLESWITCH);
+            // operands start on a four byte boundary
+            while (length % 4 != 0) u1(0);
+
+            switchTarget(at, fallback);
+            u4(low);
+            u4(low + cases.length - 1);
+            for (Label target : cases) switchTarget(at, target);
+
+            stack = -1;
+        }
+
+        private void switchTarget(int at, Label target) {
+            if (target.stack < 0) target.stack = Math.max(stack, 0);
+            if (target.position >= 0) {
+                u4(target.position - at);
+            }
+            else {
+                // wide fixup, marked by a negative operand location
+                target.fixups.add(new int[] { at, -length - 1 });
+                u4(0);
+            }
+        }
+
+        // end of a path - return or throw
+        void terminate(int opcode) {
+            int delta;
+            switch (opcode) {
+                case RETURN: delta = 0; break;
+                case DRETURN: delta = -2; break;
+                default: delta = -1; break;
+            }
+            adjust(delta);
+            u1(opcode);
+            stack = -1;
+        }
+
+        // handler for exceptions of type raised between two labels, null type catches all
+        void tryCatch(Label start, Label end, Label handler, String type) {
+            // handler entry has exactly the exception on the stack
+            handler.stack = 1;
+            handlers.add(new Handler(start, end, handler,
+                type == null ? 0 : owner.classRef(type)));
+        }
+
+        // one exception_table row
+        private static class Handler {
+            final Label start, end, handler;
+            final int type;
+
+            Handler(Label start, Label end, Label handler, int type) {
+                this.start = start;
+                this.end = end;
+                this.handler = handler;
+                this.type = type;
+            }
+        }
+
+        private void patch(int at, int operand, int target) {
+            if (operand < 0) {
+                int location = -operand - 1;
+                int value = target - at;
+                code[location] = (byte)(value >> 24);
+                code[location + 1] = (byte)(value >> 16);
+                code[location + 2] = (byte)(value >> 8);
+                code[location + 3] = (byte)value;
+                return;
+            }
+            int value = offset(at, target);
+            code[operand] = (byte)(value >> 8);
+            code[operand + 1] = (byte)value;
+        }
+
+        // 16-bit branch offset, oversized methods are refused rather than miscompiled
+        private int offset(int from, int to) {
+            int offset = to - from;
+            if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                throw new IllegalStateException("Method " + name + " is too large.");
+            }
+            return offset;
+        }
+
+        // method_info with its Code attribute
+        private byte[] encode() throws IOException {
+            if (length > 0xFFFF) throw new IllegalStateException("Method " + name + " is too large.");
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeShort(access);
+            out.writeShort(owner.utf8(name));
+            out.writeShort(owner.utf8(descriptor));
+            out.writeShort(1);
+
+            out.writeShort(owner.utf8("Code"));
+            out.writeInt(12 + length + handlers.size() * 8);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(length);
+            out.write(code, 0, length);
+
+            out.writeShort(handlers.size());
+            for (Handler handler : handlers) {
+                out.writeShort(handler.start.position);
+                out.writeShort(handler.end.position);
+                out.writeShort(handler.handler.position);
+                out.writeShort(handler.type);
+            }
+
+            // no Code attributes
+            out.writeShort(0);
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   JVM back end - compiled function descriptor
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+// one Lox function compiled to a static method of a generated class
+    // shared by every closure of the function, LoxFunction pairs it with an environment
+final class CompiledFunction {
+
+    // entry point implemented by each generated class
+        // dispatches on the function's index within the class to its static method
+    interface Code {
+        Object invoke(int function, Interpreter interpreter, Environment closure,
+                      Object[] arguments);
+    }
+
+    // declared name, for printing
+    final String name;
+    final int arity;
+    // generated class and the function's index in it
+    final Code code;
+    final int index;
+    // source of just-in-time compiled code, for falling back to the interpreter
+        // null ahead of time, where the tree is not shipped
+    final Stmt.Function declaration;
+
+    // set when an assumption made by the compiled code failed
+        // running activations finish on generic paths or deoptimize at a loop head,
+        // new calls are interpreted
+    private volatile boolean invalidated = false;
+    // tier profile that compiled the function, null ahead of time
+    volatile LoxJit.Profile profile;
+
+    CompiledFunction(String name, int arity, Code code, int index,
+                     Stmt.Function declaration) {
+        this.name = name;
+        this.arity = arity;
+        this.code = code;
+        this.index = index;
+        this.declaration = declaration;
+    }
+
+    boolean invalidated() {
+        return invalidated;
+    }
+
+    // drop the code, the reason goes to the deoptimization trace
+    void invalidate(String reason) {
+        if (invalidated) return;
+        invalidated = true;
+        LoxJit.invalidated(this, reason);
+    }
+
+    // run with a closure, the compiled body creates its own parameter scope
+    Object invoke(Interpreter interpreter, Environment closure, Object[] arguments) {
+        return code.invoke(index, interpreter, closure, arguments);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Embedding API - immutable, reusable handle to a resolved program
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// program scanned, parsed and resolved once by LoxEngine
+    // immutable - any number of threads may execute it at the same time,
+    // every execution gets its own runtime, globals and interpreter stack
+public final class CompiledScript {
+    // resolved syntax tree, scope distances are in its nodes, never modified after compile
+    private final List<Stmt> statements;
+
+    // default streams for print statements and diagnostics
+    private final PrintStream out;
+    private final PrintStream err;
+
+    CompiledScript(List<Stmt> statements, PrintStream out, PrintStream err) {
+        this.statements = statements;
+        this.out = out;
+        this.err = err;
+    }
+
+    // execute against fresh globals
+        // pass value of a trailing expression statement to caller, null otherwise
+    public Object execute() {
+        return execute(null, out, err);
+    }
+
+    // execute with the given bindings defined as globals before the run
+        // every global of the finished run is written back to the map
+    public Object execute(Map<String, Object> bindings) {
+        return execute(bindings, out, err);
+    }
+
+    // execution with per-call streams, used by the script engine adapter
+    Object execute(Map<String, Object> bindings, PrintStream out, PrintStream err) {
+        LoxRuntime runtime = new LoxRuntime(out, err);
+        Environment globals = runtime.interpreter.globals;
+
+        // natives defined by the interpreter are not handed back to the caller
+        Set<String> builtins = globals.snapshot().keySet();
+
+        // inputs become globals of this run
+        if (bindings != null) {
+            for (Map.Entry<String, Object> binding : bindings.entrySet()) {
+                globals.define(binding.getKey(), toLox(binding.getValue()));
+            }
+        }
+
+        Object result;
+        try {
+            result = runtime.interpreter.interpretValue(statements);
+        }
+        // surface runtime errors as exceptions with their source line
+        catch (RuntimeError error) {
+            throw new LoxScriptException(error.getMessage(), error.token.line);
+        }
+
+        // outputs - every global the run left behind
+        if (bindings != null) {
+            for (Map.Entry<String, Object> global : globals.snapshot().entrySet()) {
+                String name = global.getKey();
+                // skip natives unless the caller supplied a value under that name
+                if (builtins.contains(name) && !bindings.containsKey(name)) continue;
+                bindings.put(name, toJava(global.getValue()));
+            }
+        }
+
+        return toJava(result);
+    }
+
+    // adapt a Java value to the Lox value model
+        // numbers become doubles, characters and char sequences become strings
+    static Object toLox(Object value) {
+        if (value == null || value instanceof Boolean ||
+            value instanceof Double || value instanceof String) return value;
+        if (value instanceof Number) return ((Number)value).doubleValue();
+        if (value instanceof CharSequence || value instanceof Character) {
+            return value.toString();
+        }
+        // Lox objects handed back in from a previous run pass through unchanged
+        if (value instanceof LoxCallable || value instanceof LoxInstance) return value;
+
+        throw new IllegalArgumentException(
+            "No Lox representation for " + value.getClass().getName() + ".");
+    }
+
+    // adapt a Lox value for Java callers, functions and instances stay opaque
+    static Object toJava(Object value) {
+        // declared but never assigned is seen as nil
+        if (value == Environment.UNINITIALIZED) return null;
+        return value;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Dispatch benchmark - visitor interpreter against pattern matching
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// times each workload on Interpreter and on PatternEvaluator over the lowered records
+    // usage: DispatchBenchmark [--runs n] [--cold] [script ...], built-in workloads without
+    // scripts
+    // the jit is switched off so both sides walk trees, the interpreter keeps its inline
+    // caches, output is discarded and the median of the measured runs is reported
+    // --cold clears the slots of every node and resolves the tree again before each
+    // interpreter run
+class DispatchBenchmark {
+
+    // runs before measuring, for HotSpot to compile both evaluators
+    private static final int WARMUP = 5;
+
+    // small programs exercising calls, arithmetic, loops and method dispatch
+    private static final Map<String, String> WORKLOADS = new LinkedHashMap<>();
+    static {
+        WORKLOADS.put("fib", String.join("\n",
+            "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }",
+            "print fib(22);"));
+        WORKLOADS.put("loop", String.join("\n",
+            "var sum = 0;",
+            "var i = 0;",
+            "while (i < 300000) {",
+            "  if (i / 2 > 1000) sum = sum + i; else sum = sum - 1;",
+            "  i = i + 1;",
+            "}",
+            "print sum;"));
+        WORKLOADS.put("particles", String.join("\n",
+            "class Particle {",
+            "  init(x, v) { this.x = x; this.v = v; }",
+            "  move(dt) { this.x = this.x + this.v * dt; }",
+            "  speed() { return this.v; }",
+            "}",
+            "var ps = Array();",
+            "var i = 0;",
+            "while (i < 100) { ps.push(Particle(i, 1 + i / 10)); i = i + 1; }",
+            "var steps = 0;",
+            "var total = 0;",
+            "while (steps < 1000) {",
+            "  var j = 0;",
+            "  while (j < 100) { var p = ps[j]; p.move(0.01); total = total + p.speed(); j = j + 1; }",
+            "  steps = steps + 1;",
+            "}",
+            "print total;"));
+    }
+
+    public static void main(String[] args) throws IOException {
+        // before any interpreter exists, LoxJit reads it once
+        System.setProperty("lox.jit", "false");
+
+        int runs = 10;
+        List<String> scripts = new ArrayList<>(Arrays.asList(args));
+        if (scripts.size() >= 2 && scripts.get(0).equals("--runs")) {
+            runs = Integer.parseInt(scripts.get(1));
+            scripts = scripts.subList(2, scripts.size());
+        }
+        boolean cold = !scripts.isEmpty() && scripts.get(0).equals("--cold");
+        if (cold) scripts = scripts.subList(1, scripts.size());
+
+        Map<String, String> workloads = new LinkedHashMap<>();
+        if (scripts.isEmpty()) workloads.putAll(WORKLOADS);
+        for (String script : scripts) {
+            workloads.put(script, new String(Files.readAllBytes(Paths.get(script)),
+                Charset.defaultCharset()));
+        }
+
+        System.out.printf("%-24s %12s %12s %8s%n", "workload", "visitor ms", "pattern ms",
+            "ratio");
+        for (Map.Entry<String, String> workload : workloads.entrySet()) {
+            bench(workload.getKey(), workload.getValue(), runs, cold);
+        }
+    }
+
+    private static void bench(String name, String source, int runs, boolean cold) {
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+
+        // visitor side, the runtime that resolved the tree runs it
+        LoxRuntime visitor = new LoxRuntime(discard, System.err);
+        List<Stmt> statements = visitor.analyze(source);
+        if (visitor.hadError) {
+            System.out.printf("%-24s did not compile%n", name);
+            return;
+        }
+
+        // pattern side, a runtime of its own for fresh globals
+        SealedLowering lowering = new SealedLowering(visitor.interpreter);
+        List<SealedStmt> records = lowering.lower(statements);
+        LoxRuntime pattern = new LoxRuntime(discard, System.err);
+
+        double visitorMs = median(runs, () -> {
+            if (cold) {
+                Interpreter.resetSlots(statements);
+                new Resolver(visitor.interpreter).resolve(statements);
+            }
+            visitor.interpreter.interpret(statements);
+        });
+        double patternMs = median(runs, () ->
+            new PatternEvaluator(pattern.interpreter, lowering.locals).interpret(records));
+
+        if (visitor.hadRuntimeError || pattern.hadRuntimeError) {
+            System.out.printf("%-24s failed at runtime%n", name);
+            return;
+        }
+        System.out.printf("%-24s %12.2f %12.2f %8.2f%n", name, visitorMs, patternMs,
+            patternMs / visitorMs);
+    }
+
+    // milliseconds of the median measured run
+    private static double median(int runs, Runnable run) {
+        for (int i = 0; i < WARMUP; i++) run.run();
+
+        double[] times = new double[runs];
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            run.run();
+            times[i] = (System.nanoTime() - start) / 1e6;
+        }
+        Arrays.sort(times);
+        return times[runs / 2];
+    }
+}
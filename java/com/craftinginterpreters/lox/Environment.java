@@ -10,6 +10,7 @@ package com.craftinginterpreters.lox;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 // handle scoping
 class Environment {
@@ -17,7 +18,15 @@ class Environment {
     // track parent scope
     final Environment enclosing;
     // create a hash for mapping identifiers to objects
-    private final Map<String, Object> values = new HashMap<>();
+        // concurrent - closures and globals are shared with spawned tasks
+    private final Map<String, Object> values = new ConcurrentHashMap<>();
+
+    // stand-in for nil, concurrent maps cannot hold null values
+    private static final Object NIL = new Object();
+
+    // compiled code may treat a variable as constant while its assumption holds
+        // created on first request, in practice only for globals
+    private volatile Map<String, LoxAssumption> stable;
 
     // object for separating nulled variables from uninitialized ones
         // should be visible to callers
@@ -36,21 +45,25 @@ class Environment {
     // access an object at an enclosing environment a specified distance away from current
     Object getAt(int distance, String name) {
         // pass hashed value from environment as a 'distance' number of parents
-        return ancestor(distance).values.get(name);
+        return unmask(ancestor(distance).values.get(name));
     }
 
     // track variable assignment at a specific environment
     void assignAt(int distance, Token name, Object value) {
         // make assignment to nth ancestor with distance argument
-        ancestor(distance).values.put(name.lexeme, value);
+        Environment target = ancestor(distance);
+        target.values.put(name.lexeme, mask(value));
+        if (target.stable != null) target.unstable(name.lexeme);
     }
 
     // access the value held by an identifier
     Object get(Token name) {
+        // single lookup, absent and nil are told apart by the mask
+        Object val = values.get(name.lexeme);
         // check if object in hashmap
-        if (values.containsKey(name.lexeme)) {
-            // hold return value
-            Object val = values.get(name.lexeme);
+        if (val != null) {
+            // translate stored nil
+            val = unmask(val);
             // check for unititialized
             if (val == UNINITIALIZED) {
                 // generate error
@@ -65,6 +78,9 @@ class Environment {
         // recursive check for variable in parent scopes
         if (enclosing != null) return enclosing.get(name);
 
+        // global miss, a native library may provide the name on first reference
+        if (LoxNativeLibraries.define(this, name.lexeme)) return get(name);
+
         // generate error on access request to undefined var
             // evaluate at runtime to allow variable reference before creation
         throw new RuntimeError(name,
@@ -77,7 +93,9 @@ class Environment {
         // check for variable exists in scope
         if (values.containsKey(name.lexeme)) {
             // replace existing value at key
-            values.put(name.lexeme, value);
+            values.put(name.lexeme, mask(value));
+            // code that folded the old value has to go
+            if (stable != null) unstable(name.lexeme);
             // exit call
             return;
         }
@@ -98,8 +116,48 @@ class Environment {
     // identifier assignment
         // applies to new variables and existing, same effect
     void define(String name, Object value) {
-        // new insertion to environment hash
-        values.put(name, value);
+        // new insertion to environment hash, a redefinition changes the value like assign
+        if (values.put(name, mask(value)) != null && stable != null) unstable(name);
+    }
+
+    // assumption that a variable bound in this scope keeps its current value
+        // INVALID for unbound names and for variables that have changed before
+    synchronized LoxAssumption stability(String name) {
+        if (!values.containsKey(name)) return LoxAssumption.INVALID;
+        if (stable == null) stable = new ConcurrentHashMap<>();
+        return stable.computeIfAbsent(name, variable ->
+            new LoxAssumption("global '" + variable + "' keeps its value"));
+    }
+
+    // the variable changed, once assumed stable it stays unstable for good
+    private void unstable(String name) {
+        // nothing assumed about it, or already given up
+        LoxAssumption assumption = stable.get(name);
+        if (assumption == null || !assumption.isValid()) return;
+
+        synchronized (this) {
+            assumption = stable.put(name, LoxAssumption.INVALID);
+        }
+        if (assumption != null) assumption.invalidate();
+    }
+
+    // copy of the identifiers bound directly in this scope, for embedders reading globals back
+    Map<String, Object> snapshot() {
+        Map<String, Object> copy = new HashMap<>();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            copy.put(entry.getKey(), unmask(entry.getValue()));
+        }
+        return copy;
+    }
+
+    // store nil as the sentinel
+    private static Object mask(Object value) {
+        return value == null ? NIL : value;
+    }
+
+    // translate the sentinel back to nil
+    private static Object unmask(Object value) {
+        return value == NIL ? null : value;
     }
 
     // helper method to return an environment as a specified depth of enclosings
@@ -16,6 +16,8 @@ abstract class Expr {
         R visitCallExpr(Call expr);
         R visitGetExpr(Get expr);
         R visitGroupingExpr(Grouping expr);
+        R visitIndexExpr(Index expr);
+        R visitIndexSetExpr(IndexSet expr);
         R visitLiteralExpr(Literal expr);
         R visitSetExpr(Set expr);
         R visitSuperExpr(Super expr);
@@ -37,6 +39,23 @@ abstract class Expr {
 
         final Token name;
         final Expr value;
+
+        // runtime slots, cleared by resetSlots()
+        private Integer depth;
+
+        Integer depth() {
+            return depth;
+        }
+
+        void setDepth(Integer depth) {
+            this.depth = depth;
+        }
+
+        @Override
+        void resetSlots() {
+            super.resetSlots();
+            depth = null;
+        }
     }
     static class Binary extends Expr {
         Binary(Expr left, Token operator, Expr right) {
@@ -69,6 +88,33 @@ abstract class Expr {
         final Expr callee;
         final Token paren;
         final List<Expr> arguments;
+
+        // runtime slots, cleared by resetSlots()
+        private Interpreter.Folded folded;
+        private ProfilingInterpreter.Counter counter;
+
+        Interpreter.Folded folded() {
+            return folded;
+        }
+
+        void setFolded(Interpreter.Folded folded) {
+            this.folded = folded;
+        }
+
+        ProfilingInterpreter.Counter counter() {
+            return counter;
+        }
+
+        void setCounter(ProfilingInterpreter.Counter counter) {
+            this.counter = counter;
+        }
+
+        @Override
+        void resetSlots() {
+            super.resetSlots();
+            folded = null;
+            counter = null;
+        }
     }
     static class Get extends Expr {
         Get(Expr object, Token name) {
@@ -96,6 +142,40 @@ abstract class Expr {
 
         final Expr expression;
     }
+    static class Index extends Expr {
+        Index(Expr object, Token bracket, Expr index) {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitIndexExpr(this);
+        }
+
+        final Expr object;
+        final Token bracket;
+        final Expr index;
+    }
+    static class IndexSet extends Expr {
+        IndexSet(Expr object, Token bracket, Expr index, Expr value) {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+            this.value = value;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitIndexSetExpr(this);
+        }
+
+        final Expr object;
+        final Token bracket;
+        final Expr index;
+        final Expr value;
+    }
     static class Literal extends Expr {
         Literal(Object value) {
             this.value = value;
@@ -137,6 +217,23 @@ abstract class Expr {
 
         final Token keyword;
         final Token method;
+
+        // runtime slots, cleared by resetSlots()
+        private Integer depth;
+
+        Integer depth() {
+            return depth;
+        }
+
+        void setDepth(Integer depth) {
+            this.depth = depth;
+        }
+
+        @Override
+        void resetSlots() {
+            super.resetSlots();
+            depth = null;
+        }
     }
     static class This extends Expr {
         This(Token keyword) {
@@ -149,6 +246,23 @@ abstract class Expr {
         }
 
         final Token keyword;
+
+        // runtime slots, cleared by resetSlots()
+        private Integer depth;
+
+        Integer depth() {
+            return depth;
+        }
+
+        void setDepth(Integer depth) {
+            this.depth = depth;
+        }
+
+        @Override
+        void resetSlots() {
+            super.resetSlots();
+            depth = null;
+        }
     }
     static class Logical extends Expr {
         Logical(Expr left, Token operator, Expr right) {
@@ -191,7 +305,26 @@ abstract class Expr {
         }
 
         final Token name;
+
+        // runtime slots, cleared by resetSlots()
+        private Integer depth;
+
+        Integer depth() {
+            return depth;
+        }
+
+        void setDepth(Integer depth) {
+            this.depth = depth;
+        }
+
+        @Override
+        void resetSlots() {
+            super.resetSlots();
+            depth = null;
+        }
     }
 
     abstract <R> R accept(Visitor<R> visitor);
+
+    void resetSlots() {}
 }
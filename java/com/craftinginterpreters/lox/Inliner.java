@@ -0,0 +1,201 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Inlining heuristics - which calls compiled code expands in place
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// decides, from the interpreter's call site profiles, which calls JvmCompiler inlines
+    // a target must be the only one its site has seen, small, straight-line and non-recursive,
+    // reading nothing but its parameters, 'this' and globals, so the body can run in the
+    // caller's frame with its parameters in JVM locals and no Environment at all
+    // the compiled call keeps a guard on the callee's identity and the full call as fallback
+    // -Dlox.inline=false turns it off, -Dlox.inline.size sets the limit in syntax tree nodes,
+    // -Dlox.inline.log=true prints every decision to the runtime's error stream
+    // sites that have not run yet use the targets of a loaded RunProfile
+class Inliner {
+
+    static final boolean ENABLED = !"false".equals(System.getProperty("lox.inline"));
+    static final int MAX_SIZE = Integer.getInteger("lox.inline.size", 16);
+    static final boolean LOG = Boolean.getBoolean("lox.inline.log");
+
+    // outcome for one call expression
+    static final class Decision {
+        // function to expand, null when the call stays a call
+        final Stmt.Function target;
+        // bound through 'object.name', the body may use 'this'
+        final boolean method;
+        // class hierarchy fact that bound the method, null for plain calls
+        final LoxAssumption binding;
+
+        Decision(Stmt.Function target, boolean method, LoxAssumption binding) {
+            this.target = target;
+            this.method = method;
+            this.binding = binding;
+        }
+    }
+
+    // interpreter whose call site profiles and resolution are read
+    private final Interpreter profile;
+    // function the compiled code belongs to, for the log
+    private final String caller;
+
+    Inliner(Interpreter profile, String caller) {
+        this.profile = profile;
+        this.caller = caller;
+    }
+
+    // decision for a call, null when it is not inlined
+    Decision decide(Expr.Call call) {
+        if (!ENABLED) return null;
+
+        // never run, nothing to go on unless an earlier run was profiled
+        LoxCallSite site = profile.callSite(call);
+        Stmt.Function seeded = profile.runProfile == null ? null :
+            profile.runProfile.target(call);
+        if (site == null && seeded == null) return null;
+
+        boolean method = call.callee instanceof Expr.Get;
+        Stmt.Function target;
+        LoxAssumption binding = null;
+        if (site == null) {
+            // guards are checked the same way, a stale profile costs a slow call
+            target = seeded;
+        }
+        else if (method) {
+            // class hierarchy analysis has bound every receiver to one method
+            binding = site.method.binding();
+            LoxFunction bound = site.method.target();
+            Object identity = bound == null ? null : bound.identity();
+            target = identity instanceof Stmt.Function ? (Stmt.Function)identity : null;
+        }
+        else {
+            target = site.target();
+        }
+        if (target == null) return reject(call, null, "no single function target");
+
+        String reason = check(call, target, method);
+        if (reason != null) return reject(call, target, reason);
+
+        log(call, target, "inlined (size " + size(target) + ")");
+        return new Decision(target, method, binding);
+    }
+
+    // why a target cannot be expanded at the call, null if it can
+    private String check(Expr.Call call, Stmt.Function target, boolean method) {
+        // initializers return 'this' whatever their body says
+        if (target.name.lexeme.equals("init")) return "initializer";
+        if (call.arguments.size() != target.params.size()) return "arity mismatch";
+
+        // expression statements, then at most one return
+        List<Stmt> body = target.body;
+        for (int i = 0; i < body.size(); i++) {
+            Stmt statement = body.get(i);
+            if (statement instanceof Stmt.Expression) continue;
+            if (statement instanceof Stmt.Return && i == body.size() - 1) continue;
+            return "not straight-line";
+        }
+
+        int size = size(target);
+        if (size > MAX_SIZE) return "too large (" + size + " > " + MAX_SIZE + ")";
+
+        Scan scan = new Scan(target);
+        scan.walk(body);
+        if (scan.problem != null) return scan.problem;
+        if (scan.usesThis && !method) return "uses 'this' outside a method call";
+        return null;
+    }
+
+    // syntax tree nodes in a function body
+    private int size(Stmt.Function function) {
+        Scan scan = new Scan(function);
+        scan.walk(function.body);
+        return scan.nodes;
+    }
+
+    private Decision reject(Expr.Call call, Stmt.Function target, String reason) {
+        log(call, target, "rejected: " + reason);
+        return null;
+    }
+
+    private void log(Expr.Call call, Stmt.Function target, String outcome) {
+        if (!LOG) return;
+        profile.runtime.err.println("inline: [line " + call.paren.line + "] in " + caller + " " +
+            (target == null ? "call" : target.name.lexeme) + " " + outcome);
+    }
+
+    // counts a body's nodes and finds what ties it to its own frame
+    private class Scan extends AstWalker {
+        final Stmt.Function function;
+        int nodes = 0;
+        boolean usesThis = false;
+        // first reason the body cannot move, null if none
+        String problem;
+
+        Scan(Stmt.Function function) {
+            this.function = function;
+        }
+
+        @Override
+        void walk(Stmt stmt) {
+            nodes++;
+            super.walk(stmt);
+        }
+
+        @Override
+        void walk(Expr expr) {
+            nodes++;
+            super.walk(expr);
+        }
+
+        private void fail(String reason) {
+            if (problem == null) problem = reason;
+        }
+
+        // parameters are at distance 0, anything else bound locally is a closure variable
+        private void reference(Expr expr, Token name) {
+            Integer depth = profile.resolvedDepth(expr);
+            if (depth != null && depth != 0) fail("reads closure variable '" + name.lexeme + "'");
+            if (name.lexeme.equals(function.name.lexeme)) fail("recursive");
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            reference(expr, expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            reference(expr, expr.name);
+            return super.visitAssignExpr(expr);
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            // a method calling its own name on any receiver may recurse
+            if (expr.name.lexeme.equals(function.name.lexeme)) fail("recursive");
+            return super.visitGetExpr(expr);
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            // the method's 'this' scope sits right outside its parameters
+            Integer depth = profile.resolvedDepth(expr);
+            if (depth == null || depth != 1) fail("reads 'this' of an enclosing method");
+            usesThis = true;
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            fail("uses 'super'");
+            return null;
+        }
+    }
+}
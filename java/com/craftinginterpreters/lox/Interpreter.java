@@ -8,45 +8,110 @@
 
 package com.craftinginterpreters.lox;
 
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 // allow class to interpret expression and statementtypes
 class Interpreter implements Expr.Visitor<Object>,
                              Stmt.Visitor<Void> {
 
+    // isolate owning this interpreter - output and error reporting
+    final LoxRuntime runtime;
+
     // create global scope
-    final Environment globals = new Environment();
+        // shared with interpreters forked for spawned tasks
+    final Environment globals;
     // hold instance of Environment class for scoping and set to globals
         // interpreter ownership of scoping maintained while interpreter is running
-    private Environment environment = globals;
-
-    // track proper scope binding of variables
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    private Environment environment;
+
+    // scope distances live in the depth slots of variable-like nodes, see resolve()
+        // calls to pure natives with literal arguments keep their result in the call's folded
+        // slot - the callee is rechecked since globals can change
+
+    // types proven by TypeInference, absent means ANY
+        // shared with forks, the compilers read it to pick unchecked numeric code
+    private final Map<Expr, LoxType> types;
+
+    // inline caches of call expressions, keyed by node and shared with forks
+    private final Map<Expr.Call, LoxCallSite> callSites;
+
+    // call and loop counts of functions, and their compiled code, shared with forks
+    final LoxJit jit;
+    // feedback saved for or loaded from another run of the same source, null when unused
+    RunProfile runProfile;
+    // profile of the interpreted function running on this stack, loops are charged to it
+        // null at top level
+    LoxJit.Profile profile;
+    // trace of a hot loop this stack is recording branches and operand types into
+        // null when not recording
+    LoxTrace recorder;
+    // Lox frames of this stack for the sampling profiler, null unless -Dlox.sample is set
+    final LoxSampler.Stack frames;
+
+    // result of a folded call and the native that produced it
+    static class Folded {
+        final LoxNative function;
+        final Object value;
+
+        Folded(LoxNative function, Object value) {
+            this.function = function;
+            this.value = value;
+        }
+    }
 
     // define native functions in global space on instance creation
-    Interpreter() {
+    Interpreter(LoxRuntime runtime) {
+        this.runtime = runtime;
+        this.types = new ConcurrentHashMap<>();
+        this.callSites = new ConcurrentHashMap<>();
+        this.jit = new LoxJit(this);
+        this.frames = runtime.sampler == null ? null : runtime.sampler.stack("script");
+        this.globals = new Environment();
+        this.environment = globals;
+
         // returns time since unix epoch in seconds
-            // represent as variable that implements a LoxCallable interface
-        globals.define("clock", new LoxCallable() {
-            // no parameters
-            @Override
-            public int arity() { return 0; }
+        globals.define("clock", new LoxNative("clock", 0,
+            // send back time on system clock as double
+            (interpreter, arguments) -> (double)System.currentTimeMillis() / 1000.0));
 
-            // logic to call function
-            @Override
-            public Object call(Interpreter interpreter,
-                               List<Object> arguments) {
-                // send back time on system clock as double
-                return (double)System.currentTimeMillis() / 1000.0;
-            }
+        // spawn/join tasks and channels
+        LoxConcurrency.define(globals);
 
-            // on attempt to print
-            @Override
-            public String toString() { return "<native fn>"; }
-        });
+        // empty growable array
+        globals.define("Array", new LoxNative("Array", 0,
+            (interpreter, arguments) -> new LoxArray()));
+
+        // empty hash map
+        globals.define("Map", new LoxNative("Map", 0,
+            (interpreter, arguments) -> new LoxMap()));
+
+        // fork/join map and reduce over arrays
+        LoxParallel.define(globals);
+
+        // bind allowlisted Java methods
+        JavaInterop.define(globals);
+    }
+
+    // interpreter for a spawned task - same runtime, globals and resolution, own stack
+    Interpreter(Interpreter parent) {
+        this.runtime = parent.runtime;
+        this.types = parent.types;
+        this.callSites = parent.callSites;
+        this.jit = parent.jit;
+        this.frames = parent.frames == null ? null : runtime.sampler.stack("task");
+        this.runProfile = parent.runProfile;
+        this.globals = parent.globals;
+        this.environment = globals;
+    }
+
+    // new interpreter stack sharing this interpreter's heap
+    Interpreter fork() {
+        return new Interpreter(this);
     }
 
     // public api interface - takes statements and applies interpreter's functionality
@@ -61,9 +126,39 @@ class Interpreter implements Expr.Visitor<Object>,
         }
         // anticipate errors from interpreting
         catch (RuntimeError error) {
-            // pass error to Lox class to display/handle
-            Lox.runtimeError(error);
+            // pass error to owning runtime to display/handle
+            runtime.runtimeError(error);
+        }
+    }
+
+    // embedding entry - run statements and pass value of a trailing expression statement to caller
+        // runtime errors propagate to the caller instead of being reported
+    Object interpretValue(List<Stmt> statements) {
+        // value of the last statement when it is a bare expression
+        Object value = null;
+
+        for (Stmt statement : statements) {
+            // keep result of expression statements, others produce no value
+            if (statement instanceof Stmt.Expression) {
+                value = evaluate(((Stmt.Expression)statement).expression);
+            }
+            else {
+                execute(statement);
+                value = null;
+            }
         }
+
+        return value;
+    }
+
+    // inline cache of a call expression, null until it has run
+    LoxCallSite callSite(Expr.Call expr) {
+        return callSites.get(expr);
+    }
+
+    // hit and miss counts of every call site run so far
+    void dumpCallSites(PrintStream out) {
+        LoxCallSite.dump(callSites, out);
     }
 
     // apply to Literal expression, tree-node leafs
@@ -116,11 +211,81 @@ class Interpreter implements Expr.Visitor<Object>,
         return value;
     }
 
+    // interpret element reads, a[i]
+    @Override
+    public Object visitIndexExpr(Expr.Index expr) {
+        // evaluate indexed object then index, left to right
+        Object object = evaluate(expr.object);
+        Object index = evaluate(expr.index);
+
+        // fast path straight into array storage, no method lookup or native call
+        if (object instanceof LoxArray) {
+            LoxArray array = (LoxArray)object;
+            return array.get(arrayIndex(array, index, expr.bracket));
+        }
+
+        // maps look up any non-nil key
+        if (object instanceof LoxMap) {
+            return ((LoxMap)object).get(mapKey(index, expr.bracket));
+        }
+
+        // create error if type cannot be indexed
+        throw new RuntimeError(expr.bracket,
+            "Only arrays and maps can be indexed.");
+    }
+
+    // interpret element writes, a[i] = value
+    @Override
+    public Object visitIndexSetExpr(Expr.IndexSet expr) {
+        // evaluate indexed object, index, then value
+        Object object = evaluate(expr.object);
+        Object index = evaluate(expr.index);
+
+        // check if invalid request before evaluating value
+        if (object instanceof LoxMap) {
+            Object key = mapKey(index, expr.bracket);
+            Object value = evaluate(expr.value);
+            ((LoxMap)object).set(key, value);
+            return value;
+        }
+        if (!(object instanceof LoxArray)) {
+            throw new RuntimeError(expr.bracket,
+                "Only arrays and maps can be indexed.");
+        }
+
+        LoxArray array = (LoxArray)object;
+        Object value = evaluate(expr.value);
+        array.set(arrayIndex(array, index, expr.bracket), value);
+
+        // pass assigned value to caller like any other assignment
+        return value;
+    }
+
+    // check a subscript, reporting failures at the closing bracket
+    private int arrayIndex(LoxArray array, Object index, Token bracket) {
+        if (!(index instanceof Double)) {
+            throw new RuntimeError(bracket, "Array index must be a number.");
+        }
+
+        try {
+            return array.index(index, "[]");
+        }
+        catch (LoxNative.NativeError error) {
+            throw new RuntimeError(bracket, error.getMessage());
+        }
+    }
+
+    // check a map subscript, nil is the only value that cannot be a key
+    private Object mapKey(Object key, Token bracket) {
+        if (key == null) throw new RuntimeError(bracket, "Map key cannot be nil.");
+        return key;
+    }
+
     // interpret expressions with 'super' keyword
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
         // store number of hops to reach correct environment in stack
-        int distance = locals.get(expr);
+        int distance = expr.depth();
 
         // reach superclass by grabbing hashed value in correct environment
         LoxClass superclass = (LoxClass)environment.getAt(distance, "super");
@@ -146,7 +311,7 @@ class Interpreter implements Expr.Visitor<Object>,
     @Override
     public Object visitThisExpr(Expr.This expr) {
         // check scope of "this" for association with field
-        return lookUpVariable(expr.keyword, expr);
+        return lookUpVariable(expr.keyword, expr.depth());
     }
 
     // recognize unary expressions
@@ -177,13 +342,11 @@ class Interpreter implements Expr.Visitor<Object>,
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
         // get expression using resolved scope binding
-        return lookUpVariable(expr.name, expr);
+        return lookUpVariable(expr.name, expr.depth());
     }
 
     // utility method to check for a variable's binding and return the proper entities
-    private Object lookUpVariable(Token name, Expr expr) {
-        // track distance from given expression
-        Integer distance = locals.get(expr);
+    private Object lookUpVariable(Token name, Integer distance) {
 
         // check for value exists in a local scope
         if (distance != null) {
@@ -238,7 +401,7 @@ class Interpreter implements Expr.Visitor<Object>,
     }
 
     // format a given object as a string to pass to caller
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         // check for nil type
         if (object == null) return "nil";
 
@@ -278,9 +441,50 @@ class Interpreter implements Expr.Visitor<Object>,
     }
 
     // called by Resolver class to give interpreter proper scoping awareness
+        // the distance goes into the node's depth slot, nodes resolved as global keep null
     void resolve(Expr expr, int depth) {
-        // make insertion to local variables using given depth
-        locals.put(expr, depth);
+        if (expr instanceof Expr.Variable) ((Expr.Variable)expr).setDepth(depth);
+        else if (expr instanceof Expr.Assign) ((Expr.Assign)expr).setDepth(depth);
+        else if (expr instanceof Expr.This) ((Expr.This)expr).setDepth(depth);
+        else if (expr instanceof Expr.Super) ((Expr.Super)expr).setDepth(depth);
+        else throw new IllegalArgumentException("Cannot resolve " + expr);
+    }
+
+    // resolved scope distance for an expression, null when resolved as global
+    Integer resolvedDepth(Expr expr) {
+        if (expr instanceof Expr.Variable) return ((Expr.Variable)expr).depth();
+        if (expr instanceof Expr.Assign) return ((Expr.Assign)expr).depth();
+        if (expr instanceof Expr.This) return ((Expr.This)expr).depth();
+        if (expr instanceof Expr.Super) return ((Expr.Super)expr).depth();
+        return null;
+    }
+
+    // clear the runtime slots of every node, resolution included
+        // for cold benchmark runs, the tree must be resolved again before it runs
+    static void resetSlots(List<Stmt> statements) {
+        new AstWalker() {
+            @Override
+            void walk(Stmt stmt) {
+                stmt.resetSlots();
+                super.walk(stmt);
+            }
+
+            @Override
+            void walk(Expr expr) {
+                expr.resetSlots();
+                super.walk(expr);
+            }
+        }.walk(statements);
+    }
+
+    // record a type proven for an expression
+    void annotate(Expr expr, LoxType type) {
+        types.put(expr, type);
+    }
+
+    // proven type of an expression
+    LoxType typeOf(Expr expr) {
+        return types.getOrDefault(expr, LoxType.ANY);
     }
 
     // evaluation of a block of statements
@@ -398,7 +602,10 @@ class Interpreter implements Expr.Visitor<Object>,
     @Override
     public Void visitIfStmt(Stmt.If stmt) {
         // check for implicit evaluation of 'if' branch
-        if (isTruthy(evaluate(stmt.condition))) {
+        boolean taken = isTruthy(evaluate(stmt.condition));
+        // recording a hot loop, the trace keeps the branches seen
+        if (recorder != null) recorder.branch(stmt, taken);
+        if (taken) {
             // pursue corresponding branch
             execute(stmt.thenBranch);
         }
@@ -418,7 +625,7 @@ class Interpreter implements Expr.Visitor<Object>,
         // hold internal expression to print
         Object printVal = evaluate(stmt.expression);
         // log expression to monitor
-        System.out.println(stringify(printVal));
+        runtime.out.println(stringify(printVal));
         // no value produced
         return null;
     }
@@ -460,9 +667,33 @@ class Interpreter implements Expr.Visitor<Object>,
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
         // iterate while instance's condition is true
-        while (isTruthy(evaluate(stmt.condition))) {    // per-loop evaluation, slow
-            // act on body of code
-            execute(stmt.body);
+        // iteration counts of this loop, for replacing it while it runs
+        LoxJit.Loop loop = jit.loop(stmt);
+
+        try {
+            while (isTruthy(evaluate(stmt.condition))) {    // per-loop evaluation, slow
+                // act on body of code
+                execute(stmt.body);
+                // hot loops get their function compiled for its next call
+                if (profile != null) profile.backEdge();
+
+                // long-running loop, finish it in compiled code from the next condition check
+                if (loop != null && loop.backEdge(this)) {
+                    Object result = loop.resume(this, environment);
+                    // a trace's side exit finished its iteration interpreted, enter it again
+                    while (result == LoxJit.EXITED && loop.backEdge(this)) {
+                        result = loop.resume(this, environment);
+                    }
+                    if (result == LoxJit.EXITED) continue;
+                    // a 'return' in the body leaves the enclosing function as usual
+                    if (result != LoxJit.FINISHED) throw new Return(result);
+                    break;
+                }
+            }
+        }
+        finally {
+            // a trace recording cut short by the loop ending continues when it runs again
+            if (loop != null) loop.leave(this);
         }
         // no value produced
         return null;
@@ -475,7 +706,7 @@ class Interpreter implements Expr.Visitor<Object>,
         Object value = evaluate(expr.value);
 
         // get proper scope distance for assignment operation
-        Integer distance = locals.get(expr);
+        Integer distance = expr.depth();
 
         // check for successfully found in local scope stack
         if (distance != null) {
@@ -498,6 +729,8 @@ class Interpreter implements Expr.Visitor<Object>,
         // hold literals involved
         Object left = evaluate(expr.left);  // visitBinaryExpr
         Object right = evaluate(expr.right);
+        // recording a hot loop, the trace keeps whether operands were numbers
+        if (recorder != null) recorder.operands(expr, left, right);
 
         // evaluate operator after literals (parent after children)
         switch (expr.operator.type) {
@@ -544,6 +777,8 @@ class Interpreter implements Expr.Visitor<Object>,
                 }
                 // check for valid case as both strings
                 if (left instanceof String && right instanceof String) {
+                    // compiled code should not speculate on numbers here next run
+                    if (runProfile != null) runProfile.concatenated(expr);
                     // allow operation as concatenation
                     return (String)left + (String)right;
                 }
@@ -575,8 +810,22 @@ class Interpreter implements Expr.Visitor<Object>,
     // node has call expression attached
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        // evaluate expression to be called
-        Object callee = evaluate(expr.callee);
+        // site's inline cache checks the callee and its arity, then dispatches
+        LoxCallSite site = callSites.get(expr);
+        if (site == null) site = callSites.computeIfAbsent(expr, LoxCallSite::new);
+        // the sampler shows the calling frame at this line
+        if (LoxSampler.ENABLED) frames.line(expr.paren.line);
+
+        // evaluate expression to be called, methods bound through the site's class cache
+        Object callee = site.method != null ?
+            site.method.get(evaluate(((Expr.Get)expr.callee).object)) :
+            evaluate(expr.callee);
+
+        // constant call already folded, skip argument evaluation and the call itself
+        if (callee instanceof LoxNative && ((LoxNative)callee).pure) {
+            Folded fold = expr.folded();
+            if (fold != null && fold.function == callee) return fold.value;
+        }
 
         // buffer for arguments associated with node
         List<Object> arguments = new ArrayList<>();
@@ -586,26 +835,29 @@ class Interpreter implements Expr.Visitor<Object>,
             arguments.add(evaluate(argument));
         }
 
-        // check if called expression has is not allowed as a callable
-        if (!(callee instanceof LoxCallable)) {
-            // generate error
-            throw new RuntimeError(expr.paren,
-                "Can only call functions and classes.");
-        }
-
-        // translate evaluated callee expression to a callable object
-        LoxCallable function = (LoxCallable)callee;
+        // pass result of call
+        try {
+            Object result = site.call(this, callee, arguments);
 
-        // check for incorrect amount of arguments given
-        if (arguments.size() != function.arity()) {
-            // do not allow execution
-            throw new RuntimeError(expr.paren, "Expected " +
-                function.arity() + " arguments but got " +
-                arguments.size() + ".");
+            // literal arguments to a pure native give the same result every time
+            if (callee instanceof LoxNative && ((LoxNative)callee).pure &&
+                literalArguments(expr)) {
+                expr.setFolded(new Folded((LoxNative)callee, result));
+            }
+            return result;
+        }
+        // natives report failures without a token, attach the call site
+        catch (LoxNative.NativeError error) {
+            throw new RuntimeError(expr.paren, error.getMessage());
         }
+    }
 
-        // pass result of call
-        return function.call(this, arguments);
+    // true when every argument is a literal
+    private static boolean literalArguments(Expr.Call expr) {
+        for (Expr argument : expr.arguments) {
+            if (!(argument instanceof Expr.Literal)) return false;
+        }
+        return true;
     }
 
     // interpret class property getter
@@ -620,6 +872,16 @@ class Interpreter implements Expr.Visitor<Object>,
             return ((LoxInstance) object).get(expr.name);
         }
 
+        // check for native array methods
+        if (object instanceof LoxArray) {
+            return ((LoxArray) object).get(expr.name);
+        }
+
+        // check for native map methods
+        if (object instanceof LoxMap) {
+            return ((LoxMap) object).get(expr.name);
+        }
+
         // create error if incorrect type
         throw new RuntimeError(expr.name,
             "Only instances have properties.");
@@ -0,0 +1,571 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Java interop - bind allowlisted JDK methods as Lox functions
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// java(className, methodName) -> Lox function calling a public Java method
+    // static methods take the Lox arguments as-is, instance methods take the receiver first,
+    // e.g. java("java.lang.String", "toUpperCase")("abc")
+    // overloads are narrowed by parameter count - "name/2" picks one when counts differ -
+    // then on each call to those accepting the actual arguments, the one whose conversions
+    // are most direct wins, doubles and strings before narrower types, a tie is an error
+    // a call site keeps its last choice and reuses it while the argument classes repeat
+    // only classes on the allowlist can be reached, extend it with -Dlox.java.allow=a.B,c.D
+    // or LoxEngine.allowJava, members reading host state stay out even then
+class JavaInterop {
+
+    // classes without side effects on the host, reachable by default
+    private static final Set<String> allowed = ConcurrentHashMap.newKeySet();
+    static {
+        allowed.addAll(List.of(
+            "java.lang.Math", "java.lang.StrictMath", "java.lang.String",
+            "java.lang.Character", "java.lang.Integer", "java.lang.Long",
+            "java.lang.Double", "java.lang.Boolean"));
+
+        String extra = System.getProperty("lox.java.allow");
+        if (extra != null) {
+            for (String name : extra.split(",")) {
+                if (!name.isBlank()) allowed.add(name.trim());
+            }
+        }
+    }
+
+    // members of allowed classes that read JVM system properties
+    private static final Set<String> denied = Set.of(
+        "java.lang.Integer#getInteger", "java.lang.Long#getLong", "java.lang.Boolean#getBoolean");
+
+    // bound functions by "class#method", lookups and adaptation happen once per process
+    private static final Map<String, JavaFunction> cache = new ConcurrentHashMap<>();
+
+    private static final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+
+    // register the java native in an interpreter's globals
+    static void define(Environment globals) {
+        globals.define("java", new LoxNative("java", 2, (interpreter, arguments) -> {
+            String className = LoxNative.expect(arguments.get(0), String.class,
+                "java", "a class name string");
+            String methodName = LoxNative.expect(arguments.get(1), String.class,
+                "java", "a method name string");
+            return bind(className, methodName);
+        }));
+    }
+
+    // add a class to the allowlist
+    static void allow(String className) {
+        allowed.add(className);
+    }
+
+    // cached binding, resolved on first request
+    static JavaFunction bind(String className, String methodName) {
+        String key = className + "#" + methodName;
+        JavaFunction function = cache.get(key);
+        if (function != null) return function;
+
+        function = resolve(className, methodName);
+        JavaFunction raced = cache.putIfAbsent(key, function);
+        return raced != null ? raced : function;
+    }
+
+    // find, rank and adapt the overloads a name refers to
+    private static JavaFunction resolve(String className, String methodName) {
+        if (!allowed.contains(className)) {
+            throw new LoxNative.NativeError("Java class '" + className +
+                "' is not allowed.");
+        }
+
+        Class<?> type;
+        try {
+            type = Class.forName(className);
+        }
+        catch (ClassNotFoundException error) {
+            throw new LoxNative.NativeError("Unknown Java class '" + className + "'.");
+        }
+
+        // optional "/arity" suffix
+        String name = methodName;
+        int arity = -1;
+        int slash = methodName.indexOf('/');
+        if (slash >= 0) {
+            name = methodName.substring(0, slash);
+            try {
+                arity = Integer.parseInt(methodName.substring(slash + 1));
+            }
+            catch (NumberFormatException error) {
+                throw new LoxNative.NativeError("Bad arity in '" + methodName + "'.");
+            }
+        }
+
+        if (denied.contains(className + "#" + name)) {
+            throw new LoxNative.NativeError("Java method '" + className + "." + name +
+                "' is not allowed.");
+        }
+
+        // public methods with the name whose signature Lox values can reach
+        List<Method> candidates = new ArrayList<>();
+        for (Method method : type.getMethods()) {
+            if (!method.getName().equals(name)) continue;
+            if (method.getDeclaringClass() == Object.class) continue;
+            if (cost(method) < 0) continue;
+            if (arity >= 0 && loxArity(method) != arity) continue;
+            candidates.add(method);
+        }
+
+        if (candidates.isEmpty()) {
+            throw new LoxNative.NativeError("No usable Java method '" + methodName +
+                "' in " + className + ".");
+        }
+
+        // Lox calls have a fixed arity, overloads must agree on it
+        int first = loxArity(candidates.get(0));
+        for (Method method : candidates) {
+            if (loxArity(method) != first) {
+                throw new LoxNative.NativeError("Java method '" + name +
+                    "' is overloaded by arity, use '" + name + "/N'.");
+            }
+        }
+
+        // cheapest conversion first, calls take the first one their arguments fit
+        candidates.sort(Comparator.comparingInt((Method method) -> cost(method)));
+        Overload[] overloads = new Overload[candidates.size()];
+        for (int i = 0; i < overloads.length; i++) {
+            Method method = candidates.get(i);
+            try {
+                overloads[i] = new Overload(method, adapt(lookup.unreflect(method)), first);
+            }
+            catch (IllegalAccessException error) {
+                throw new LoxNative.NativeError("Java method '" + name +
+                    "' is not accessible.");
+            }
+        }
+        return new JavaFunction(className + "." + name, first, overloads);
+    }
+
+    // parameters seen from Lox, receiver included for instance methods
+    private static int loxArity(Method method) {
+        int count = method.getParameterCount();
+        return Modifier.isStatic(method.getModifiers()) ? count : count + 1;
+    }
+
+    // summed conversion cost of a signature, -1 when some parameter is unreachable
+    private static int cost(Method method) {
+        if (method.isVarArgs()) return -1;
+
+        int total = 0;
+        for (Class<?> parameter : method.getParameterTypes()) {
+            int cost = cost(parameter);
+            if (cost < 0) return -1;
+            total += cost;
+        }
+        return total;
+    }
+
+    private static int cost(Class<?> parameter) {
+        if (parameter == double.class || parameter == Double.class) return 0;
+        if (parameter == String.class || parameter == boolean.class) return 0;
+        if (parameter == CharSequence.class || parameter == Boolean.class) return 1;
+        // one-character strings are how Lox spells a char, prefer them over code points
+        if (parameter == char.class) return 2;
+        if (parameter == long.class || parameter == int.class) return 3;
+        if (parameter == float.class) return 4;
+        if (parameter == Object.class) return 5;
+        return -1;
+    }
+
+    // whether some value of an argument class could convert to a parameter, null class for nil
+    private static boolean admits(Class<?> parameter, Class<?> argument) {
+        if (parameter == double.class || parameter == float.class ||
+            parameter == long.class || parameter == int.class) {
+            return argument == Double.class;
+        }
+        if (parameter == boolean.class) return argument == Boolean.class;
+        if (parameter == char.class) return argument == String.class;
+        return argument == null || parameter.isAssignableFrom(argument);
+    }
+
+    // whether a Lox value converts to a parameter, receivers must be instances of their class
+    private static boolean accepts(Class<?> parameter, Object value) {
+        if (parameter == double.class || parameter == float.class) {
+            return value instanceof Double;
+        }
+        if (parameter == long.class || parameter == int.class) {
+            if (!(value instanceof Double)) return false;
+            double number = (Double)value;
+            if (parameter == int.class) return number == (int)number;
+            return number == (long)number;
+        }
+        if (parameter == boolean.class) return value instanceof Boolean;
+        if (parameter == char.class) {
+            return value instanceof String && ((String)value).length() == 1;
+        }
+        // reference parameters take nil
+        return value == null || parameter.isInstance(value);
+    }
+
+    // ##### MethodHandle adaptation #####
+
+    // converters from a Lox value to each reachable parameter type
+    private static final Map<Class<?>, MethodHandle> toJava = new ConcurrentHashMap<>();
+    // converters from a Java result back to a Lox value
+    private static final Map<Class<?>, MethodHandle> toLox = new ConcurrentHashMap<>();
+    static {
+        try {
+            MethodHandles.Lookup self = MethodHandles.lookup();
+            toJava.put(double.class, self.findStatic(JavaInterop.class, "toDouble",
+                MethodType.methodType(double.class, Object.class)));
+            toJava.put(float.class, self.findStatic(JavaInterop.class, "toFloat",
+                MethodType.methodType(float.class, Object.class)));
+            toJava.put(long.class, self.findStatic(JavaInterop.class, "toLong",
+                MethodType.methodType(long.class, Object.class)));
+            toJava.put(int.class, self.findStatic(JavaInterop.class, "toInt",
+                MethodType.methodType(int.class, Object.class)));
+            toJava.put(boolean.class, self.findStatic(JavaInterop.class, "toBoolean",
+                MethodType.methodType(boolean.class, Object.class)));
+            toJava.put(char.class, self.findStatic(JavaInterop.class, "toChar",
+                MethodType.methodType(char.class, Object.class)));
+            toJava.put(String.class, self.findStatic(JavaInterop.class, "toJavaString",
+                MethodType.methodType(String.class, Object.class)));
+
+            toLox.put(double.class, self.findStatic(JavaInterop.class, "fromDouble",
+                MethodType.methodType(Object.class, double.class)));
+            toLox.put(boolean.class, self.findStatic(JavaInterop.class, "fromBoolean",
+                MethodType.methodType(Object.class, boolean.class)));
+            toLox.put(char.class, self.findStatic(JavaInterop.class, "fromChar",
+                MethodType.methodType(Object.class, char.class)));
+            toLox.put(Object.class, self.findStatic(JavaInterop.class, "fromObject",
+                MethodType.methodType(Object.class, Object.class)));
+        }
+        catch (ReflectiveOperationException error) {
+            throw new ExceptionInInitializerError(error);
+        }
+    }
+
+    // reshape a method handle to (Object...)Object, one Object per Lox argument
+    private static MethodHandle adapt(MethodHandle handle) {
+        MethodType type = handle.type();
+
+        // convert each parameter from the Lox value it receives
+        for (int i = 0; i < type.parameterCount(); i++) {
+            Class<?> parameter = handle.type().parameterType(i);
+            MethodHandle filter = toJava.get(parameter);
+            if (filter != null) {
+                handle = MethodHandles.filterArguments(handle, i, filter);
+            }
+            // receivers, Double, Boolean, CharSequence and Object check with a cast
+            else {
+                handle = handle.asType(handle.type().changeParameterType(i, Object.class));
+            }
+        }
+
+        // results come back as Lox values, void becomes nil
+        Class<?> result = type.returnType();
+        if (result == void.class) {
+            MethodHandle nil = MethodHandles.dropArguments(
+                MethodHandles.constant(Object.class, null), 0, handle.type().parameterList());
+            handle = MethodHandles.foldArguments(nil, handle);
+        }
+        else {
+            // widen primitive numbers to double before boxing
+            if (result == int.class || result == long.class || result == float.class ||
+                result == short.class || result == byte.class) {
+                handle = handle.asType(handle.type().changeReturnType(double.class));
+                result = double.class;
+            }
+            else if (!result.isPrimitive()) {
+                handle = handle.asType(handle.type().changeReturnType(Object.class));
+                result = Object.class;
+            }
+            handle = MethodHandles.filterReturnValue(handle, toLox.get(result));
+        }
+
+        return handle.asType(MethodType.genericMethodType(handle.type().parameterCount()));
+    }
+
+    // ##### value conversions, called through the adapted handles #####
+
+    private static double toDouble(Object value) {
+        if (value instanceof Double) return (Double)value;
+        throw new LoxNative.NativeError("Expected a number.");
+    }
+
+    private static float toFloat(Object value) {
+        return (float)toDouble(value);
+    }
+
+    // integral parameters only accept whole numbers in range
+    private static long toLong(Object value) {
+        double number = toDouble(value);
+        long whole = (long)number;
+        if (whole != number) {
+            throw new LoxNative.NativeError("Expected a whole number.");
+        }
+        return whole;
+    }
+
+    private static int toInt(Object value) {
+        long whole = toLong(value);
+        if (whole != (int)whole) {
+            throw new LoxNative.NativeError("Number out of integer range.");
+        }
+        return (int)whole;
+    }
+
+    private static boolean toBoolean(Object value) {
+        if (value instanceof Boolean) return (Boolean)value;
+        throw new LoxNative.NativeError("Expected a boolean.");
+    }
+
+    private static char toChar(Object value) {
+        String string = toJavaString(value);
+        if (string.length() != 1) {
+            throw new LoxNative.NativeError("Expected a one-character string.");
+        }
+        return string.charAt(0);
+    }
+
+    private static String toJavaString(Object value) {
+        if (value instanceof String) return (String)value;
+        throw new LoxNative.NativeError("Expected a string.");
+    }
+
+    private static Object fromDouble(double value) {
+        return value;
+    }
+
+    private static Object fromBoolean(boolean value) {
+        return value;
+    }
+
+    private static Object fromChar(char value) {
+        return String.valueOf(value);
+    }
+
+    // boxed numbers and characters become Lox numbers and strings, anything else passes through
+    private static Object fromObject(Object value) {
+        if (value instanceof Number && !(value instanceof Double)) {
+            return ((Number)value).doubleValue();
+        }
+        if (value instanceof Character) return value.toString();
+        return value;
+    }
+
+    // one overload of a bound name, adapted
+    private static final class Overload {
+        // parameters seen from Lox, receiver first for instance methods
+        final Class<?>[] parameters;
+        final int cost;
+        // (Object...)Object with exactly arity parameters
+        final MethodHandle handle;
+        // same handle taking one Object[], used above the unrolled arities
+        final MethodHandle spread;
+        // a receiver, checked before the call so a cast failing inside the method is not
+        // mistaken for a wrong receiver, null receivers included
+        private final boolean instance;
+        // positions of the Double, Boolean and CharSequence parameters cast by asType
+        private final int[] casts;
+
+        Overload(Method method, MethodHandle handle, int arity) {
+            List<Class<?>> parameters = new ArrayList<>();
+            this.instance = !Modifier.isStatic(method.getModifiers());
+            if (instance) parameters.add(method.getDeclaringClass());
+            parameters.addAll(List.of(method.getParameterTypes()));
+            this.parameters = parameters.toArray(new Class<?>[0]);
+            this.cost = cost(method);
+            this.handle = handle;
+            this.spread = handle.asSpreader(Object[].class, arity);
+
+            List<Integer> casts = new ArrayList<>();
+            for (int i = instance ? 1 : 0; i < this.parameters.length; i++) {
+                Class<?> parameter = this.parameters[i];
+                if (!parameter.isPrimitive() && parameter != String.class &&
+                    parameter != Object.class) {
+                    casts.add(i);
+                }
+            }
+            this.casts = casts.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        boolean accepts(List<Object> arguments) {
+            if (instance && !parameters[0].isInstance(arguments.get(0))) return false;
+            for (int i = instance ? 1 : 0; i < parameters.length; i++) {
+                if (!JavaInterop.accepts(parameters[i], arguments.get(i))) return false;
+            }
+            return true;
+        }
+
+        // whether arguments of these classes could ever reach this overload
+        boolean admits(Class<?>[] classes) {
+            if (instance && (classes[0] == null || !parameters[0].isAssignableFrom(classes[0]))) {
+                return false;
+            }
+            for (int i = instance ? 1 : 0; i < parameters.length; i++) {
+                if (!JavaInterop.admits(parameters[i], classes[i])) return false;
+            }
+            return true;
+        }
+
+        // the checks the asType casts would make, done before the method runs
+        void checkCasts(String name, List<Object> arguments) {
+            if (instance && !parameters[0].isInstance(arguments.get(0))) {
+                throw new LoxNative.NativeError(name + ": expects a " +
+                    parameters[0].getSimpleName() + " receiver.");
+            }
+            for (int i : casts) {
+                Object argument = arguments.get(i);
+                if (argument != null && !parameters[i].isInstance(argument)) {
+                    throw new LoxNative.NativeError(name + ": wrong argument type.");
+                }
+            }
+        }
+    }
+
+    // Lox function bound to the overloads of one name, all with the same arity
+    static class JavaFunction implements LoxCallable {
+        private final String name;
+        private final int arity;
+        // cheapest first
+        private final Overload[] overloads;
+
+        JavaFunction(String name, int arity, Overload[] overloads) {
+            this.name = name;
+            this.arity = arity;
+            this.overloads = overloads;
+        }
+
+        @Override
+        public int arity() {
+            return arity;
+        }
+
+        // cheapest overload the arguments fit, a single one converts and reports on its own
+        private Overload select(List<Object> arguments) {
+            if (overloads.length == 1) return overloads[0];
+
+            for (int i = 0; i < overloads.length; i++) {
+                Overload overload = overloads[i];
+                if (!overload.accepts(arguments)) continue;
+                // overloads just as cheap come right after it
+                int next = i + 1;
+                while (next < overloads.length && overloads[next].cost == overload.cost) {
+                    if (overloads[next++].accepts(arguments)) {
+                        throw new LoxNative.NativeError(name +
+                            ": ambiguous call, several overloads fit these arguments.");
+                    }
+                }
+                return overload;
+            }
+            throw new LoxNative.NativeError(name + ": no overload fits these arguments.");
+        }
+
+        // true when no overload as cheap as the chosen one could take arguments of these
+        // classes, then the classes decide the choice as long as the chosen one accepts
+        private boolean decided(Overload chosen, Class<?>[] classes) {
+            for (Overload overload : overloads) {
+                if (overload.cost > chosen.cost) break;
+                if (overload != chosen && overload.admits(classes)) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return invoke(select(arguments), arguments);
+        }
+
+        private Object invoke(Overload overload, List<Object> arguments) {
+            overload.checkCasts(name, arguments);
+            MethodHandle handle = overload.handle;
+            try {
+                // exact invocations for common arities, no array or reflection
+                switch (arity) {
+                    case 0: return (Object)handle.invokeExact();
+                    case 1: return (Object)handle.invokeExact(arguments.get(0));
+                    case 2: return (Object)handle.invokeExact(arguments.get(0),
+                        arguments.get(1));
+                    case 3: return (Object)handle.invokeExact(arguments.get(0),
+                        arguments.get(1), arguments.get(2));
+                    default: return (Object)overload.spread.invokeExact(arguments.toArray());
+                }
+            }
+            catch (LoxNative.NativeError error) {
+                throw new LoxNative.NativeError(name + ": " + error.getMessage());
+            }
+            catch (Throwable error) {
+                throw new LoxNative.NativeError(name + " threw " + error + ".");
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "<java fn " + name + ">";
+        }
+    }
+
+    // overload chosen at one call site, reused while the function and argument classes repeat
+        // monomorphic, a call with another function or other classes selects again and
+        // replaces it - kept by LoxCallSite for the tree walker and in a static field of
+        // compiled code
+    static final class Site {
+        // last choice the argument classes decided, null until there is one
+        private volatile Choice choice;
+
+        Object call(JavaFunction function, List<Object> arguments) {
+            Overload[] overloads = function.overloads;
+            if (overloads.length == 1) return function.invoke(overloads[0], arguments);
+
+            Choice cached = choice;
+            if (cached != null && cached.matches(function, arguments) &&
+                cached.overload.accepts(arguments)) {
+                return function.invoke(cached.overload, arguments);
+            }
+
+            Overload overload = function.select(arguments);
+            Class<?>[] classes = new Class<?>[arguments.size()];
+            for (int i = 0; i < classes.length; i++) classes[i] = classOf(arguments.get(i));
+            if (function.decided(overload, classes)) {
+                choice = new Choice(function, classes, overload);
+            }
+            return function.invoke(overload, arguments);
+        }
+    }
+
+    private static final class Choice {
+        final JavaFunction function;
+        final Class<?>[] classes;
+        final Overload overload;
+
+        Choice(JavaFunction function, Class<?>[] classes, Overload overload) {
+            this.function = function;
+            this.classes = classes;
+            this.overload = overload;
+        }
+
+        boolean matches(JavaFunction function, List<Object> arguments) {
+            if (function != this.function) return false;
+            for (int i = 0; i < classes.length; i++) {
+                if (classOf(arguments.get(i)) != classes[i]) return false;
+            }
+            return true;
+        }
+    }
+
+    private static Class<?> classOf(Object value) {
+        return value == null ? null : value.getClass();
+    }
+}
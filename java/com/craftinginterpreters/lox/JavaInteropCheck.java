@@ -0,0 +1,75 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Java interop check - overload choice and allowlist on known calls
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// evaluates small java() calls and compares each result with the expected one
+    // usage: JavaInteropCheck, exits 70 when a result differs, run by make java_interop_check
+    // an expected value starting with "error: " must be a runtime error containing the rest
+class JavaInteropCheck {
+
+    private static final Map<String, Object> CASES = new LinkedHashMap<>();
+    static {
+        // the overload is chosen from the arguments of each call, not once per name
+        CASES.put("java(\"java.lang.String\", \"valueOf\")(3);", "3.0");
+        CASES.put("java(\"java.lang.String\", \"valueOf\")(true);", "true");
+        CASES.put("java(\"java.lang.String\", \"valueOf\")(\"x\");", "x");
+        CASES.put("var valueOf = java(\"java.lang.String\", \"valueOf\");" +
+            " valueOf(true) + valueOf(2.5);", "true2.5");
+        CASES.put("java(\"java.lang.Math\", \"max\")(2, 3);", 3.0);
+        CASES.put("java(\"java.lang.Integer\", \"toHexString\")(255);", "ff");
+        CASES.put("java(\"java.lang.String\", \"replace\")(\"abc\", \"b\", \"x\");", "axc");
+        CASES.put("java(\"java.lang.String\", \"indexOf/2\")(\"abc\", \"c\");", 2.0);
+        CASES.put("java(\"java.lang.Integer\", \"toHexString\")(1.5);",
+            "error: Expected a whole number");
+        // receivers are checked before the call, a cast failing inside the method is its own
+        CASES.put("java(\"java.lang.String\", \"length\")(3);",
+            "error: expects a String receiver");
+        CASES.put("java(\"java.lang.Double\", \"isNaN/1\")(nil);", "error: no overload fits");
+        // static isNaN(double) and the instance isNaN() both take one number
+        CASES.put("java(\"java.lang.Double\", \"isNaN/1\")(0);", "error: ambiguous call");
+        // members reading system properties stay out although their classes are allowed
+        CASES.put("java(\"java.lang.Integer\", \"getInteger\");", "error: is not allowed");
+        CASES.put("java(\"java.lang.Long\", \"getLong/1\");", "error: is not allowed");
+        CASES.put("java(\"java.lang.Boolean\", \"getBoolean\");", "error: is not allowed");
+        CASES.put("java(\"java.lang.System\", \"getenv\");", "error: is not allowed");
+    }
+
+    public static void main(String[] args) {
+        int failed = 0;
+        for (Map.Entry<String, Object> check : CASES.entrySet()) {
+            String actual = run(check.getKey());
+            Object expected = check.getValue();
+            boolean passed = expected instanceof String && ((String)expected).startsWith("error: ")
+                ? actual.startsWith("error: ") &&
+                    actual.contains(((String)expected).substring("error: ".length()))
+                : actual.equals(String.valueOf(expected));
+            if (!passed) {
+                System.out.println("FAIL " + check.getKey());
+                System.out.println("  expected " + expected + ", got " + actual);
+                failed++;
+            }
+        }
+
+        System.out.println((CASES.size() - failed) + " of " + CASES.size() + " checks passed");
+        if (failed > 0) System.exit(70);
+    }
+
+    // result of the trailing expression, or the error it raised
+    private static String run(String source) {
+        try {
+            return String.valueOf(new LoxEngine().eval(source));
+        }
+        catch (LoxScriptException error) {
+            return "error: " + error.getMessage();
+        }
+    }
+}
@@ -0,0 +1,1652 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   JVM back end - resolved syntax tree to bytecode
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.craftinginterpreters.lox.ClassFileWriter.*;
+
+// compiles Lox functions into static methods of one generated class
+    // function i becomes  static Object fn<i>$<name>(Interpreter, Environment closure, Object... params)
+    // the class implements CompiledFunction.Code, dispatching on i, so LoxFunction can call it
+    // uncaptured locals live in JVM locals, captured ones in Environment objects shaped exactly
+    // like the interpreter's, so interpreted and compiled closures can see each other's scopes
+    // values stay boxed and dynamic operations go through LoxOps
+class JvmCompiler {
+
+    // internal names and descriptors of the runtime
+    static final String PACKAGE = "com/craftinginterpreters/lox/";
+    private static final String OPS = PACKAGE + "LoxOps";
+    private static final String ENVIRONMENT = PACKAGE + "Environment";
+    private static final String INTERPRETER = PACKAGE + "Interpreter";
+    private static final String TOKEN = PACKAGE + "Token";
+    private static final String FUNCTION = PACKAGE + "LoxFunction";
+    private static final String COMPILED = PACKAGE + "CompiledFunction";
+    private static final String CODE = PACKAGE + "CompiledFunction$Code";
+    private static final String METHOD_SITE = PACKAGE + "LoxMethodSite";
+    private static final String JAVA_SITE = PACKAGE + "JavaInterop$Site";
+    private static final String DECLARATION = PACKAGE + "Stmt$Function";
+
+    private static final String OBJECT_D = "Ljava/lang/Object;";
+    private static final String ENVIRONMENT_D = "L" + ENVIRONMENT + ";";
+    private static final String INTERPRETER_D = "L" + INTERPRETER + ";";
+    private static final String TOKEN_D = "L" + TOKEN + ";";
+    private static final String COMPILED_D = "L" + COMPILED + ";";
+    private static final String CODE_D = "L" + CODE + ";";
+    private static final String METHOD_SITE_D = "L" + METHOD_SITE + ";";
+    private static final String JAVA_SITE_D = "L" + JAVA_SITE + ";";
+    private static final String DECLARATION_D = "L" + DECLARATION + ";";
+    private static final String ASSUMPTION = PACKAGE + "LoxAssumption";
+    private static final String ASSUMPTION_D = "L" + ASSUMPTION + ";";
+    private static final String EXIT = PACKAGE + "LoxTrace$Exit";
+
+    // local slots shared by every compiled function
+    private static final int INTERPRETER_LOCAL = 0;
+    private static final int CLOSURE_LOCAL = 1;
+    private static final int FIRST_PARAMETER = 2;
+
+    private final ClassFileWriter out;
+    // interpreter holding the resolver's scope distances
+    private final Interpreter resolution;
+    // compiling for LoxJit - functions keep their declarations, received as class data
+    private final boolean jit;
+    // '+' assumes numbers, invalidating the code when it sees anything else
+    private final boolean speculate;
+    private final ScopeAnalysis analysis = new ScopeAnalysis();
+
+    // functions in the class, index 0 is the unit's root, null for a top-level script
+    private final List<Stmt.Function> functions = new ArrayList<>();
+    private final Map<Stmt.Function, Integer> functionIndex = new HashMap<>();
+
+    // constants materialized in <clinit>, field name by value
+    private final Map<String, Token> tokens = new LinkedHashMap<>();
+    private final Map<String, Double> numbers = new LinkedHashMap<>();
+    private final List<List<Stmt.Function>> methodTables = new ArrayList<>();
+    // method caches of 'object.name(...)' calls, by the token field of the name
+    private final List<String> methodSites = new ArrayList<>();
+    // overload caches of generic calls, one per call expression in case it calls Java
+    private int javaSites = 0;
+    // runtime objects the code refers to, handed over as class data after the functions
+        // inlined declarations, folded globals and their assumptions, deoptimization points
+    private final List<Object> constants = new ArrayList<>();
+    private final List<String> constantTypes = new ArrayList<>();
+    // facts the unit's root function is invalidated with
+    private final List<LoxAssumption> assumptions = new ArrayList<>();
+    // picks the calls to expand, only just-in-time units have profiles to go on
+    private final Inliner inliner;
+    // recorded path of the loop being compiled as a trace, null for any other unit
+    private LoxTrace trace;
+    // statements emitted, inlined ones included, reported as the trace's length
+    private int length = 0;
+
+    private JvmCompiler(String className, Interpreter resolution, boolean jit,
+                        boolean speculate) {
+        this.out = new ClassFileWriter(ACC_FINAL | ACC_SUPER, className,
+            "java/lang/Object", CODE);
+        this.resolution = resolution;
+        this.jit = jit;
+        this.speculate = speculate;
+        this.inliner = jit ?
+            new Inliner(resolution, className.substring(className.lastIndexOf('$') + 1)) : null;
+    }
+
+    // compile a loop that is already running, for on-stack replacement
+        // function 0 is the loop alone, entered through the bridge with the interpreter's
+        // current environment as closure, so every variable it sees is already in that chain
+        // returns LoxJit.FINISHED when the loop ends, or the value of a return in its body
+        // with a trace, only recorded branches are compiled and LoxJit.EXITED is returned
+        // after a side exit
+    static Unit compileLoop(String className, Stmt.While loop, Interpreter resolution,
+                            LoxTrace trace) {
+        JvmCompiler compiler = new JvmCompiler(className, resolution, true, false);
+        compiler.trace = trace;
+        List<Stmt> body = Collections.singletonList(loop);
+        compiler.analysis.analyze(body);
+        compiler.functions.add(null);
+
+        compiler.method(0, null, body);
+        if (trace != null) trace.built(compiler.length);
+        compiler.drain();
+        return new Unit(compiler.finish(), compiler.classData(), compiler.assumptions);
+    }
+
+    // generated class with the declarations of its functions, index i is function i
+        // define as a hidden class with the declarations as class data
+        // constants follow the unit's own functions, in the order of their C fields
+    static final class Unit {
+        final byte[] bytes;
+        final List<Object> data;
+        // LoxJit registers the loaded root function as dependent of each
+        final List<LoxAssumption> assumptions;
+
+        Unit(byte[] bytes, List<Object> data, List<LoxAssumption> assumptions) {
+            this.bytes = bytes;
+            this.data = data;
+            this.assumptions = assumptions;
+        }
+    }
+
+    // compile a whole program, function 0 runs its top-level statements against globals
+    static byte[] compileProgram(String className, List<Stmt> statements,
+                                 Interpreter resolution) {
+        JvmCompiler compiler = new JvmCompiler(className, resolution, false, false);
+        compiler.analysis.analyze(statements);
+        compiler.functions.add(null);
+
+        compiler.method(0, null, statements);
+        compiler.drain();
+        return compiler.finish();
+    }
+
+    // compile one function and everything nested in it, function 0 is the declaration
+        // variables outside the function are reached through the closure it is called with
+    static Unit compileFunction(String className, Stmt.Function declaration,
+                                Interpreter resolution, boolean speculate) {
+        JvmCompiler compiler = new JvmCompiler(className, resolution, true, speculate);
+        compiler.analysis.analyze(declaration);
+        compiler.register(declaration);
+
+        compiler.drain();
+        return new Unit(compiler.finish(), compiler.classData(), compiler.assumptions);
+    }
+
+    // ##### unit #####
+
+    // objects read back by <clinit>, the unit's functions then constants
+    private List<Object> classData() {
+        List<Object> data = new ArrayList<>(functions);
+        data.addAll(constants);
+        return data;
+    }
+
+    // static field holding a runtime object of the given internal type, just-in-time only
+    private String constant(Object value, String type) {
+        for (int i = 0; i < constants.size(); i++) {
+            if (constants.get(i) == value) return "C" + i;
+        }
+        constants.add(value);
+        constantTypes.add(type);
+        return "C" + (constants.size() - 1);
+    }
+
+    // compile functions registered while compiling earlier ones
+    private void drain() {
+        for (int i = 0; i < functions.size(); i++) {
+            Stmt.Function function = functions.get(i);
+            // top-level script, compiled before draining
+            if (function == null) continue;
+
+            method(i, function, function.body);
+        }
+    }
+
+    // index of a nested function, compiled later by drain
+    private int register(Stmt.Function function) {
+        Integer index = functionIndex.get(function);
+        if (index != null) return index;
+
+        index = functions.size();
+        functions.add(function);
+        functionIndex.put(function, index);
+        return index;
+    }
+
+    // static method name, Lox identifiers are valid JVM names
+    private String methodName(int index) {
+        Stmt.Function function = functions.get(index);
+        return "fn" + index + "$" + (function == null ? "script" : function.name.lexeme);
+    }
+
+    private static String descriptor(int arity) {
+        StringBuilder descriptor = new StringBuilder("(" + INTERPRETER_D + ENVIRONMENT_D);
+        for (int i = 0; i < arity; i++) descriptor.append(OBJECT_D);
+        return descriptor.append(")").append(OBJECT_D).toString();
+    }
+
+    private static int arity(Stmt.Function function) {
+        return function == null ? 0 : function.params.size();
+    }
+
+    private void method(int index, Stmt.Function function, List<Stmt> body) {
+        Code code = out.method(ACC_STATIC, methodName(index), descriptor(arity(function)));
+        new FunctionEmitter(code, index).compile(function, body);
+    }
+
+    // bridge, constructor and constant initialization, then the class bytes
+    private byte[] finish() {
+        String self = out.name;
+
+        // CompiledFunction.Code.invoke - switch on the function index
+        Code invoke = out.method(ACC_PUBLIC, "invoke",
+            "(I" + INTERPRETER_D + ENVIRONMENT_D + "[" + OBJECT_D + ")" + OBJECT_D);
+        Label fallback = new Label();
+        Label[] cases = new Label[functions.size()];
+        for (int i = 0; i < cases.length; i++) cases[i] = new Label();
+        invoke.iload(1);
+        invoke.tableswitch(0, fallback, cases);
+        for (int i = 0; i < cases.length; i++) {
+            invoke.mark(cases[i]);
+            invoke.aload(2);
+            invoke.aload(3);
+            for (int p = 0; p < arity(functions.get(i)); p++) {
+                invoke.aload(4);
+                invoke.iconst(p);
+                invoke.op(AALOAD, -1);
+            }
+            invoke.invokestatic(self, methodName(i), descriptor(arity(functions.get(i))));
+            invoke.terminate(ARETURN);
+        }
+        invoke.mark(fallback);
+        invoke.aconstNull();
+        invoke.terminate(ARETURN);
+
+        Code init = out.method(0, "<init>", "()V");
+        init.aload(0);
+        init.invokespecial("java/lang/Object", "<init>", "()V");
+        init.terminate(RETURN);
+
+        // constants are final statics so HotSpot folds them into compiled code
+        Code clinit = out.method(ACC_STATIC, "<clinit>", "()V");
+
+        out.field(ACC_STATIC | ACC_FINAL, "INSTANCE", CODE_D);
+        clinit.newObject(self);
+        clinit.op(DUP, 1);
+        clinit.invokespecial(self, "<init>", "()V");
+        clinit.putstatic(self, "INSTANCE", CODE_D);
+
+        for (Map.Entry<String, Token> entry : tokens.entrySet()) {
+            Token token = entry.getValue();
+            out.field(ACC_STATIC | ACC_FINAL, entry.getKey(), TOKEN_D);
+            clinit.newObject(TOKEN);
+            clinit.op(DUP, 1);
+            clinit.getstatic(PACKAGE + "TokenType", token.type.name(),
+                "L" + PACKAGE + "TokenType;");
+            clinit.ldc(token.lexeme);
+            clinit.aconstNull();
+            clinit.iconst(token.line);
+            clinit.invokespecial(TOKEN, "<init>",
+                "(L" + PACKAGE + "TokenType;Ljava/lang/String;" + OBJECT_D + "I)V");
+            clinit.putstatic(self, entry.getKey(), TOKEN_D);
+        }
+
+        for (Map.Entry<String, Double> entry : numbers.entrySet()) {
+            out.field(ACC_STATIC | ACC_FINAL, entry.getKey(), "Ljava/lang/Double;");
+            clinit.ldc(entry.getValue());
+            clinit.invokestatic("java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
+            clinit.putstatic(self, entry.getKey(), "Ljava/lang/Double;");
+        }
+
+        // declarations handed over by LoxJit, MethodHandles.classData(lookup(), "_", List.class)
+        int declarations = -1;
+        if (jit) {
+            declarations = clinit.newLocal(1);
+            clinit.invokestatic("java/lang/invoke/MethodHandles", "lookup",
+                "()Ljava/lang/invoke/MethodHandles$Lookup;");
+            clinit.ldc("_");
+            clinit.ldcClass("java/util/List");
+            clinit.invokestatic("java/lang/invoke/MethodHandles", "classData",
+                "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)" +
+                OBJECT_D);
+            clinit.checkcast("java/util/List");
+            clinit.astore(declarations);
+        }
+
+        // descriptors of every function, a top-level script is only entered through the bridge
+        for (int i = 0; i < functions.size(); i++) {
+            Stmt.Function function = functions.get(i);
+            if (function == null) continue;
+
+            out.field(ACC_STATIC | ACC_FINAL, "F" + i, COMPILED_D);
+            clinit.newObject(COMPILED);
+            clinit.op(DUP, 1);
+            clinit.ldc(function.name.lexeme);
+            clinit.iconst(function.params.size());
+            clinit.getstatic(self, "INSTANCE", CODE_D);
+            clinit.iconst(i);
+            if (jit) {
+                clinit.aload(declarations);
+                clinit.iconst(i);
+                clinit.invokeinterface("java/util/List", "get", "(I)" + OBJECT_D);
+                clinit.checkcast(PACKAGE + "Stmt$Function");
+            }
+            else {
+                clinit.aconstNull();
+            }
+            clinit.invokespecial(COMPILED, "<init>",
+                "(Ljava/lang/String;I" + CODE_D + "IL" + PACKAGE + "Stmt$Function;)V");
+            clinit.putstatic(self, "F" + i, COMPILED_D);
+        }
+
+        for (int n = 0; n < constants.size(); n++) {
+            String type = "L" + constantTypes.get(n) + ";";
+            out.field(ACC_STATIC | ACC_FINAL, "C" + n, type);
+            clinit.aload(declarations);
+            clinit.iconst(functions.size() + n);
+            clinit.invokeinterface("java/util/List", "get", "(I)" + OBJECT_D);
+            clinit.checkcast(constantTypes.get(n));
+            clinit.putstatic(self, "C" + n, type);
+        }
+
+        for (int t = 0; t < methodTables.size(); t++) {
+            List<Stmt.Function> methods = methodTables.get(t);
+            out.field(ACC_STATIC | ACC_FINAL, "M" + t, "[" + COMPILED_D);
+            clinit.iconst(methods.size());
+            clinit.anewarray(COMPILED);
+            for (int m = 0; m < methods.size(); m++) {
+                clinit.op(DUP, 1);
+                clinit.iconst(m);
+                clinit.getstatic(self, "F" + functionIndex.get(methods.get(m)), COMPILED_D);
+                clinit.op(AASTORE, -3);
+            }
+            clinit.putstatic(self, "M" + t, "[" + COMPILED_D);
+        }
+
+        for (int s = 0; s < methodSites.size(); s++) {
+            out.field(ACC_STATIC | ACC_FINAL, "S" + s, METHOD_SITE_D);
+            clinit.newObject(METHOD_SITE);
+            clinit.op(DUP, 1);
+            clinit.getstatic(self, methodSites.get(s), TOKEN_D);
+            clinit.invokespecial(METHOD_SITE, "<init>", "(" + TOKEN_D + ")V");
+            clinit.putstatic(self, "S" + s, METHOD_SITE_D);
+        }
+
+        for (int j = 0; j < javaSites; j++) {
+            out.field(ACC_STATIC | ACC_FINAL, "J" + j, JAVA_SITE_D);
+            clinit.newObject(JAVA_SITE);
+            clinit.op(DUP, 1);
+            clinit.invokespecial(JAVA_SITE, "<init>", "()V");
+            clinit.putstatic(self, "J" + j, JAVA_SITE_D);
+        }
+
+        clinit.terminate(RETURN);
+        return out.toByteArray();
+    }
+
+    // static field holding a token, for error locations and names
+    private String token(Token token) {
+        String key = "T" + token.type.ordinal() + "_" + token.line + "_" + token.lexeme;
+        for (Map.Entry<String, Token> entry : tokens.entrySet()) {
+            Token known = entry.getValue();
+            if (known.type == token.type && known.line == token.line &&
+                known.lexeme.equals(token.lexeme)) {
+                return entry.getKey();
+            }
+        }
+        String field = "T" + tokens.size();
+        tokens.put(field, token);
+        return field;
+    }
+
+    // static field holding a boxed number literal
+    private String number(Double value) {
+        for (Map.Entry<String, Double> entry : numbers.entrySet()) {
+            if (entry.getValue().equals(value)) return entry.getKey();
+        }
+        String field = "N" + numbers.size();
+        numbers.put(field, value);
+        return field;
+    }
+
+    // source line of an expression, for traces, the fallback when it carries no token
+    static int line(Expr expr, int fallback) {
+        if (expr instanceof Expr.Binary) return ((Expr.Binary)expr).operator.line;
+        if (expr instanceof Expr.Logical) return ((Expr.Logical)expr).operator.line;
+        if (expr instanceof Expr.Unary) return ((Expr.Unary)expr).operator.line;
+        if (expr instanceof Expr.Variable) return ((Expr.Variable)expr).name.line;
+        if (expr instanceof Expr.Assign) return ((Expr.Assign)expr).name.line;
+        if (expr instanceof Expr.Call) return ((Expr.Call)expr).paren.line;
+        if (expr instanceof Expr.Get) return ((Expr.Get)expr).name.line;
+        if (expr instanceof Expr.Grouping) return line(((Expr.Grouping)expr).expression, fallback);
+        return fallback;
+    }
+
+    // ##### scope analysis #####
+
+    // finds which locals are captured by nested functions and which scopes must exist at runtime
+        // a scope containing a function or class declaration keeps its Environment, so closures
+        // see the same chain the interpreter builds, only its captured variables are stored there
+    private class ScopeAnalysis extends AstWalker {
+
+        // one resolver scope during the walk
+        private class Scope {
+            final Object node;
+            // function nesting depth the scope belongs to, -1 for 'this' and 'super' scopes
+            final int level;
+
+            Scope(Object node, int level) {
+                this.node = node;
+                this.level = level;
+            }
+        }
+
+        // captured variable names per scope node (block or function)
+        private final Map<Object, Set<String>> captured = new HashMap<>();
+        // scope nodes with a function or class declared somewhere inside
+        private final Set<Object> enclosing = new HashSet<>();
+
+        private final List<Scope> scopes = new ArrayList<>();
+        private int level = 0;
+
+        void analyze(List<Stmt> statements) {
+            walk(statements);
+        }
+
+        void analyze(Stmt.Function root) {
+            // level 0 stays empty, nothing outside the root is compiled
+            function(root);
+        }
+
+        boolean materialized(Object node) {
+            return enclosing.contains(node);
+        }
+
+        boolean captured(Object node, String name) {
+            Set<String> names = captured.get(node);
+            return names != null && names.contains(name);
+        }
+
+        // every open scope of this unit will hold a closure's environment
+        private void closureHere() {
+            for (Scope scope : scopes) {
+                if (scope.level >= 0) enclosing.add(scope.node);
+            }
+        }
+
+        private void function(Stmt.Function function) {
+            level++;
+            scopes.add(new Scope(function, level));
+            walk(function.body);
+            scopes.remove(scopes.size() - 1);
+            level--;
+        }
+
+        // reference resolved d scopes out, captured when it crosses a function boundary
+        private void reference(Expr expr, String name) {
+            Integer depth = resolution.resolvedDepth(expr);
+            // globals and scopes outside the unit are never stored in JVM locals
+            if (depth == null || depth >= scopes.size()) return;
+
+            Scope target = scopes.get(scopes.size() - 1 - depth);
+            if (target.level >= 0 && target.level < level) {
+                captured.computeIfAbsent(target.node, node -> new HashSet<>()).add(name);
+            }
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            scopes.add(new Scope(stmt, level));
+            walk(stmt.statements);
+            scopes.remove(scopes.size() - 1);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            closureHere();
+            function(stmt);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            if (stmt.superclass != null) walk(stmt.superclass);
+            closureHere();
+
+            // 'super' and 'this' scopes, created by the class machinery not by compiled code
+            if (stmt.superclass != null) scopes.add(new Scope(stmt, -1));
+            scopes.add(new Scope(stmt, -1));
+            for (Stmt.Function method : stmt.methods) function(method);
+            scopes.remove(scopes.size() - 1);
+            if (stmt.superclass != null) scopes.remove(scopes.size() - 1);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            reference(expr, expr.name.lexeme);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            walk(expr.value);
+            reference(expr, expr.name.lexeme);
+            return null;
+        }
+    }
+
+    // ##### code generation #####
+
+    // emits one function body
+    private class FunctionEmitter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+        // scope of the function being compiled
+        private class Scope {
+            final Object node;
+            // local slot of the scope's Environment, -1 when it is elided
+            final int environment;
+            // uncaptured variables and their JVM locals
+            final Map<String, Integer> locals = new HashMap<>();
+
+            Scope(Object node, int environment) {
+                this.node = node;
+                this.environment = environment;
+            }
+        }
+
+        private final Code code;
+        // index of the function, for its F field
+        private final int function;
+        private final List<Scope> scopes = new ArrayList<>();
+        // local holding the innermost runtime Environment
+        private int environment = CLOSURE_LOCAL;
+        // emitting an inlined body, calls inside it stay calls
+        private boolean inlining = false;
+
+        // statement lists being emitted, outermost first, for deoptimization points
+        private class Position {
+            final List<Stmt> statements;
+            final int scope;
+            // first statement not yet started
+            int next = 0;
+
+            Position(List<Stmt> statements) {
+                this.statements = statements;
+                this.scope = scopes.size() - 1;
+            }
+        }
+        private final List<Position> path = new ArrayList<>();
+        // first entry of path inside the traced loop's body, a side exit finishes those
+        private int traceBase = -1;
+
+        FunctionEmitter(Code code, int function) {
+            this.code = code;
+            this.function = function;
+        }
+
+        void compile(Stmt.Function function, List<Stmt> body) {
+            // parameter scope, as LoxFunction.call would create it
+            if (function != null) {
+                Scope scope = enter(function);
+                for (int i = 0; i < function.params.size(); i++) {
+                    String name = function.params.get(i).lexeme;
+                    if (analysis.captured(function, name)) {
+                        code.aload(FIRST_PARAMETER + i);
+                        code.aload(scope.environment);
+                        code.ldc(name);
+                        code.invokestatic(OPS, "define",
+                            "(" + OBJECT_D + ENVIRONMENT_D + "Ljava/lang/String;)V");
+                    }
+                    else {
+                        scope.locals.put(name, FIRST_PARAMETER + i);
+                    }
+                }
+            }
+
+            statements(body);
+
+            // falling off the end returns nil, a replaced loop tells its interpreter it ended
+            if (function == null && jit) code.getstatic(PACKAGE + "LoxJit", "FINISHED", OBJECT_D);
+            else code.aconstNull();
+            code.terminate(ARETURN);
+        }
+
+        // emit a list of statements, tracking where the interpreter would continue
+        private void statements(List<Stmt> statements) {
+            Position position = new Position(statements);
+            path.add(position);
+            for (Stmt statement : statements) {
+                position.next++;
+                statement(statement);
+            }
+            path.remove(path.size() - 1);
+        }
+
+        private void statement(Stmt statement) {
+            length++;
+            statement.accept(this);
+        }
+
+        // ##### scopes #####
+
+        private Scope enter(Object node) {
+            int local = -1;
+            if (analysis.materialized(node)) {
+                local = code.newLocal(1);
+                code.newObject(ENVIRONMENT);
+                code.op(DUP, 1);
+                code.aload(environment);
+                code.invokespecial(ENVIRONMENT, "<init>", "(" + ENVIRONMENT_D + ")V");
+                code.astore(local);
+                environment = local;
+            }
+
+            Scope scope = new Scope(node, local);
+            scopes.add(scope);
+            return scope;
+        }
+
+        private void exit() {
+            scopes.remove(scopes.size() - 1);
+            // innermost remaining runtime scope, or the closure
+            environment = CLOSURE_LOCAL;
+            for (Scope scope : scopes) {
+                if (scope.environment >= 0) environment = scope.environment;
+            }
+        }
+
+        // runtime scopes among scopes[from, to)
+        private int materialized(int from, int to) {
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                if (scopes.get(i).environment >= 0) count++;
+            }
+            return count;
+        }
+
+        // Environment hops from the innermost runtime scope for a resolved distance
+        private int hops(int depth) {
+            int own = scopes.size();
+            if (depth < own) return materialized(own - depth, own);
+            // past this function's scopes, the closure chain is shaped like the interpreter's
+            return materialized(0, own) + (depth - own);
+        }
+
+        // ##### variables #####
+
+        // bind a new variable in the innermost scope to the value on the stack
+        private void declare(String name) {
+            if (scopes.isEmpty()) {
+                code.aload(INTERPRETER_LOCAL);
+                code.ldc(name);
+                code.invokestatic(OPS, "defineGlobal",
+                    "(" + OBJECT_D + INTERPRETER_D + "Ljava/lang/String;)V");
+                return;
+            }
+
+            Scope scope = scopes.get(scopes.size() - 1);
+            if (analysis.captured(scope.node, name)) {
+                code.aload(scope.environment);
+                code.ldc(name);
+                code.invokestatic(OPS, "define",
+                    "(" + OBJECT_D + ENVIRONMENT_D + "Ljava/lang/String;)V");
+                return;
+            }
+
+            Integer local = scope.locals.get(name);
+            if (local == null) {
+                local = code.newLocal(1);
+                scope.locals.put(name, local);
+            }
+            code.astore(local);
+        }
+
+        // push a variable's value
+        private void load(Expr expr, Token name) {
+            Integer depth = resolution.resolvedDepth(expr);
+            if (depth == null) {
+                Label end = speculate ? loadStable(name) : null;
+                code.aload(INTERPRETER_LOCAL);
+                code.getfield(INTERPRETER, "globals", ENVIRONMENT_D);
+                code.getstatic(out.name, token(name), TOKEN_D);
+                code.invokevirtual(ENVIRONMENT, "get", "(" + TOKEN_D + ")" + OBJECT_D);
+                if (end != null) code.mark(end);
+                return;
+            }
+
+            Integer local = local(depth, name.lexeme);
+            if (local != null) {
+                code.aload(local);
+                return;
+            }
+
+            code.aload(environment);
+            code.iconst(hops(depth));
+            code.ldc(name.lexeme);
+            code.invokevirtual(ENVIRONMENT, "getAt",
+                "(ILjava/lang/String;)" + OBJECT_D);
+        }
+
+        // a global bound to a function, class or native read as a constant while it stays bound
+            // emits the guarded constant and returns the label after the generic lookup that
+            // follows, or emits nothing and returns null when the global is not folded
+        private Label loadStable(Token name) {
+            Environment globals = resolution.globals;
+            if (!(globals.getAt(0, name.lexeme) instanceof LoxCallable)) return null;
+            LoxAssumption stable = globals.stability(name.lexeme);
+            // read after the assumption exists, a change in between has already invalidated it
+            Object value = globals.getAt(0, name.lexeme);
+            if (!stable.isValid() || !(value instanceof LoxCallable)) return null;
+
+            if (!assumptions.contains(stable)) assumptions.add(stable);
+            String guard = constant(stable, ASSUMPTION);
+            Label changed = new Label();
+            Label end = new Label();
+            code.getstatic(out.name, guard, ASSUMPTION_D);
+            code.invokevirtual(ASSUMPTION, "isValid", "()Z");
+            code.jump(IFEQ, changed);
+            code.getstatic(out.name, constant(value, "java/lang/Object"), OBJECT_D);
+            code.jump(GOTO, end);
+
+            // the root function went with the assumption, a nested one is dropped here
+            code.mark(changed);
+            code.getstatic(out.name, guard, ASSUMPTION_D);
+            code.getstatic(out.name, "F" + function, COMPILED_D);
+            code.invokevirtual(ASSUMPTION, "depend", "(" + COMPILED_D + ")V");
+            return end;
+        }
+
+        // store the value on the stack into a variable, leaving the value
+        private void store(Expr expr, Token name) {
+            Integer depth = resolution.resolvedDepth(expr);
+            if (depth == null) {
+                code.aload(INTERPRETER_LOCAL);
+                code.getstatic(out.name, token(name), TOKEN_D);
+                code.invokestatic(OPS, "assignGlobal",
+                    "(" + OBJECT_D + INTERPRETER_D + TOKEN_D + ")" + OBJECT_D);
+                return;
+            }
+
+            Integer local = local(depth, name.lexeme);
+            if (local != null) {
+                code.op(DUP, 1);
+                code.astore(local);
+                return;
+            }
+
+            code.aload(environment);
+            code.iconst(hops(depth));
+            code.getstatic(out.name, token(name), TOKEN_D);
+            code.invokestatic(OPS, "assignAt",
+                "(" + OBJECT_D + ENVIRONMENT_D + "I" + TOKEN_D + ")" + OBJECT_D);
+        }
+
+        // JVM local of an uncaptured variable of this function, null otherwise
+        private Integer local(int depth, String name) {
+            if (depth >= scopes.size()) return null;
+            return scopes.get(scopes.size() - 1 - depth).locals.get(name);
+        }
+
+        // ##### conditions #####
+
+        // jump when an expression is falsey, nothing left on the stack
+        private void jumpIfFalse(Expr expr, Label target) {
+            condition(expr, target, false);
+        }
+
+        private void condition(Expr expr, Label target, boolean jumpWhen) {
+            if (expr instanceof Expr.Grouping) {
+                condition(((Expr.Grouping)expr).expression, target, jumpWhen);
+                return;
+            }
+
+            if (expr instanceof Expr.Unary && ((Expr.Unary)expr).operator.type == TokenType.BANG) {
+                condition(((Expr.Unary)expr).right, target, !jumpWhen);
+                return;
+            }
+
+            if (expr instanceof Expr.Logical) {
+                Expr.Logical logical = (Expr.Logical)expr;
+                boolean isOr = logical.operator.type == TokenType.OR;
+                // 'a or b' jumps on true when either is, 'a and b' on false when either is
+                if (isOr == jumpWhen) {
+                    condition(logical.left, target, jumpWhen);
+                    condition(logical.right, target, jumpWhen);
+                }
+                else {
+                    Label skip = new Label();
+                    condition(logical.left, skip, !jumpWhen);
+                    condition(logical.right, target, jumpWhen);
+                    code.mark(skip);
+                }
+                return;
+            }
+
+            if (expr instanceof Expr.Binary && ordering(((Expr.Binary)expr).operator.type) &&
+                numeric((Expr.Binary)expr)) {
+                compareUnboxed((Expr.Binary)expr, target, jumpWhen);
+                return;
+            }
+
+            if (expr instanceof Expr.Binary && ordering(((Expr.Binary)expr).operator.type) &&
+                guarded((Expr.Binary)expr)) {
+                Expr.Binary binary = (Expr.Binary)expr;
+                Label slow = new Label();
+                Label end = new Label();
+                int operands = checkedOperands(binary, slow);
+                compareDoubles(binary.operator.type, target, jumpWhen);
+                code.jump(GOTO, end);
+
+                code.mark(slow);
+                generic(binary, operands);
+                code.jump(jumpWhen ? IFNE : IFEQ, target);
+                code.mark(end);
+                return;
+            }
+
+            if (expr instanceof Expr.Binary) {
+                String test = comparison(((Expr.Binary)expr).operator.type);
+                if (test != null) {
+                    Expr.Binary binary = (Expr.Binary)expr;
+                    binary.left.accept(this);
+                    binary.right.accept(this);
+                    if (test.equals("isEqual")) {
+                        code.invokestatic(OPS, test, "(" + OBJECT_D + OBJECT_D + ")Z");
+                    }
+                    else {
+                        code.getstatic(out.name, token(binary.operator), TOKEN_D);
+                        code.invokestatic(OPS, test,
+                            "(" + OBJECT_D + OBJECT_D + TOKEN_D + ")Z");
+                    }
+                    boolean negate = binary.operator.type == TokenType.BANG_EQUAL;
+                    code.jump(jumpWhen != negate ? IFNE : IFEQ, target);
+                    return;
+                }
+            }
+
+            expr.accept(this);
+            code.invokestatic(OPS, "isTruthy", "(" + OBJECT_D + ")Z");
+            code.jump(jumpWhen ? IFNE : IFEQ, target);
+        }
+
+        // LoxOps test returning a primitive boolean, null for other operators
+        private String comparison(TokenType type) {
+            switch (type) {
+                case GREATER: return "greater";
+                case GREATER_EQUAL: return "greaterEqual";
+                case LESS: return "less";
+                case LESS_EQUAL: return "lessEqual";
+                case EQUAL_EQUAL: case BANG_EQUAL: return "isEqual";
+                default: return null;
+            }
+        }
+
+        // ##### unboxed numbers #####
+
+        // proven a number by TypeInference
+        private boolean proven(Expr expr) {
+            return resolution.typeOf(expr) == LoxType.NUMBER;
+        }
+
+        // both operands proven numbers, operand checks and boxing can be skipped
+        private boolean numeric(Expr.Binary expr) {
+            return proven(expr.left) && proven(expr.right);
+        }
+
+        private boolean ordering(TokenType type) {
+            return type == TokenType.GREATER || type == TokenType.GREATER_EQUAL ||
+                type == TokenType.LESS || type == TokenType.LESS_EQUAL;
+        }
+
+        // double instruction for an arithmetic operator, 0 for others
+        private int arithmetic(TokenType type) {
+            switch (type) {
+                case PLUS: return DADD;
+                case MINUS: return DSUB;
+                case STAR: return DMUL;
+                case SLASH: return DDIV;
+                default: return 0;
+            }
+        }
+
+        // push a proven number as a double, arithmetic between proven numbers stays unboxed
+        private void unboxed(Expr expr) {
+            if (expr instanceof Expr.Literal) {
+                code.ldc((Double)((Expr.Literal)expr).value);
+                return;
+            }
+
+            if (expr instanceof Expr.Grouping) {
+                unboxed(((Expr.Grouping)expr).expression);
+                return;
+            }
+
+            if (expr instanceof Expr.Unary && proven(((Expr.Unary)expr).right)) {
+                unboxed(((Expr.Unary)expr).right);
+                code.op(DNEG, 0);
+                return;
+            }
+
+            if (expr instanceof Expr.Binary) {
+                Expr.Binary binary = (Expr.Binary)expr;
+                int opcode = arithmetic(binary.operator.type);
+                if (opcode != 0 && numeric(binary)) {
+                    unboxed(binary.left);
+                    unboxed(binary.right);
+                    code.op(opcode, -2);
+                    return;
+                }
+            }
+
+            // anything else computes a boxed number
+            expr.accept(this);
+            code.checkcast("java/lang/Double");
+            code.invokevirtual("java/lang/Double", "doubleValue", "()D");
+        }
+
+        private void box() {
+            code.invokestatic("java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
+        }
+
+        // jump on an ordering of proven numbers, NaN compares false like Double's operators
+        private void compareUnboxed(Expr.Binary expr, Label target, boolean jumpWhen) {
+            unboxed(expr.left);
+            unboxed(expr.right);
+            compareDoubles(expr.operator.type, target, jumpWhen);
+        }
+
+        // jump on an ordering of the two doubles on the stack
+        private void compareDoubles(TokenType type, Label target, boolean jumpWhen) {
+            // dcmpg pushes 1 for NaN, dcmpl -1, either way the ordering fails
+            boolean less = type == TokenType.LESS || type == TokenType.LESS_EQUAL;
+            code.op(less ? DCMPG : DCMPL, -3);
+
+            int test;
+            switch (type) {
+                case LESS: test = jumpWhen ? IFLT : IFGE; break;
+                case LESS_EQUAL: test = jumpWhen ? IFLE : IFGT; break;
+                case GREATER: test = jumpWhen ? IFGT : IFLE; break;
+                default: test = jumpWhen ? IFGE : IFLT; break;
+            }
+            code.jump(test, target);
+        }
+
+        // ##### type guards #####
+
+        // operator a trace only saw numbers reach, not already proven by inference
+        private boolean guarded(Expr.Binary expr) {
+            return trace != null && trace.numeric(expr) && !numeric(expr) &&
+                (arithmetic(expr.operator.type) != 0 || ordering(expr.operator.type));
+        }
+
+        // both operands as doubles, or a jump to slow when either is not a number
+            // the boxed values stay in the returned local and the one after it
+        private int checkedOperands(Expr.Binary expr, Label slow) {
+            int left = code.newLocal(1);
+            int right = code.newLocal(1);
+            expr.left.accept(this);
+            code.astore(left);
+            expr.right.accept(this);
+            code.astore(right);
+
+            for (int operand = left; operand <= right; operand++) {
+                code.aload(operand);
+                code.instanceOf("java/lang/Double");
+                code.jump(IFEQ, slow);
+            }
+            for (int operand = left; operand <= right; operand++) {
+                code.aload(operand);
+                code.checkcast("java/lang/Double");
+                code.invokevirtual("java/lang/Double", "doubleValue", "()D");
+            }
+            return left;
+        }
+
+        // the unchecked operation on boxed operands, orderings leave a primitive boolean
+        private void generic(Expr.Binary expr, int operands) {
+            code.aload(operands);
+            code.aload(operands + 1);
+            code.getstatic(out.name, token(expr.operator), TOKEN_D);
+            String test = comparison(expr.operator.type);
+            if (test != null) {
+                code.invokestatic(OPS, test, "(" + OBJECT_D + OBJECT_D + TOKEN_D + ")Z");
+            }
+            else {
+                code.invokestatic(OPS, operation(expr.operator.type),
+                    "(" + OBJECT_D + OBJECT_D + TOKEN_D + ")" + OBJECT_D);
+            }
+        }
+
+        // LoxOps method of an arithmetic operator
+        private String operation(TokenType type) {
+            switch (type) {
+                case PLUS: return "add";
+                case MINUS: return "subtract";
+                case STAR: return "multiply";
+                case SLASH: return "divide";
+                default: throw new IllegalStateException("Unknown operator " + type);
+            }
+        }
+
+        // ##### statements #####
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            enter(stmt);
+            statements(stmt.statements);
+            exit();
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            // superclass is checked before the name is bound
+            int superclass = -1;
+            if (stmt.superclass != null) {
+                load(stmt.superclass, stmt.superclass.name);
+                code.getstatic(out.name, token(stmt.superclass.name), TOKEN_D);
+                code.invokestatic(OPS, "superclass",
+                    "(" + OBJECT_D + TOKEN_D + ")" + OBJECT_D);
+                superclass = code.newLocal(1);
+                code.astore(superclass);
+            }
+
+            // reserve the name, methods may refer to the class
+            code.aconstNull();
+            declare(stmt.name.lexeme);
+
+            int table = methodTables.size();
+            methodTables.add(stmt.methods);
+            for (Stmt.Function method : stmt.methods) register(method);
+
+            code.ldc(stmt.name.lexeme);
+            if (superclass >= 0) code.aload(superclass);
+            else code.aconstNull();
+            code.aload(environment);
+            code.getstatic(out.name, "M" + table, "[" + COMPILED_D);
+            code.invokestatic(OPS, "makeClass", "(Ljava/lang/String;" + OBJECT_D +
+                ENVIRONMENT_D + "[" + COMPILED_D + ")L" + PACKAGE + "LoxClass;");
+            declare(stmt.name.lexeme);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            stmt.expression.accept(this);
+            code.op(POP, -1);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            int index = register(stmt);
+            code.newObject(FUNCTION);
+            code.op(DUP, 1);
+            code.getstatic(out.name, "F" + index, COMPILED_D);
+            code.aload(environment);
+            code.iconst(0);
+            code.invokespecial(FUNCTION, "<init>", "(" + COMPILED_D + ENVIRONMENT_D + "Z)V");
+            declare(stmt.name.lexeme);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            Boolean direction = trace == null || traceBase < 0 ? null : trace.direction(stmt);
+            if (direction != null) {
+                guard(stmt, direction);
+                return null;
+            }
+
+            Label otherwise = new Label();
+            Label end = new Label();
+
+            jumpIfFalse(stmt.condition, otherwise);
+            statement(stmt.thenBranch);
+            if (stmt.elseBranch != null) code.jump(GOTO, end);
+            code.mark(otherwise);
+            if (stmt.elseBranch != null) {
+                statement(stmt.elseBranch);
+                code.mark(end);
+            }
+            return null;
+        }
+
+        // the branch the trace recorded, the other one leaves the trace
+        private void guard(Stmt.If stmt, boolean then) {
+            Label exit = new Label();
+            Label end = new Label();
+
+            condition(stmt.condition, exit, !then);
+            Stmt taken = then ? stmt.thenBranch : stmt.elseBranch;
+            if (taken != null) statement(taken);
+            code.jump(GOTO, end);
+
+            code.mark(exit);
+            sideExit(stmt, then ? stmt.elseBranch : stmt.thenBranch);
+            code.mark(end);
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            code.aload(INTERPRETER_LOCAL);
+            stmt.expression.accept(this);
+            code.invokestatic(OPS, "print", "(" + INTERPRETER_D + OBJECT_D + ")V");
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            if (stmt.value != null) stmt.value.accept(this);
+            else code.aconstNull();
+            code.terminate(ARETURN);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            if (stmt.initializer != null) {
+                stmt.initializer.accept(this);
+            }
+            // declared without a value, reads report it like the interpreter does
+            else {
+                code.getstatic(ENVIRONMENT, "UNINITIALIZED", OBJECT_D);
+            }
+            declare(stmt.name.lexeme);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            Label start = new Label();
+            Label end = new Label();
+
+            code.mark(start);
+            if (speculate) deoptimization(stmt);
+            jumpIfFalse(stmt.condition, end);
+
+            // after the body the interpreter runs the whole loop again
+            path.add(new Position(Collections.singletonList(stmt)));
+            // a side exit of a trace finishes the body only, the interpreter's loop goes on
+            if (trace != null && stmt == trace.loop) traceBase = path.size();
+            statement(stmt.body);
+            if (trace != null && stmt == trace.loop) traceBase = -1;
+            path.remove(path.size() - 1);
+
+            code.jump(GOTO, start);
+            code.mark(end);
+            return null;
+        }
+
+        // '+' that an earlier run or the interpreter saw adding strings
+        private boolean concatenates(Expr.Binary expr) {
+            RunProfile profile = resolution.runProfile;
+            return profile != null && profile.concatenates(expr);
+        }
+
+        // at a loop head, hand the activation to the interpreter once the code is invalidated
+            // the loop and every statement after it at each level run in rebuilt environments
+        private void deoptimization(Stmt.While loop) {
+            Label run = new Label();
+            code.getstatic(out.name, "F" + function, COMPILED_D);
+            code.invokevirtual(COMPILED, "invalidated", "()Z");
+            code.jump(IFEQ, run);
+
+            List<LoxDeopt.Frame> frames = new ArrayList<>();
+            frames.add(new LoxDeopt.Frame(Collections.singletonList(loop), scopes.size() - 1));
+            remaining(frames, 0);
+            Stmt.Function declaration = functions.get(function);
+            String point = constant(new LoxDeopt(declaration.name.lexeme,
+                line(loop.condition, declaration.name.line), frames), PACKAGE + "LoxDeopt");
+
+            int rebuilt = rebuild();
+            code.getstatic(out.name, point, "L" + PACKAGE + "LoxDeopt;");
+            code.aload(INTERPRETER_LOCAL);
+            code.getstatic(out.name, "F" + function, COMPILED_D);
+            code.aload(rebuilt);
+            code.invokevirtual(PACKAGE + "LoxDeopt", "resume", "(" + INTERPRETER_D +
+                COMPILED_D + "[" + ENVIRONMENT_D + ")" + OBJECT_D);
+            code.terminate(ARETURN);
+            code.mark(run);
+        }
+
+        // at a guard of a trace, run the untaken branch and the rest of the iteration
+            // interpreted and leave, the interpreter enters the trace again for the next one
+        private void sideExit(Stmt.If stmt, Stmt branch) {
+            List<LoxDeopt.Frame> frames = new ArrayList<>();
+            if (branch != null) {
+                frames.add(new LoxDeopt.Frame(Collections.singletonList(branch),
+                    scopes.size() - 1));
+            }
+            remaining(frames, traceBase);
+            LoxTrace.Guard guard = trace.guard(stmt,
+                line(stmt.condition, line(trace.loop.condition, 0)));
+            String exit = constant(new LoxTrace.Exit(trace, guard, frames), EXIT);
+
+            int rebuilt = rebuild();
+            code.getstatic(out.name, exit, "L" + EXIT + ";");
+            code.aload(INTERPRETER_LOCAL);
+            code.aload(CLOSURE_LOCAL);
+            code.aload(rebuilt);
+            code.invokevirtual(EXIT, "run", "(" + INTERPRETER_D + ENVIRONMENT_D +
+                "[" + ENVIRONMENT_D + ")" + OBJECT_D);
+            code.terminate(ARETURN);
+        }
+
+        // statements not yet started in each list of path from the given entry, innermost first
+        private void remaining(List<LoxDeopt.Frame> frames, int from) {
+            for (int i = path.size() - 1; i >= from; i--) {
+                Position position = path.get(i);
+                List<Stmt> rest = position.statements.subList(position.next,
+                    position.statements.size());
+                if (!rest.isEmpty()) frames.add(new LoxDeopt.Frame(rest, position.scope));
+            }
+        }
+
+        // local holding one Environment per scope, with the variables kept in JVM locals
+            // elided scopes are created over the innermost real one, scopes that need an
+            // Environment always enclose the ones that do not
+        private int rebuild() {
+            int rebuilt = code.newLocal(1);
+            code.iconst(scopes.size());
+            code.anewarray(ENVIRONMENT);
+            code.astore(rebuilt);
+            for (int i = 0; i < scopes.size(); i++) {
+                Scope scope = scopes.get(i);
+                code.aload(rebuilt);
+                code.iconst(i);
+                if (scope.environment >= 0) {
+                    code.aload(scope.environment);
+                }
+                else {
+                    code.newObject(ENVIRONMENT);
+                    code.op(DUP, 1);
+                    if (i == 0) {
+                        code.aload(CLOSURE_LOCAL);
+                    }
+                    else {
+                        code.aload(rebuilt);
+                        code.iconst(i - 1);
+                        code.op(AALOAD, -1);
+                    }
+                    code.invokespecial(ENVIRONMENT, "<init>", "(" + ENVIRONMENT_D + ")V");
+                }
+                code.op(AASTORE, -3);
+
+                // variables kept in JVM locals
+                for (Map.Entry<String, Integer> local : scope.locals.entrySet()) {
+                    code.aload(rebuilt);
+                    code.iconst(i);
+                    code.op(AALOAD, -1);
+                    code.ldc(local.getKey());
+                    code.aload(local.getValue());
+                    code.invokevirtual(ENVIRONMENT, "define",
+                        "(Ljava/lang/String;" + OBJECT_D + ")V");
+                }
+            }
+            return rebuilt;
+        }
+
+        // ##### expressions #####
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            expr.value.accept(this);
+            store(expr, expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            // proven numbers, no checks and no intermediate boxes
+            if (numeric(expr) && arithmetic(expr.operator.type) != 0) {
+                unboxed(expr);
+                box();
+                return null;
+            }
+
+            if (numeric(expr) && ordering(expr.operator.type)) {
+                Label holds = new Label();
+                Label end = new Label();
+                compareUnboxed(expr, holds, true);
+                code.getstatic("java/lang/Boolean", "FALSE", "Ljava/lang/Boolean;");
+                code.jump(GOTO, end);
+                code.mark(holds);
+                code.getstatic("java/lang/Boolean", "TRUE", "Ljava/lang/Boolean;");
+                code.mark(end);
+                return null;
+            }
+
+            // numbers in every recorded iteration of a trace, checked here
+            if (guarded(expr)) {
+                Label slow = new Label();
+                Label end = new Label();
+                int operands = checkedOperands(expr, slow);
+                if (ordering(expr.operator.type)) {
+                    Label holds = new Label();
+                    compareDoubles(expr.operator.type, holds, true);
+                    code.getstatic("java/lang/Boolean", "FALSE", "Ljava/lang/Boolean;");
+                    code.jump(GOTO, end);
+                    code.mark(holds);
+                    code.getstatic("java/lang/Boolean", "TRUE", "Ljava/lang/Boolean;");
+                }
+                else {
+                    code.op(arithmetic(expr.operator.type), -2);
+                    box();
+                }
+                code.jump(GOTO, end);
+
+                code.mark(slow);
+                generic(expr, operands);
+                if (ordering(expr.operator.type)) {
+                    code.invokestatic("java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+                }
+                code.mark(end);
+                return null;
+            }
+
+            expr.left.accept(this);
+            expr.right.accept(this);
+
+            switch (expr.operator.type) {
+                case EQUAL_EQUAL:
+                    code.invokestatic(OPS, "equal",
+                        "(" + OBJECT_D + OBJECT_D + ")" + OBJECT_D);
+                    return null;
+                case BANG_EQUAL:
+                    code.invokestatic(OPS, "notEqual",
+                        "(" + OBJECT_D + OBJECT_D + ")" + OBJECT_D);
+                    return null;
+                default:
+                    break;
+            }
+
+            code.getstatic(out.name, token(expr.operator), TOKEN_D);
+            String test = comparison(expr.operator.type);
+            if (test != null) {
+                code.invokestatic(OPS, test, "(" + OBJECT_D + OBJECT_D + TOKEN_D + ")Z");
+                code.invokestatic("java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+                return null;
+            }
+
+            // speculate on numbers, the code is dropped on the first string concatenation
+            if (speculate && expr.operator.type == TokenType.PLUS && !concatenates(expr)) {
+                code.getstatic(out.name, "F" + function, COMPILED_D);
+                code.invokestatic(OPS, "addNumbers",
+                    "(" + OBJECT_D + OBJECT_D + TOKEN_D + COMPILED_D + ")" + OBJECT_D);
+                return null;
+            }
+
+            code.invokestatic(OPS, operation(expr.operator.type),
+                "(" + OBJECT_D + OBJECT_D + TOKEN_D + ")" + OBJECT_D);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            Inliner.Decision decision = inliner == null || inlining ? null : inliner.decide(expr);
+            if (decision != null) {
+                inline(expr, decision);
+                return null;
+            }
+
+            code.aload(INTERPRETER_LOCAL);
+            if (expr.callee instanceof Expr.Get) {
+                // bound through a class hierarchy cache of its own
+                Expr.Get get = (Expr.Get)expr.callee;
+                String site = methodSite(get);
+                code.getstatic(out.name, site, METHOD_SITE_D);
+                get.object.accept(this);
+                code.invokevirtual(METHOD_SITE, "get", "(" + OBJECT_D + ")" + OBJECT_D);
+            }
+            else {
+                expr.callee.accept(this);
+            }
+            call(expr);
+            return null;
+        }
+
+        // field of a new method cache for the property of a call
+        private String methodSite(Expr.Get get) {
+            String site = "S" + methodSites.size();
+            methodSites.add(token(get.name));
+            return site;
+        }
+
+        // arguments and the generic call, interpreter and callee already on the stack
+        private void call(Expr.Call expr) {
+            code.iconst(expr.arguments.size());
+            code.anewarray("java/lang/Object");
+            for (int i = 0; i < expr.arguments.size(); i++) {
+                code.op(DUP, 1);
+                code.iconst(i);
+                expr.arguments.get(i).accept(this);
+                code.op(AASTORE, -3);
+            }
+
+            code.getstatic(out.name, token(expr.paren), TOKEN_D);
+            code.getstatic(out.name, "J" + javaSites++, JAVA_SITE_D);
+            code.invokestatic(OPS, "call", "(" + INTERPRETER_D + OBJECT_D +
+                "[" + OBJECT_D + TOKEN_D + JAVA_SITE_D + ")" + OBJECT_D);
+        }
+
+        // the target's body in this frame when the callee is the profiled one, else the call
+            // parameters live in JVM locals of a scope pushed over the caller's, 'this' in one
+            // right outside it, matching the distances the resolver gave the body
+        private void inline(Expr.Call expr, Inliner.Decision decision) {
+            Stmt.Function target = decision.target;
+            String identity = constant(target, DECLARATION);
+            // overriding or shadowing the method invalidates the whole unit
+            if (speculate && decision.binding != null && !assumptions.contains(decision.binding)) {
+                assumptions.add(decision.binding);
+            }
+            int callee = code.newLocal(1);
+            Label slow = new Label();
+            Label end = new Label();
+
+            // guard before the arguments run, where the call would have evaluated its callee
+            String site = null;
+            if (decision.method) {
+                Expr.Get get = (Expr.Get)expr.callee;
+                site = methodSite(get);
+                get.object.accept(this);
+                code.astore(callee);
+                code.getstatic(out.name, site, METHOD_SITE_D);
+                code.aload(callee);
+                code.getstatic(out.name, identity, DECLARATION_D);
+                code.invokevirtual(METHOD_SITE, "binds",
+                    "(" + OBJECT_D + DECLARATION_D + ")Z");
+            }
+            else {
+                expr.callee.accept(this);
+                code.astore(callee);
+                code.aload(callee);
+                code.getstatic(out.name, identity, DECLARATION_D);
+                code.invokestatic(OPS, "calls", "(" + OBJECT_D + DECLARATION_D + ")Z");
+            }
+            code.jump(IFEQ, slow);
+
+            Scope receiver = new Scope(expr, -1);
+            receiver.locals.put("this", callee);
+            Scope parameters = new Scope(target, -1);
+            for (int i = 0; i < target.params.size(); i++) {
+                int local = code.newLocal(1);
+                expr.arguments.get(i).accept(this);
+                code.astore(local);
+                parameters.locals.put(target.params.get(i).lexeme, local);
+            }
+
+            List<Scope> caller = new ArrayList<>(scopes);
+            scopes.add(receiver);
+            scopes.add(parameters);
+            inlining = true;
+            List<Stmt> body = target.body;
+            Stmt last = body.isEmpty() ? null : body.get(body.size() - 1);
+            for (Stmt statement : body) {
+                if (statement != last || !(last instanceof Stmt.Return)) statement(statement);
+            }
+            Expr result = last instanceof Stmt.Return ? ((Stmt.Return)last).value : null;
+            if (result != null) result.accept(this);
+            else code.aconstNull();
+            inlining = false;
+            scopes.clear();
+            scopes.addAll(caller);
+            code.jump(GOTO, end);
+
+            // profile no longer holds here, the ordinary call
+            code.mark(slow);
+            if (speculate) {
+                code.getstatic(out.name, "F" + function, COMPILED_D);
+                code.ldc("inlined '" + target.name.lexeme + "' at [line " +
+                    expr.paren.line + "] called with another target");
+                code.invokevirtual(COMPILED, "invalidate", "(Ljava/lang/String;)V");
+            }
+            code.aload(INTERPRETER_LOCAL);
+            if (decision.method) {
+                code.getstatic(out.name, site, METHOD_SITE_D);
+                code.aload(callee);
+                code.invokevirtual(METHOD_SITE, "get", "(" + OBJECT_D + ")" + OBJECT_D);
+            }
+            else {
+                code.aload(callee);
+            }
+            call(expr);
+            code.mark(end);
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            expr.object.accept(this);
+            code.getstatic(out.name, token(expr.name), TOKEN_D);
+            code.invokestatic(OPS, "get", "(" + OBJECT_D + TOKEN_D + ")" + OBJECT_D);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            expr.expression.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitIndexExpr(Expr.Index expr) {
+            expr.object.accept(this);
+            expr.index.accept(this);
+            code.getstatic(out.name, token(expr.bracket), TOKEN_D);
+            code.invokestatic(OPS, "index",
+                "(" + OBJECT_D + OBJECT_D + TOKEN_D + ")" + OBJECT_D);
+            return null;
+        }
+
+        @Override
+        public Void visitIndexSetExpr(Expr.IndexSet expr) {
+            int index = code.newLocal(1);
+
+            // target is checked before the value is evaluated
+            expr.object.accept(this);
+            expr.index.accept(this);
+            code.astore(index);
+            code.aload(index);
+            code.getstatic(out.name, token(expr.bracket), TOKEN_D);
+            code.invokestatic(OPS, "indexable",
+                "(" + OBJECT_D + OBJECT_D + TOKEN_D + ")" + OBJECT_D);
+
+            code.aload(index);
+            expr.value.accept(this);
+            code.getstatic(out.name, token(expr.bracket), TOKEN_D);
+            code.invokestatic(OPS, "indexSet",
+                "(" + OBJECT_D + OBJECT_D + OBJECT_D + TOKEN_D + ")" + OBJECT_D);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            Object value = expr.value;
+            if (value == null) {
+                code.aconstNull();
+            }
+            else if (value instanceof Boolean) {
+                code.getstatic("java/lang/Boolean", (Boolean)value ? "TRUE" : "FALSE",
+                    "Ljava/lang/Boolean;");
+            }
+            else if (value instanceof Double) {
+                code.getstatic(out.name, number((Double)value), "Ljava/lang/Double;");
+            }
+            else {
+                code.ldc((String)value);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            Label end = new Label();
+
+            // left value is the result when it short-circuits
+            expr.left.accept(this);
+            code.op(DUP, 1);
+            code.invokestatic(OPS, "isTruthy", "(" + OBJECT_D + ")Z");
+            code.jump(expr.operator.type == TokenType.OR ? IFNE : IFEQ, end);
+            code.op(POP, -1);
+            expr.right.accept(this);
+            code.mark(end);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            // receiver is checked before the value is evaluated
+            expr.object.accept(this);
+            code.getstatic(out.name, token(expr.name), TOKEN_D);
+            code.invokestatic(OPS, "instance",
+                "(" + OBJECT_D + TOKEN_D + ")L" + PACKAGE + "LoxInstance;");
+            expr.value.accept(this);
+            code.getstatic(out.name, token(expr.name), TOKEN_D);
+            code.invokestatic(OPS, "set", "(L" + PACKAGE + "LoxInstance;" + OBJECT_D +
+                TOKEN_D + ")" + OBJECT_D);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            int depth = resolution.resolvedDepth(expr);
+
+            code.aload(environment);
+            code.iconst(hops(depth));
+            code.ldc("super");
+            code.invokevirtual(ENVIRONMENT, "getAt", "(ILjava/lang/String;)" + OBJECT_D);
+            code.aload(environment);
+            code.iconst(hops(depth - 1));
+            code.ldc("this");
+            code.invokevirtual(ENVIRONMENT, "getAt", "(ILjava/lang/String;)" + OBJECT_D);
+            code.getstatic(out.name, token(expr.method), TOKEN_D);
+            code.invokestatic(OPS, "superMethod",
+                "(" + OBJECT_D + OBJECT_D + TOKEN_D + ")" + OBJECT_D);
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            load(expr, expr.keyword);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            if (expr.operator.type == TokenType.MINUS && proven(expr.right)) {
+                unboxed(expr);
+                box();
+                return null;
+            }
+
+            expr.right.accept(this);
+            if (expr.operator.type == TokenType.BANG) {
+                code.invokestatic(OPS, "not", "(" + OBJECT_D + ")" + OBJECT_D);
+            }
+            else {
+                code.getstatic(out.name, token(expr.operator), TOKEN_D);
+                code.invokestatic(OPS, "negate", "(" + OBJECT_D + TOKEN_D + ")" + OBJECT_D);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            load(expr, expr.name);
+            return null;
+        }
+    }
+}
@@ -12,49 +12,94 @@ package com.craftinginterpreters.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
 
 // main class for program
 public class Lox {
 
-    // interpreter instance to be executed
-    private static final Interpreter interpreter = new Interpreter();
-
-    // execution state variable - prevent instruction execution on error
-    static boolean hadError = false;
-    // check for errors made during interpreter execution
-    static boolean hadRuntimeError = false;
-    // ### TODO - track if the last instruction was an error - only report blobs of errors ###
-
     // main entry point
     public static void main(String[] args) throws IOException {
+        // check for ahead-of-time compile request, jlox compile <script> -o <artifact>
+        if (args.length > 0 && args[0].equals("compile")) {
+            // require source and output arguments
+            if (args.length != 4 || !args[2].equals("-o")) {
+                System.out.println("Usage: jlox compile [script] -o [artifact]");
+                System.exit(64);
+            }
+            // front end only, no artifact written on compile errors
+            LoxRuntime runtime = new LoxRuntime(System.out, System.err);
+            if (!runtime.compileFile(args[1], args[3])) System.exit(65);
+        }
+        // check for native compile request, jlox aot <script> [-o <jar>]
+        else if (args.length > 0 && args[0].equals("aot")) {
+            // require a source and at most an output argument
+            if ((args.length != 2 && args.length != 4) ||
+                (args.length == 4 && !args[2].equals("-o"))) {
+                System.out.println("Usage: jlox aot [script] -o [jar]");
+                System.exit(64);
+            }
+            // jar next to the script unless named
+            String output = args.length == 4 ? args[3] :
+                args[1].replaceFirst("\\.lox$", "") + ".jar";
+            LoxRuntime runtime = new LoxRuntime(System.out, System.err);
+            if (!runtime.aotFile(args[1], output)) System.exit(65);
+        }
+        // check for warm daemon request, jlox --daemon [socket]
+        else if (args.length > 0 && args[0].equals("--daemon")) {
+            // require at most a socket path
+            if (args.length > 2) {
+                System.out.println("Usage: jlox --daemon [socket]");
+                System.exit(64);
+            }
+            // serve until killed
+            new LoxDaemon(args.length == 2 ?
+                Paths.get(args[1]) : LoxDaemon.defaultSocket()).serve();
+        }
+        // check for persisted profile options, jlox [--profile-in <file>] [--profile-out <file>] <script>
+        else if (args.length > 0 && args[0].startsWith("--profile-")) {
+            Path profileIn = null;
+            Path profileOut = null;
+            int next = 0;
+            // take option pairs until the script
+            while (next + 1 < args.length && args[next].startsWith("--profile-")) {
+                if (args[next].equals("--profile-in")) profileIn = Paths.get(args[next + 1]);
+                else if (args[next].equals("--profile-out")) profileOut = Paths.get(args[next + 1]);
+                else break;
+                next += 2;
+            }
+            // require exactly the script after the options
+            if (next != args.length - 1 || args[next].startsWith("--profile-")) {
+                System.out.println("Usage: jlox [--profile-in file] [--profile-out file] [script]");
+                System.exit(64);
+            }
+            runFile(args[next], profileIn, profileOut);
+        }
         // check for improper arguments
-        if (args.length > 1) {
+        else if (args.length > 1) {
             System.out.println("Usage: jlox [script]");
+            System.out.println("       jlox compile [script] -o [artifact]");
+            System.out.println("       jlox aot [script] -o [jar]");
+            System.out.println("       jlox --daemon [socket]");
+            System.out.println("       jlox [--profile-in file] [--profile-out file] [script]");
             System.exit(64);    // exit status UNIX sysexit.h
         }
         // execute on proper argument count
         else if (args.length == 1) {
-            runFile(args[0]);
+            runFile(args[0], null, null);
         }
         else {
             runPrompt();
         }
     }
 
-    private static void runFile(String path) throws IOException {
-        // read all source code from path from cmdline
-        byte[] readBytes = Files.readAllBytes(Paths.get(path));
-        // execute program with bytes converted to string
-        run(new String(readBytes, Charset.defaultCharset()));
-
-        // check execute status and provide exit code for error
-        if (hadError) System.exit(65);
-        // check for error during interpreter execution
-        if (hadRuntimeError) System.exit(70);
+    private static void runFile(String path, Path profileIn, Path profileOut)
+            throws IOException {
+        // single isolate for the whole process
+        LoxRuntime runtime = new LoxRuntime(System.out, System.err);
+        // run and translate failure into the process exit code
+        int status = runtime.runFile(path, profileIn, profileOut);
+        if (status != LoxRuntime.EXIT_OK) System.exit(status);
     }
 
     private static void runPrompt() throws IOException {
@@ -63,6 +108,9 @@ public class Lox {
         // buffer input read from stdin
         BufferedReader buffReader = new BufferedReader(input);
 
+        // globals persist between lines of the session
+        LoxRuntime runtime = new LoxRuntime(System.out, System.err);
+
         // read from input until end-of-file given
         for (;;) {
             System.out.println("> ");
@@ -71,69 +119,10 @@ public class Lox {
             // check for end-of-file and exit loop
             if (line == null) break;
             // execute line as parameter
-            run(line);
+            runtime.run(line);
 
             // reset state to allow for continued scripting session
-            hadError = false;
-        }
-    }
-
-    static private void run(String source) {
-        // create new Scanner instance from passed source code
-        Scanner scanner = new Scanner(source);
-        // invoke scanner on source code to generate tokens
-        List<Token> tokens = scanner.scanTokens();
-
-        Parser parser = new Parser(tokens);
-        // attempt get statements
-        List<Stmt> statements = parser.parse();
-
-        // check for error after parsing and exit call
-        if (hadError) return;
-
-        // create Resolver instance for variable binding and provide with reference to interpreter
-        Resolver resolver = new Resolver(interpreter);
-        // single-pass evaluate variable bindings before interpretation
-        resolver.resolve(statements);
-
-        // check for error generated from resolution and exit
-        if (hadError) return;
-
-        // run interpreter on statements
-        interpreter.interpret(statements);
-    }
-
-    // basic error reporting (scanning)
-    static void error(int line, String message) {
-        report(line, "", message);
-    }
-
-    // parse-level error handling
-    static void error(Token token, String message) {
-        // check for incorrect termination
-        if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
+            runtime.hadError = false;
         }
-        // default
-        else {
-            report(token.line, " at '" + token.lexeme + "'", message);
-        }
-    }
-
-    // handle errors recevied at runtime
-    static void runtimeError(RuntimeError error) {
-        // log formatted message
-        System.out.println(error.getMessage() +
-            "\n[line " + error.token.line + "]");
-        // update state on event
-        hadRuntimeError = true;
-    }
-
-    static void report(int line, String where, String message) {
-        // display format to stderr
-        System.err.println(
-            "[line " + line + "] Error" + where + ": " + message);
-        // update state
-        hadError = true;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,120 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Ahead-of-time compilation - self-contained executable jars
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// packages a compiled program with the runtime it calls into
+    // the jar holds the interpreter's classes, the program class and a manifest naming this
+    // class as entry point, 'java -jar' runs it on any JVM without the Lox front end
+public class LoxAot {
+
+    // internal name of the generated program class
+    static final String PROGRAM = JvmCompiler.PACKAGE + "LoxProgram";
+
+    // runtime classes live under this directory in the jar
+    private static final String RUNTIME = JvmCompiler.PACKAGE;
+    // native library registrations travel with the runtime
+    private static final String SERVICES = "META-INF/services/";
+
+    // entry point of a compiled jar
+    public static void main(String[] args) throws ReflectiveOperationException {
+        Class<?> program = Class.forName(PROGRAM.replace('/', '.'));
+        CompiledFunction.Code code =
+            (CompiledFunction.Code)program.getDeclaredField("INSTANCE").get(null);
+
+        LoxRuntime runtime = new LoxRuntime(System.out, System.err);
+        runtime.runCompiled(code);
+        if (runtime.status() != LoxRuntime.EXIT_OK) System.exit(runtime.status());
+    }
+
+    // write the program class and a copy of the running runtime to a jar
+    static void write(byte[] program, Path output) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS,
+            LoxAot.class.getName());
+
+        try (JarOutputStream jar = new JarOutputStream(
+                Files.newOutputStream(output), manifest)) {
+            copyRuntime(jar);
+
+            jar.putNextEntry(new JarEntry(PROGRAM + ".class"));
+            jar.write(program);
+            jar.closeEntry();
+        }
+    }
+
+    // copy runtime classes from wherever this class was loaded, a directory or a jar
+    private static void copyRuntime(JarOutputStream jar) throws IOException {
+        Path source;
+        try {
+            source = Paths.get(LoxAot.class.getProtectionDomain()
+                .getCodeSource().getLocation().toURI());
+        }
+        catch (URISyntaxException error) {
+            throw new IOException("Cannot locate the Lox runtime.", error);
+        }
+
+        if (Files.isDirectory(source)) {
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(source)) {
+                files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+            }
+            for (Path file : files) {
+                String name = source.relativize(file).toString().replace('\\', '/');
+                if (!runtimeEntry(name)) continue;
+                jar.putNextEntry(new JarEntry(name));
+                Files.copy(file, jar);
+                jar.closeEntry();
+            }
+            return;
+        }
+
+        try (JarFile runtime = new JarFile(source.toFile())) {
+            Enumeration<JarEntry> entries = runtime.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (entry.isDirectory() || !runtimeEntry(entry.getName())) continue;
+                jar.putNextEntry(new JarEntry(entry.getName()));
+                try (InputStream in = runtime.getInputStream(entry)) {
+                    copy(in, jar);
+                }
+                jar.closeEntry();
+            }
+        }
+    }
+
+    // interpreter classes and service registrations, never an earlier program
+    private static boolean runtimeEntry(String name) {
+        if (name.startsWith(SERVICES)) return true;
+        return name.startsWith(RUNTIME) && name.endsWith(".class") &&
+            !name.equals(PROGRAM + ".class");
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        for (int read; (read = in.read(buffer)) > 0; ) out.write(buffer, 0, read);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Native growable array value
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+// ordered collection of Lox values
+    // methods:  get(i), set(i, value), push(value), length()
+    // stored unboxed in a double[] while every element is a number, 8 bytes per element,
+    // switches once to a general Object[] the first time anything else is stored
+    // not synchronized - share between tasks by handing it over, not by concurrent writes
+class LoxArray {
+    // number-only storage, null once the array has been generalized
+    private double[] numbers;
+    // general storage, null while the array is number-only
+    private Object[] elements;
+    // number of slots in use
+    private int size;
+
+    // empty array, starts specialized
+    LoxArray() {
+        this.numbers = new double[8];
+    }
+
+    // array taking ownership of prefilled general storage
+    LoxArray(Object[] elements, int size) {
+        this.elements = elements;
+        this.size = size;
+    }
+
+    // array over prefilled storage, unboxed when every element is a number
+    static LoxArray of(Object[] values, int size) {
+        double[] unboxed = new double[Math.max(8, size)];
+        for (int i = 0; i < size; i++) {
+            // any other value keeps the general representation
+            if (!(values[i] instanceof Double)) return new LoxArray(values, size);
+            unboxed[i] = (Double)values[i];
+        }
+
+        LoxArray array = new LoxArray();
+        array.numbers = unboxed;
+        array.size = size;
+        return array;
+    }
+
+    int length() {
+        return size;
+    }
+
+    // true while storage is the unboxed double[]
+    boolean isNumeric() {
+        return numbers != null;
+    }
+
+    // element at a checked index
+    Object get(int index) {
+        if (numbers != null) return numbers[index];
+        return elements[index];
+    }
+
+    // replace element at a checked index
+    void set(int index, Object value) {
+        if (numbers != null) {
+            // stay unboxed for numbers
+            if (value instanceof Double) {
+                numbers[index] = (Double)value;
+                return;
+            }
+            generalize();
+        }
+        elements[index] = value;
+    }
+
+    // append to the end, growing storage as needed
+    void push(Object value) {
+        if (numbers != null) {
+            if (value instanceof Double) {
+                if (size == numbers.length) {
+                    numbers = Arrays.copyOf(numbers, Math.max(8, size * 2));
+                }
+                numbers[size++] = (Double)value;
+                return;
+            }
+            generalize();
+        }
+
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, Math.max(8, size * 2));
+        }
+        elements[size++] = value;
+    }
+
+    // box every number into general storage, one-way
+    private void generalize() {
+        elements = new Object[numbers.length];
+        for (int i = 0; i < size; i++) elements[i] = numbers[i];
+        numbers = null;
+    }
+
+    // convert a Lox number to an index inside the array
+    int index(Object value, String method) {
+        if (!(value instanceof Double)) {
+            throw new LoxNative.NativeError(method + "() expects a number index.");
+        }
+
+        double number = (Double)value;
+        int index = (int)number;
+        // reject fractions and anything outside the used slots
+        if (index != number || index < 0 || index >= size) {
+            throw new LoxNative.NativeError("Array index " +
+                Interpreter.stringify(value) + " out of bounds.");
+        }
+        return index;
+    }
+
+    // method lookup through property syntax, e.g. list.push(1)
+    Object get(Token name) {
+        switch (name.lexeme) {
+            case "get":
+                return new LoxNative("get", 1,
+                    (interpreter, arguments) -> get(index(arguments.get(0), "get")));
+
+            case "set":
+                return new LoxNative("set", 2, (interpreter, arguments) -> {
+                    set(index(arguments.get(0), "set"), arguments.get(1));
+                    return arguments.get(1);
+                });
+
+            case "push":
+                return new LoxNative("push", 1, (interpreter, arguments) -> {
+                    push(arguments.get(0));
+                    return null;
+                });
+
+            case "length":
+                return new LoxNative("length", 0,
+                    (interpreter, arguments) -> (double)length());
+        }
+
+        // create error if method does not exist
+        throw new RuntimeError(name,
+            "Undefined property '" + name.lexeme + "'.");
+    }
+
+    // elements in brackets, formatted like print
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) text.append(", ");
+            text.append(Interpreter.stringify(get(i)));
+        }
+        return text.append("]").toString();
+    }
+}
@@ -0,0 +1,56 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Assumptions - facts optimized code relies on until they break
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// a fact about the running program that can only go from true to false
+    // optimizations check isValid on their fast path and fall back once it is invalidated
+    // compiled code built on the fact registers as dependent and is invalidated with it,
+    // so running activations deoptimize at their next loop head
+final class LoxAssumption {
+
+    // never valid, handed out for facts already known to be false
+    static final LoxAssumption INVALID = new LoxAssumption("invalid");
+    static {
+        INVALID.invalidate();
+    }
+
+    // what is assumed, for statistics and deoptimization traces
+    final String description;
+    private volatile boolean valid = true;
+    private final List<CompiledFunction> dependents = new CopyOnWriteArrayList<>();
+
+    LoxAssumption(String description) {
+        this.description = description;
+    }
+
+    boolean isValid() {
+        return valid;
+    }
+
+    // invalidate the function together with this assumption
+    void depend(CompiledFunction function) {
+        if (!valid) {
+            function.invalidate("assumed " + description);
+            return;
+        }
+        dependents.add(function);
+        // lost a race with invalidate, which may not have seen the function
+        if (!valid) function.invalidate("assumed " + description);
+    }
+
+    void invalidate() {
+        if (!valid) return;
+        valid = false;
+        for (CompiledFunction function : dependents) function.invalidate("assumed " + description);
+        dependents.clear();
+    }
+}
@@ -0,0 +1,228 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Polymorphic inline caches for call expressions
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// the callees one Expr.Call has seen, each with its checked arity and a specialized invoker
+    // closures are cached by declaration so a fresh closure per call still hits
+    // classes cache their initializer lookup, which the generic path repeats for arity and call
+    // past LIMIT targets the site turns megamorphic and takes the generic path for good
+final class LoxCallSite {
+
+    // targets kept before the site gives up caching
+    static final int LIMIT = 4;
+
+    // runs a call whose callee matched an entry, arity already checked
+    private interface Invoker {
+        Object invoke(Interpreter interpreter, Object callee, List<Object> arguments);
+    }
+
+    // one cached target
+    private static final class Entry {
+        // LoxFunction declaration, or the callee itself
+        final Object key;
+        final int arity;
+        final Invoker invoker;
+        // printable target for dumps
+        final String target;
+        final LongAdder hits = new LongAdder();
+
+        Entry(Object key, int arity, Invoker invoker, String target) {
+            this.key = key;
+            this.arity = arity;
+            this.invoker = invoker;
+            this.target = target;
+        }
+    }
+
+    private static final Entry[] EMPTY = new Entry[0];
+
+    // node the cache belongs to, for dumps
+    final Expr.Call call;
+    // method cache for an 'object.name(...)' callee, null for any other callee
+    final LoxMethodSite method;
+
+    // replaced as a whole when a target is added, readers never lock
+    private volatile Entry[] entries = EMPTY;
+    private volatile boolean megamorphic = false;
+
+    // calls that had to look up their target, and calls made after the site went megamorphic
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder generic = new LongAdder();
+
+    LoxCallSite(Expr.Call call) {
+        this.call = call;
+        this.method = call.callee instanceof Expr.Get ?
+            new LoxMethodSite(((Expr.Get)call.callee).name) : null;
+    }
+
+    // dispatch through the cache, the same checks and errors as the uncached call
+    Object call(Interpreter interpreter, Object callee, List<Object> arguments) {
+        Object key = key(callee);
+        for (Entry entry : entries) {
+            if (entry.key == key) {
+                entry.hits.increment();
+                checkArity(entry.arity, arguments);
+                return entry.invoker.invoke(interpreter, callee, arguments);
+            }
+        }
+
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(call.paren, "Can only call functions and classes.");
+        }
+
+        if (megamorphic) {
+            generic.increment();
+        }
+        else {
+            misses.increment();
+            Entry entry = entry(key, (LoxCallable)callee);
+            if (entry != null) {
+                checkArity(entry.arity, arguments);
+                return entry.invoker.invoke(interpreter, callee, arguments);
+            }
+        }
+
+        LoxCallable function = (LoxCallable)callee;
+        checkArity(function.arity(), arguments);
+        return function.call(interpreter, arguments);
+    }
+
+    // declaration of the only function the site has called, null for any other state
+    Stmt.Function target() {
+        Entry[] current = entries;
+        if (megamorphic || current.length != 1) return null;
+        return current[0].key instanceof Stmt.Function ? (Stmt.Function)current[0].key : null;
+    }
+
+    private void checkArity(int arity, List<Object> arguments) {
+        if (arguments.size() != arity) {
+            throw new RuntimeError(call.paren, "Expected " +
+                arity + " arguments but got " +
+                arguments.size() + ".");
+        }
+    }
+
+    // identity the cache compares, stable across closures of one function
+    private static Object key(Object callee) {
+        if (callee instanceof LoxFunction) return ((LoxFunction)callee).identity();
+        return callee;
+    }
+
+    // add a target, null once the site is megamorphic
+    private synchronized Entry entry(Object key, LoxCallable callee) {
+        // another thread may have added it meanwhile
+        for (Entry entry : entries) {
+            if (entry.key == key) return entry;
+        }
+        if (megamorphic) return null;
+        if (entries.length == LIMIT) {
+            megamorphic = true;
+            return null;
+        }
+
+        Entry entry = specialize(key, callee);
+        Entry[] grown = Arrays.copyOf(entries, entries.length + 1);
+        grown[entries.length] = entry;
+        entries = grown;
+        return entry;
+    }
+
+    // invoker for one kind of callee, facts that cannot change are computed here once
+    private static Entry specialize(Object key, LoxCallable callee) {
+        if (callee instanceof LoxClass) {
+            LoxClass klass = (LoxClass)callee;
+            // method tables are fixed when the class is created
+            LoxFunction initializer = klass.findMethod("init");
+            int arity = initializer == null ? 0 : initializer.arity();
+            return new Entry(key, arity, (interpreter, target, arguments) -> {
+                LoxInstance instance = new LoxInstance(klass);
+                if (initializer != null) initializer.bind(instance).call(interpreter, arguments);
+                return instance;
+            }, klass.name);
+        }
+
+        if (callee instanceof LoxFunction) {
+            return new Entry(key, callee.arity(), (interpreter, target, arguments) ->
+                ((LoxFunction)target).call(interpreter, arguments), callee.toString());
+        }
+
+        // bound Java methods keep this site's overload choice with the entry
+        if (callee instanceof JavaInterop.JavaFunction) {
+            JavaInterop.Site site = new JavaInterop.Site();
+            return new Entry(key, callee.arity(), (interpreter, function, arguments) ->
+                site.call((JavaInterop.JavaFunction)function, arguments), callee.toString());
+        }
+
+        // natives and anything else are cached by identity
+        String target = callee instanceof LoxNative ?
+            "<native " + ((LoxNative)callee).name + ">" : callee.toString();
+        return new Entry(key, callee.arity(), (interpreter, function, arguments) ->
+            ((LoxCallable)function).call(interpreter, arguments), target);
+    }
+
+    // ##### statistics #####
+
+    // Lox functions the site has called by declaration, with their cached calls
+    Map<Stmt.Function, Long> histogram() {
+        Map<Stmt.Function, Long> counts = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            if (entry.key instanceof Stmt.Function) {
+                counts.put((Stmt.Function)entry.key, entry.hits.sum());
+            }
+        }
+        return counts;
+    }
+
+    private long hits() {
+        long hits = 0;
+        for (Entry entry : entries) hits += entry.hits.sum();
+        return hits;
+    }
+
+    private String state() {
+        if (megamorphic) return "megamorphic";
+        switch (entries.length) {
+            case 0: return "uninitialized";
+            case 1: return "monomorphic";
+            default: return "polymorphic";
+        }
+    }
+
+    // one line per site, busiest first
+    static void dump(Map<Expr.Call, LoxCallSite> sites, PrintStream out) {
+        List<LoxCallSite> sorted = new ArrayList<>(sites.values());
+        sorted.sort(Comparator.comparingLong((LoxCallSite site) ->
+            site.hits() + site.misses.sum() + site.generic.sum()).reversed());
+
+        out.println("call sites: " + sorted.size());
+        for (LoxCallSite site : sorted) {
+            StringBuilder targets = new StringBuilder();
+            for (Entry entry : site.entries) {
+                if (targets.length() > 0) targets.append(", ");
+                targets.append(entry.target).append(" x").append(entry.hits.sum());
+            }
+
+            out.println("[line " + site.call.paren.line + "] " + site.state() +
+                " hits=" + site.hits() + " misses=" + site.misses.sum() +
+                " generic=" + site.generic.sum() + " targets: " + targets);
+            if (site.method != null && site.method.total() > 0) {
+                out.println("    method " + site.method);
+            }
+        }
+    }
+}
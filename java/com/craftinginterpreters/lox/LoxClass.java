@@ -8,8 +8,13 @@
 
 package com.craftinginterpreters.lox;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 
 // instance of a class in Lox, callable to create new instances
     // attributes added dynamically
@@ -23,11 +28,73 @@ class LoxClass implements LoxCallable {
     // associate methods (as functions) with the class
     final Map<String, LoxFunction> methods;
 
+    // every class from the root of the hierarchy down to this one, for constant-time subclass tests
+    private final LoxClass[] ancestry;
+
+    // class hierarchy analysis, one assumption per method name that this class's version of the
+    // method is what every descendant instance resolves the name to
+        // names overridden below or shadowed by a field are unstable and never bound again
+    private final Map<String, LoxAssumption> bindings = new HashMap<>();
+    private final Set<String> unstable = new HashSet<>();
+
+    // instances created while a JFR recording counts them, drained by LoxEvents
+    final LongAdder instantiations = new LongAdder();
+    volatile boolean counted = false;
+
     // associate with given name as identifier and methods as a map of functions
     LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
         this.name = name;
         this.superclass = superclass;
         this.methods = methods;
+
+        // extend the superclass's chain by self
+        if (superclass == null) {
+            this.ancestry = new LoxClass[] { this };
+        }
+        else {
+            this.ancestry = Arrays.copyOf(superclass.ancestry,
+                superclass.ancestry.length + 1);
+            this.ancestry[superclass.ancestry.length] = this;
+        }
+
+        // methods redefined here no longer hold for the whole subtree of the superclass
+        for (String method : methods.keySet()) {
+            if (superclass != null) superclass.shadow(method);
+        }
+    }
+
+    // check if self is the given class or inherits from it
+    boolean descendsFrom(LoxClass ancestor) {
+        int depth = ancestor.ancestry.length - 1;
+        return ancestry.length > depth && ancestry[depth] == ancestor;
+    }
+
+    // class whose method a lookup of the name finds, null if no class in the chain has it
+    LoxClass declaring(String name) {
+        for (LoxClass klass = this; klass != null; klass = klass.superclass) {
+            if (klass.methods.containsKey(name)) return klass;
+        }
+        return null;
+    }
+
+    // assumption that this class's method is found for the name on every descendant instance
+    synchronized LoxAssumption binding(String name) {
+        if (unstable.contains(name)) return LoxAssumption.INVALID;
+        return bindings.computeIfAbsent(name, method ->
+            new LoxAssumption(this.name + "." + method + " is not overridden or shadowed"));
+    }
+
+    // something below this class now hides the name, drop the binding of whichever class
+    // the lookup used to find
+    void shadow(String name) {
+        LoxClass declaring = declaring(name);
+        if (declaring != null) declaring.unbind(name);
+    }
+
+    private synchronized void unbind(String name) {
+        if (!unstable.add(name)) return;
+        LoxAssumption binding = bindings.remove(name);
+        if (binding != null) binding.invalidate();
     }
 
     // check if self has a given method and return if found, return null otherwise
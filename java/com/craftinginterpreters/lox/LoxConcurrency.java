@@ -0,0 +1,146 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Concurrency natives - spawn/join tasks and message channels
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// natives letting Lox programs run functions concurrently
+    // spawn(fn)          -> task handle, fn runs on its own interpreter stack sharing the heap
+    // join(task)         -> value returned by fn, runtime errors of fn are raised in the joiner
+    // channel()          -> unbounded FIFO channel
+    // send(ch, value)    -> nil, never blocks
+    // receive(ch)        -> next value, blocks until one is sent
+class LoxConcurrency {
+
+    // one lightweight thread per task - virtual threads where the JDK has them,
+    // otherwise a cached pool of daemon platform threads
+    private static final ExecutorService tasks = createExecutor();
+
+    // handle returned by spawn
+    static class LoxTask {
+        // completes with the function's value or its failure
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+
+        @Override
+        public String toString() { return "<task>"; }
+    }
+
+    // message queue shared between tasks
+    static class LoxChannel {
+        // nil is queued as a sentinel, blocking queues cannot hold null
+        private static final Object NIL = new Object();
+        private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+
+        void send(Object value) {
+            queue.add(value == null ? NIL : value);
+        }
+
+        Object receive() throws InterruptedException {
+            Object value = queue.take();
+            return value == NIL ? null : value;
+        }
+
+        @Override
+        public String toString() { return "<channel>"; }
+    }
+
+    // register natives in an interpreter's globals
+    static void define(Environment globals) {
+        globals.define("spawn", new LoxNative("spawn", 1,
+            (interpreter, arguments) -> spawn(interpreter, arguments.get(0))));
+
+        globals.define("join", new LoxNative("join", 1,
+            (interpreter, arguments) -> join(arguments.get(0))));
+
+        globals.define("channel", new LoxNative("channel", 0,
+            (interpreter, arguments) -> new LoxChannel()));
+
+        globals.define("send", new LoxNative("send", 2, (interpreter, arguments) -> {
+            LoxNative.expect(arguments.get(0), LoxChannel.class, "send", "a channel")
+                .send(arguments.get(1));
+            return null;
+        }));
+
+        globals.define("receive", new LoxNative("receive", 1, (interpreter, arguments) -> {
+            LoxChannel channel = LoxNative.expect(arguments.get(0), LoxChannel.class,
+                "receive", "a channel");
+            try {
+                return channel.receive();
+            }
+            catch (InterruptedException error) {
+                Thread.currentThread().interrupt();
+                throw new LoxNative.NativeError("receive() interrupted.");
+            }
+        }));
+    }
+
+    // start a function on its own interpreter stack
+    private static LoxTask spawn(Interpreter interpreter, Object function) {
+        LoxCallable callable = LoxNative.expectCallable(function, 0, "spawn");
+
+        // child shares runtime, globals and resolution with the spawning interpreter
+        Interpreter child = interpreter.fork();
+        LoxTask task = new LoxTask();
+
+        tasks.execute(() -> {
+            try {
+                task.result.complete(callable.call(child, List.of()));
+            }
+            // kept for the joiner, including host failures such as stack overflow
+            catch (Throwable error) {
+                task.result.completeExceptionally(error);
+            }
+        });
+
+        return task;
+    }
+
+    // wait for a task and pass its value to caller
+    private static Object join(Object handle) {
+        LoxTask task = LoxNative.expect(handle, LoxTask.class, "join", "a task");
+
+        try {
+            return task.result.get();
+        }
+        catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            throw new LoxNative.NativeError("join() interrupted.");
+        }
+        // rethrow the task's own error so it reports the line it happened on
+        catch (ExecutionException error) {
+            Throwable cause = error.getCause();
+            if (cause instanceof RuntimeError) throw (RuntimeError)cause;
+            if (cause instanceof LoxNative.NativeError) throw (LoxNative.NativeError)cause;
+            throw new LoxNative.NativeError("Task failed: " + cause + ".");
+        }
+    }
+
+    // prefer Executors.newVirtualThreadPerTaskExecutor, only present on newer JDKs
+    private static ExecutorService createExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)factory.invoke(null);
+        }
+        // older JDK - daemon platform threads so unjoined tasks never keep the process alive
+        catch (ReflectiveOperationException | UnsupportedOperationException error) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "lox-task");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Warm daemon mode - run scripts for clients over a Unix domain socket
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// keep one warmed-up JVM running and execute client scripts on request
+    // request  -> one utf-8 line holding the script path
+    // response -> "out <line>" and "err <line>" as the script writes, then "exit <status>"
+    // scripts run with the daemon owner's rights, so only the owner may connect: the default
+    // socket sits in a private per-user directory and every socket file is made 0600
+class LoxDaemon {
+
+    // exit status for a script path that cannot be read, sysexits.h EX_NOINPUT
+    private static final int EXIT_NO_INPUT = 66;
+
+    // filesystem location of the listening socket
+    private final Path socketPath;
+
+    // one worker per core, every request runs in its own isolate
+    private final ExecutorService workers =
+        Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+    LoxDaemon(Path socketPath) {
+        this.socketPath = socketPath;
+    }
+
+    // socket used when none is given on the command line, client/jlox_client.c agrees
+        // $JLOX_SOCKET, else jlox-<user>/jlox.sock under $TMPDIR or /tmp
+    static Path defaultSocket() {
+        String socket = System.getenv("JLOX_SOCKET");
+        if (socket != null && !socket.isEmpty()) return Paths.get(socket);
+
+        String temporary = System.getenv("TMPDIR");
+        if (temporary == null || temporary.isEmpty()) temporary = "/tmp";
+        return Paths.get(temporary, "jlox-" + System.getProperty("user.name"), "jlox.sock");
+    }
+
+    // accept and run requests until the process is killed
+    void serve() throws IOException {
+        privateDirectory(socketPath.toAbsolutePath().getParent());
+
+        // a stale socket file from a killed daemon would block the bind
+        Files.deleteIfExists(socketPath);
+
+        try (ServerSocketChannel server =
+                ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+            // owner only, whatever the umask or directory allowed
+            Files.setPosixFilePermissions(socketPath,
+                PosixFilePermissions.fromString("rw-------"));
+
+            // remove the socket file again when the daemon goes away
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(socketPath);
+                }
+                catch (IOException error) {
+                    // nothing left to report to
+                }
+            }));
+
+            System.err.println("jlox daemon listening on " + socketPath);
+
+            // one request per connection, handled concurrently by the pool
+            for (;;) {
+                SocketChannel client = server.accept();
+                workers.execute(() -> serve(client));
+            }
+        }
+    }
+
+    // create the socket's directory as 0700, or check the default one is still private
+        // another user could have created jlox-<user> first to take over the socket
+    private void privateDirectory(Path directory) throws IOException {
+        if (!Files.exists(directory, LinkOption.NOFOLLOW_LINKS)) {
+            Files.createDirectories(directory,
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            return;
+        }
+        if (!socketPath.equals(defaultSocket())) return;
+
+        Set<PosixFilePermission> permissions =
+            Files.getPosixFilePermissions(directory, LinkOption.NOFOLLOW_LINKS);
+        String owner = Files.getOwner(directory, LinkOption.NOFOLLOW_LINKS).getName();
+        if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS) ||
+                !owner.equals(System.getProperty("user.name")) ||
+                !PosixFilePermissions.toString(permissions).endsWith("------")) {
+            throw new IOException("Socket directory " + directory +
+                " must be a directory owned by the daemon's user with mode 0700.");
+        }
+    }
+
+    // handle a connection on a worker thread and always close it
+    private void serve(SocketChannel client) {
+        try (client) {
+            handle(client);
+        }
+        // a broken client must not take the daemon down
+        catch (IOException error) {
+            System.err.println("jlox daemon: " + error.getMessage());
+        }
+    }
+
+    // read one request, run the script and stream its output back
+    private void handle(SocketChannel client) throws IOException {
+        BufferedReader request = new BufferedReader(new InputStreamReader(
+            Channels.newInputStream(client), StandardCharsets.UTF_8));
+        OutputStream response = Channels.newOutputStream(client);
+
+        // the only line is the script, Lox has no argument vector
+        String path = request.readLine();
+        if (path == null || path.isEmpty()) return;
+
+        // both channels share the socket, frames are written whole
+        PrintStream out = new PrintStream(
+            new FramedOutputStream("out ", response), true, StandardCharsets.UTF_8);
+        PrintStream err = new PrintStream(
+            new FramedOutputStream("err ", response), true, StandardCharsets.UTF_8);
+
+        int status;
+        try {
+            // fresh isolate writing straight to this client
+            status = new LoxRuntime(out, err).runFile(path);
+        }
+        // script could not be read
+        catch (IOException error) {
+            err.println("Could not read script '" + path + "'.");
+            status = EXIT_NO_INPUT;
+        }
+        // host-level failure inside the script, e.g. unbounded recursion
+        catch (RuntimeException | StackOverflowError error) {
+            err.println("Internal error: " + error);
+            status = LoxRuntime.EXIT_RUNTIME_ERROR;
+        }
+
+        // terminate any partial lines then send the status frame
+        out.close();
+        err.close();
+        synchronized (response) {
+            response.write(("exit " + status + "\n").getBytes(StandardCharsets.UTF_8));
+            response.flush();
+        }
+    }
+
+    // prefix every line written to the stream with a channel tag
+    private static class FramedOutputStream extends OutputStream {
+        private final byte[] tag;
+        private final OutputStream target;
+        // pending bytes of the current unterminated line
+        private byte[] line = new byte[256];
+        private int length = 0;
+
+        FramedOutputStream(String tag, OutputStream target) {
+            this.tag = tag.getBytes(StandardCharsets.UTF_8);
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            // complete line, send as one frame
+            if (b == '\n') {
+                emit();
+                return;
+            }
+
+            // grow line buffer as needed
+            if (length == line.length) {
+                byte[] grown = new byte[line.length * 2];
+                System.arraycopy(line, 0, grown, 0, length);
+                line = grown;
+            }
+            line[length++] = (byte)b;
+        }
+
+        // flush a partial line left over at the end of the script
+        @Override
+        public void close() throws IOException {
+            if (length > 0) emit();
+        }
+
+        // write tag, pending line and newline without interleaving with the other channel
+        private void emit() throws IOException {
+            synchronized (target) {
+                target.write(tag);
+                target.write(line, 0, length);
+                target.write('\n');
+                target.flush();
+            }
+            length = 0;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Deoptimization - compiled activations resuming in the tree walker
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// a point in compiled code where a running activation can move to the interpreter
+    // points sit at loop heads, where no expression is half evaluated, compiled code checks
+    // its CompiledFunction there and comes here once an assumption has failed
+    // the code rebuilds one Environment per scope the interpreter would have, defining the
+    // variables it kept in JVM locals, frames then say which statements remain at each level
+final class LoxDeopt {
+
+    // statements left at one nesting level, run in the environment of one scope
+    static final class Frame {
+        final List<Stmt> statements;
+        // index into the rebuilt environments, 0 is the parameter scope
+        final int scope;
+
+        Frame(List<Stmt> statements, int scope) {
+            this.statements = statements;
+            this.scope = scope;
+        }
+    }
+
+    // for traces
+    final String function;
+    final int line;
+    // innermost first, the loop itself, then what follows it in each enclosing block,
+    // with enclosing loops run again from their condition
+    private final List<Frame> frames;
+
+    LoxDeopt(String function, int line, List<Frame> frames) {
+        this.function = function;
+        this.line = line;
+        this.frames = frames;
+    }
+
+    // finish the activation interpreted, the value it returns or nil
+    Object resume(Interpreter interpreter, CompiledFunction code, Environment[] scopes) {
+        LoxJit.resumed(code, this);
+
+        // loops count toward the next compilation like in any interpreted activation
+        LoxJit.Profile caller = interpreter.profile;
+        interpreter.profile = code.profile;
+        try {
+            for (Frame frame : frames) {
+                interpreter.executeBlock(frame.statements, scopes[frame.scope]);
+            }
+        }
+        catch (Return value) {
+            return value.value;
+        }
+        finally {
+            interpreter.profile = caller;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Embedding API - compile Lox source once, execute it many times
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+// public entry point for hosting Lox inside a Java application
+    // front end runs once per compile, executions only pay for interpretation
+public final class LoxEngine {
+    // default destination for print statements and diagnostics of compiled scripts
+    private final PrintStream out;
+    private final PrintStream err;
+
+    // engine writing to the process streams
+    public LoxEngine() {
+        this(System.out, System.err);
+    }
+
+    public LoxEngine(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    // scan, parse and resolve source into a reusable script
+        // throws LoxScriptException listing every compile error
+    public CompiledScript compile(String source) {
+        // collect diagnostics so they can be raised instead of printed
+        ByteArrayOutputStream diagnostics = new ByteArrayOutputStream();
+        LoxRuntime runtime = new LoxRuntime(out,
+            new PrintStream(diagnostics, true, StandardCharsets.UTF_8));
+
+        List<Stmt> statements = runtime.analyze(source);
+
+        // refuse to produce a script that could never run
+        if (runtime.hadError) {
+            throw new LoxScriptException(
+                diagnostics.toString(StandardCharsets.UTF_8).trim(), -1);
+        }
+
+        return script(statements);
+    }
+
+    // load a .loxc artifact produced by jlox compile into a reusable script
+    public CompiledScript load(byte[] artifact) {
+        LoxRuntime runtime = new LoxRuntime(out, err);
+
+        try {
+            List<Stmt> statements = new LoxcReader(runtime.interpreter).read(artifact);
+            return script(statements);
+        }
+        // verification failures are reported like compile errors
+        catch (IOException error) {
+            throw new LoxScriptException(error.getMessage(), -1);
+        }
+    }
+
+    // compile and execute once against fresh globals
+    public Object eval(String source) {
+        return compile(source).execute();
+    }
+
+    // let scripts bind public methods of a class through java(className, methodName)
+        // process-wide, applies to every engine and runtime
+    public static void allowJava(Class<?> type) {
+        JavaInterop.allow(type.getName());
+    }
+
+    // freeze front end results so executions can share them across threads
+    private CompiledScript script(List<Stmt> statements) {
+        return new CompiledScript(
+            Collections.unmodifiableList(statements), out, err);
+    }
+}
@@ -0,0 +1,183 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Flight recorder events - Lox execution in JFR recordings
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+// custom JDK Flight Recorder events, next to the GC and allocation events of one recording
+    // lox.Call for function calls longer than their threshold, lox.Instantiations with the
+    // instances each class created per period, lox.RuntimeError, and lox.Phase timing scan,
+    // parse, resolve and execute
+    // nothing touches an event class until JFR has started, loading one initializes much of
+    // JFR, afterwards begin, end and shouldCommit are empty unless a recording enables it
+    // e.g. java -XX:StartFlightRecording=filename=run.jfr,settings=profile ... script.lox,
+    // lox.Call#threshold=0 ms in the settings records every call
+final class LoxEvents {
+
+    @Name("lox.Call")
+    @Label("Lox Function Call")
+    @Category("Lox")
+    @Description("A Lox function call, whichever tier ran it, nested calls included")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class Call extends Event {
+        @Label("Function")
+        String function;
+        @Label("Declared At Line")
+        int line;
+    }
+
+    @Name("lox.Instantiations")
+    @Label("Lox Instantiations")
+    @Category("Lox")
+    @Description("Instances of a Lox class created since the previous event")
+    @Period("1 s")
+    @StackTrace(false)
+    static final class Instantiations extends Event {
+        @Label("Class")
+        String className;
+        @Label("Instances")
+        long count;
+    }
+
+    @Name("lox.RuntimeError")
+    @Label("Lox Runtime Error")
+    @Category("Lox")
+    @StackTrace(false)
+    static final class Error extends Event {
+        @Label("Message")
+        String message;
+        @Label("Line")
+        int line;
+    }
+
+    @Name("lox.Phase")
+    @Label("Lox Phase")
+    @Category("Lox")
+    @Description("One front end pass or the execution of a program")
+    @StackTrace(false)
+    static final class Phase extends Event {
+        @Label("Phase")
+        String phase;
+    }
+
+    // classes that created instances during a recording, drained by the periodic hook
+    private static final Set<LoxClass> counted =
+        Collections.newSetFromMap(new WeakHashMap<>());
+    private static boolean hooked = false;
+
+    // ##### calls #####
+
+    // a recording has been started in this JVM, it may have ended since
+        // every event below is null or skipped until then
+    static boolean recording() {
+        return FlightRecorder.isInitialized();
+    }
+
+    // started before the call, committed by called() if it ran past the threshold
+    static Call call() {
+        if (!recording()) return null;
+        Call event = new Call();
+        event.begin();
+        return event;
+    }
+
+    static void called(Call event, String function, int line) {
+        if (event == null) return;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.function = function;
+        event.line = line;
+        event.commit();
+    }
+
+    // ##### instantiations #####
+
+    // type of the instantiation event, in a holder so it is looked up after JFR started
+    private static final class Probe {
+        static final EventType INSTANTIATIONS = EventType.getEventType(Instantiations.class);
+    }
+
+    // an instance of the class was created, counted only while a recording wants them
+        // the event type answers without an allocation, also once the recordings are over
+    static void instantiated(LoxClass klass) {
+        if (!recording() || !Probe.INSTANTIATIONS.isEnabled()) return;
+        if (!klass.counted) count(klass);
+        klass.instantiations.increment();
+    }
+
+    // first counted instance of a class, the hook is added with the first one
+    private static synchronized void count(LoxClass klass) {
+        if (!hooked) {
+            FlightRecorder.addPeriodicEvent(Instantiations.class, LoxEvents::instantiations);
+            hooked = true;
+        }
+        counted.add(klass);
+        klass.counted = true;
+    }
+
+    // one event per class that created instances since the last one
+        // also run at the end of execution so short programs report their counts
+    static void instantiations() {
+        if (!recording()) return;
+        List<LoxClass> classes;
+        synchronized (LoxEvents.class) {
+            classes = new ArrayList<>(counted);
+        }
+        for (LoxClass klass : classes) {
+            long count = klass.instantiations.sumThenReset();
+            if (count == 0) continue;
+            Instantiations event = new Instantiations();
+            event.className = klass.name;
+            event.count = count;
+            event.commit();
+        }
+    }
+
+    // ##### errors and phases #####
+
+    static void runtimeError(RuntimeError error) {
+        if (!recording()) return;
+        Error event = new Error();
+        if (!event.shouldCommit()) return;
+        event.message = error.getMessage();
+        event.line = error.token.line;
+        event.commit();
+    }
+
+    static Phase phase() {
+        if (!recording()) return null;
+        Phase event = new Phase();
+        event.begin();
+        return event;
+    }
+
+    static void phased(Phase event, String phase) {
+        if (event == null) return;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.phase = phase;
+        event.commit();
+    }
+}
@@ -8,13 +8,20 @@
 
 package com.craftinginterpreters.lox;
 
+import java.util.Arrays;
 import java.util.List;
 
 // callable entity for runtime access to functions
     // accessed during interpretation, not parsing
 class LoxFunction implements LoxCallable {
     // hold parsed function declaration
+        // null for functions compiled ahead of time, which only exist as bytecode
     private final Stmt.Function declaration;
+    // bytecode the function was created by, null when created by the interpreter
+        // interpreted functions may still run compiled code, looked up through LoxJit
+    private final CompiledFunction compiled;
+    // tier profile of the declaration, cached on first call
+    private LoxJit.Profile profile;
 
     // scope of function declaration, allows local functions
         // enforces scope inheritance of declaration, not call location
@@ -29,6 +36,17 @@ class LoxFunction implements LoxCallable {
                 
         this.closure = closure;
         this.declaration = declaration;
+        this.compiled = null;
+        this.isInitializer = isInitializer;
+    }
+
+    // function backed by compiled code, created by generated classes
+    LoxFunction(CompiledFunction compiled, Environment closure,
+                boolean isInitializer) {
+        this.closure = closure;
+        // kept for just-in-time code, which falls back to the interpreter when invalidated
+        this.declaration = compiled.declaration;
+        this.compiled = compiled;
         this.isInitializer = isInitializer;
     }
 
@@ -41,12 +59,90 @@ class LoxFunction implements LoxCallable {
         environment.define("this", instance);
 
         // pass bound method to caller as new function with updated environment
-        return new LoxFunction(declaration, environment, isInitializer);
+        LoxFunction bound = compiled != null ?
+            new LoxFunction(compiled, environment, isInitializer) :
+            new LoxFunction(declaration, environment, isInitializer);
+        // same declaration, the profile lookup is already done
+        bound.profile = profile;
+        return bound;
     }
 
     // implement required call trait
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        return dispatch(interpreter, arguments, null);
+    }
+
+    // call from compiled code, arguments already in an array
+    Object invoke(Interpreter interpreter, Object[] arguments) {
+        return dispatch(interpreter, null, arguments);
+    }
+
+    // the call as a frame on the interpreter's shadow stack when the sampler is on, and as
+    // a JFR event once flight recording has started
+    private Object dispatch(Interpreter interpreter, List<Object> arguments, Object[] array) {
+        if (!LoxSampler.ENABLED && !LoxEvents.recording()) {
+            return enter(interpreter, arguments, array);
+        }
+
+        LoxEvents.Call event = LoxEvents.call();
+        if (LoxSampler.ENABLED) interpreter.frames.push(name(), line());
+        try {
+            return enter(interpreter, arguments, array);
+        }
+        finally {
+            if (LoxSampler.ENABLED) interpreter.frames.pop();
+            LoxEvents.called(event, name(), line());
+        }
+    }
+
+    // name and declaration line for profiles, compiled-only functions have no line
+    private String name() {
+        return compiled != null ? compiled.name : declaration.name.lexeme;
+    }
+
+    private int line() {
+        return declaration != null ? declaration.name.line : 0;
+    }
+
+    // pick a tier for the call, arguments come as a list or as an array
+    private Object enter(Interpreter interpreter, List<Object> arguments, Object[] array) {
+        CompiledFunction code = compiled;
+        LoxJit.Profile profile = null;
+
+        // interpreted, or just-in-time code whose assumptions failed
+            // ahead-of-time code never assumes and has no tree to fall back to
+        if (code == null || (declaration != null && code.invalidated())) {
+            profile = profile(interpreter);
+            code = profile == null ? null : profile.enter();
+        }
+
+        if (code != null) {
+            // compiled body returns normally instead of throwing Return
+            Object value = code.invoke(interpreter, closure,
+                array != null ? array : arguments.toArray());
+            // check if call to constructor and send caller reference to instance
+            if (isInitializer) return closure.getAt(0, "this");
+            return value;
+        }
+
+        return interpret(interpreter, profile,
+            arguments != null ? arguments : Arrays.asList(array));
+    }
+
+    // declaration's profile, one map lookup per function object
+    private LoxJit.Profile profile(Interpreter interpreter) {
+        LoxJit.Profile known = profile;
+        if (known == null) {
+            known = interpreter.jit.profile(declaration);
+            profile = known;
+        }
+        return known;
+    }
+
+    // run the declaration on the tree walker, loops are counted against the profile
+    private Object interpret(Interpreter interpreter, LoxJit.Profile profile,
+                             List<Object> arguments) {
         // hold function declaration scope
             // global scope if not nested
         Environment environment = new Environment(closure);
@@ -57,6 +153,10 @@ class LoxFunction implements LoxCallable {
             environment.define(declaration.params.get(i).lexeme, arguments.get(i));
         }
 
+        // back-edges of loops in the body heat this function
+        LoxJit.Profile caller = interpreter.profile;
+        interpreter.profile = profile;
+
         // use provided interpreter to execute the function using its specific scope
         try {
             interpreter.executeBlock(declaration.body, environment);
@@ -69,6 +169,9 @@ class LoxFunction implements LoxCallable {
             // exit call immediately and pass value to caller
             return returnVal.value;
         }
+        finally {
+            interpreter.profile = caller;
+        }
 
         // check if call to constructor and send caller reference to instance
         if (isInitializer) return closure.getAt(0, "this");
@@ -77,10 +180,16 @@ class LoxFunction implements LoxCallable {
         return null;
     }
 
+    // identity shared by every closure and bound copy of one function, for call site caches
+    Object identity() {
+        return declaration != null ? declaration : compiled;
+    }
+
     // implement required check on argument count
     @Override
     public int arity() {
         // pass size of given parameter list
+        if (compiled != null) return compiled.arity;
         return declaration.params.size();
     }
 
@@ -88,6 +197,7 @@ class LoxFunction implements LoxCallable {
     @Override
     public String toString() {
         // describe with function name
+        if (compiled != null) return "<fn " + compiled.name + ">";
         return "<fn " + declaration.name.lexeme + ">";
     }
 }
\ No newline at end of file
@@ -8,8 +8,8 @@
 
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 // structure for runtime instances of a class
     // manage instance state
@@ -17,19 +17,35 @@ class LoxInstance {
     // hold instance type
     private LoxClass klass;
     // track properties associated with individual instances
-    private final Map<String, Object> fields = new HashMap<>();
+        // concurrent - instances may be shared with spawned tasks
+    private final Map<String, Object> fields = new ConcurrentHashMap<>();
+
+    // stand-in for nil, concurrent maps cannot hold null values
+    private static final Object NIL = new Object();
 
     // require instance type specification at creation
     LoxInstance(LoxClass klass) {
         this.klass = klass;
+        LoxEvents.instantiated(klass);
+    }
+
+    // type of the instance, for method caches
+    LoxClass klass() {
+        return klass;
+    }
+
+    // check for a field that would hide a method of the same name
+    boolean hasField(String name) {
+        return fields.containsKey(name);
     }
 
     // allow indiscriminate access to properties
     Object get(Token name) {
         // check for property name associated with instance
-        if (fields.containsKey(name.lexeme)) {
-            // pass value to caller
-            return fields.get(name.lexeme);
+        Object value = fields.get(name.lexeme);
+        if (value != null) {
+            // pass value to caller, translating stored nil
+            return value == NIL ? null : value;
         }
 
         // check for requested token as a method
@@ -45,7 +61,10 @@ class LoxInstance {
     // allow setters on proeprties
     void set(Token name, Object value) {
         // store value as member of instance's fields
-        fields.put(name.lexeme, value);
+        Object previous = fields.put(name.lexeme, value == null ? NIL : value);
+
+        // a new field may hide a method that call sites have bound directly
+        if (previous == null) klass.shadow(name.lexeme);
     }
 
     // associate with class name on stringify
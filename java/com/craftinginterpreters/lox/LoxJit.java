@@ -0,0 +1,351 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Tiered execution - hot functions compiled to hidden classes
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// counts calls and loop iterations per function declaration, compiles the hot ones
+    // tier 0 is the tree walker, tier 1 is JvmCompiler output loaded as a hidden class
+    // compiled code shares closures, classes and instances with interpreted code, the two
+    // call each other freely and a function can move between tiers at any call
+    // -Dlox.jit=false keeps everything interpreted, -Dlox.jit.threshold sets the heat
+    // compiled code speculates until a function has deoptimized -Dlox.jit.deopts times,
+    // -Dlox.deopt.trace=true prints every invalidation and transfer with a summary at exit
+    // with -Dlox.trace=true hot loops are recorded and compiled as traces, see LoxTrace
+class LoxJit {
+
+    // off while ProfilingInterpreter counts nodes, compiled code would skip them
+    static final boolean ENABLED = !"false".equals(System.getProperty("lox.jit")) &&
+        !ProfilingInterpreter.ENABLED;
+    // calls plus loop back-edges before a function is compiled
+    static final int THRESHOLD = Integer.getInteger("lox.jit.threshold", 1000);
+    // iterations before a loop running in the interpreter moves to compiled code
+    static final int OSR_THRESHOLD = Integer.getInteger("lox.jit.osr", 10000);
+    // invalidations after which a function is compiled without assumptions
+    static final int DEOPT_LIMIT = Integer.getInteger("lox.jit.deopts", 4);
+    static final boolean TRACE = Boolean.getBoolean("lox.deopt.trace");
+
+    // returned by a replaced loop that ran to its end, any other value is a 'return'
+    static final Object FINISHED = new Object();
+    // returned by a trace that left at a guard, the iteration has been finished interpreted
+    static final Object EXITED = new Object();
+
+    // hidden classes are defined next to the runtime they call into
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    // interpreter whose resolution table the compiler reads
+    private final Interpreter resolution;
+
+    // keyed by declaration, every closure of a function shares its profile and code
+    private final Map<Stmt.Function, Profile> profiles = new ConcurrentHashMap<>();
+    // loops seen by the interpreter, top-level ones included
+    private final Map<Stmt.While, Loop> loops = new ConcurrentHashMap<>();
+
+    // invalidated compiled functions, and activations moved to the interpreter
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder transfers = new LongAdder();
+
+    LoxJit(Interpreter resolution) {
+        this.resolution = resolution;
+    }
+
+    // profile of a declaration, null when the jit is off
+    Profile profile(Stmt.Function declaration) {
+        if (!ENABLED) return null;
+        return profiles.computeIfAbsent(declaration, Profile::new);
+    }
+
+    // on-stack replacement state of a loop, null when the jit is off
+    Loop loop(Stmt.While loop) {
+        if (!ENABLED) return null;
+        return loops.computeIfAbsent(loop, Loop::new);
+    }
+
+    // ##### persisted profiles #####
+
+    // heat a function reached, at least the threshold once it has been compiled
+    int heat(Stmt.Function declaration) {
+        Profile profile = profiles.get(declaration);
+        if (profile == null) return 0;
+        boolean compiled = profile.compiled != null || profile.failed || profile.deopts.get() > 0;
+        return compiled ? Math.max(profile.count.get(), THRESHOLD) : profile.count.get();
+    }
+
+    int deopts(Stmt.Function declaration) {
+        Profile profile = profiles.get(declaration);
+        return profile == null ? 0 : profile.deopts.get();
+    }
+
+    // iterations a loop ran in the interpreter, at least the threshold once replaced
+    int iterations(Stmt.While loop) {
+        Loop state = loops.get(loop);
+        if (state == null) return 0;
+        return state.compiled != null ? Math.max(state.count.get(), OSR_THRESHOLD) :
+            state.count.get();
+    }
+
+    // start a function from an earlier run's counts, hot ones compile on their first call
+        // a function that kept deoptimizing starts out without assumptions
+    void seed(Stmt.Function declaration, int heat, int deopts) {
+        Profile profile = profile(declaration);
+        if (profile == null) return;
+        profile.count.set(Math.min(heat, THRESHOLD - 1));
+        profile.deopts.set(deopts);
+        profile.speculate = deopts < DEOPT_LIMIT;
+    }
+
+    // start a loop from an earlier run's count, hot ones are replaced on their first back-edge
+    void seed(Stmt.While loop, int iterations) {
+        Loop state = loop(loop);
+        if (state == null) return;
+        state.count.set(Math.min(iterations, OSR_THRESHOLD - 1));
+    }
+
+    // ##### deoptimization #####
+
+    // an assumption of the function failed, counted against its profile
+    static void invalidated(CompiledFunction code, String reason) {
+        Profile profile = code.profile;
+        if (profile == null) return;
+
+        int deopts = profile.deopts.incrementAndGet();
+        LoxJit jit = profile.jit();
+        jit.invalidations.increment();
+        if (TRACE) {
+            jit.trace("deopt: " + code.name + " invalidated (" + deopts +
+                " of " + DEOPT_LIMIT + "), " + reason);
+        }
+    }
+
+    // an invalidated activation continues in the interpreter
+    static void resumed(CompiledFunction code, LoxDeopt point) {
+        Profile profile = code.profile;
+        if (profile == null) return;
+
+        LoxJit jit = profile.jit();
+        jit.transfers.increment();
+        if (TRACE) {
+            jit.trace("deopt: " + code.name + " resumes interpreted at [line " +
+                point.line + "]");
+        }
+    }
+
+    // trace lines go to the error stream of the runtime the code belongs to
+    private void trace(String line) {
+        resolution.runtime.err.println(line);
+    }
+
+    // totals and the functions that deoptimized, most often first
+    void dumpDeopts(PrintStream out) {
+        out.println("deopts: " + invalidations.sum() + " invalidations, " +
+            transfers.sum() + " transfers to the interpreter");
+
+        List<Profile> sorted = new ArrayList<>();
+        for (Profile profile : profiles.values()) {
+            if (profile.deopts.get() > 0) sorted.add(profile);
+        }
+        sorted.sort(Comparator.comparingInt((Profile profile) -> profile.deopts.get()).reversed());
+        for (Profile profile : sorted) {
+            out.println("[line " + profile.declaration.name.line + "] " +
+                profile.declaration.name.lexeme + " deoptimized " + profile.deopts.get() +
+                (profile.deopts.get() >= DEOPT_LIMIT ? " times, no longer speculates" : " times"));
+        }
+    }
+
+    // every traced loop, most side exits first
+    void dumpTraces(PrintStream out) {
+        List<LoxTrace> traces = new ArrayList<>();
+        for (Loop loop : loops.values()) {
+            if (loop.trace != null && loop.trace.versions() > 0) traces.add(loop.trace);
+        }
+        traces.sort(Comparator.comparingLong(LoxTrace::exits).reversed());
+
+        int versions = 0;
+        long entries = 0;
+        long exits = 0;
+        for (LoxTrace trace : traces) {
+            versions += trace.versions();
+            entries += trace.entries();
+            exits += trace.exits();
+        }
+        out.println("traces: " + versions + " compiled for " + traces.size() + " loops, " +
+            entries + " entries, " + exits + " side exits");
+        for (LoxTrace trace : traces) trace.dump(out);
+    }
+
+    // execution counts and compiled code of one declaration
+    class Profile {
+        final Stmt.Function declaration;
+        // heat since the last compilation, racy increments only delay a compile
+        private final AtomicInteger count = new AtomicInteger();
+        // invalidations of the declaration's compiled versions
+        private final AtomicInteger deopts = new AtomicInteger();
+
+        // current compiled form, null while interpreted
+        private volatile CompiledFunction compiled;
+        // generated code could not be built or loaded, stays interpreted
+        private volatile boolean failed = false;
+        // compile with type assumptions, off once they have failed
+        private volatile boolean speculate = true;
+
+        Profile(Stmt.Function declaration) {
+            this.declaration = declaration;
+        }
+
+        private LoxJit jit() {
+            return LoxJit.this;
+        }
+
+        // count a call, compiled code to run it with or null to interpret
+        CompiledFunction enter() {
+            CompiledFunction code = compiled;
+            if (code != null && !code.invalidated()) return code;
+
+            heat();
+            return compiled;
+        }
+
+        // count one iteration of a loop in an interpreted activation
+            // the running activation stays interpreted, the next call is compiled
+        void backEdge() {
+            heat();
+        }
+
+        private void heat() {
+            if (count.incrementAndGet() < THRESHOLD || failed) return;
+
+            CompiledFunction code = compiled;
+            if (code == null || code.invalidated()) compile();
+        }
+
+        // compile unless another thread already has
+        private synchronized void compile() {
+            CompiledFunction code = compiled;
+            if (failed || (code != null && !code.invalidated())) return;
+
+            // an invalidated version restarts the count, functions that keep failing
+            // their assumptions stop making them
+            if (code != null) {
+                compiled = null;
+                speculate = deopts.get() < DEOPT_LIMIT;
+                count.set(0);
+                return;
+            }
+
+            try {
+                JvmCompiler.Unit unit = JvmCompiler.compileFunction(
+                    JvmCompiler.PACKAGE + "Jit$" + declaration.name.lexeme,
+                    declaration, resolution, speculate);
+                MethodHandles.Lookup lookup = LOOKUP.defineHiddenClassWithClassData(
+                    unit.bytes, unit.data, true);
+                CompiledFunction loaded = (CompiledFunction)lookup.findStaticVarHandle(
+                    lookup.lookupClass(), "F0", CompiledFunction.class).get();
+
+                // invalidated with any assumption it was built on
+                loaded.profile = this;
+                for (LoxAssumption assumption : unit.assumptions) assumption.depend(loaded);
+                compiled = loaded;
+            }
+            // method too large or rejected by the verifier, the tree walker still works
+            catch (IllegalStateException | ReflectiveOperationException | LinkageError error) {
+                failed = true;
+            }
+        }
+    }
+
+    // iteration count and compiled form of one while loop
+        // compiled code continues a running loop from its next condition check, reading and
+        // writing variables in the interpreter's environments, so no state has to move
+        // when tracing, the interpreter first records the loop's body for LoxTrace.RECORD
+        // iterations and the code is built for the recorded path
+    class Loop {
+        final Stmt.While loop;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private volatile CompiledFunction.Code compiled;
+        private volatile boolean failed = false;
+        // recorded path, null until recording starts or when not tracing
+        private volatile LoxTrace trace;
+
+        Loop(Stmt.While loop) {
+            this.loop = loop;
+        }
+
+        // count one iteration, true once the rest of the loop can run compiled
+            // a trace whose guards changed is rebuilt first, the old one runs if that fails
+        boolean backEdge(Interpreter interpreter) {
+            if (compiled != null && (trace == null || !trace.stale() || failed)) return true;
+            if (count.incrementAndGet() < OSR_THRESHOLD || failed) return false;
+            if (LoxTrace.ENABLED && !record(interpreter)) return false;
+
+            compile();
+            return compiled != null;
+        }
+
+        // record the iteration that just ran, true once the trace has enough of them
+            // one recording per interpreter at a time, an inner loop waits for the outer one
+        private boolean record(Interpreter interpreter) {
+            LoxTrace current = trace;
+            if (current == null) {
+                synchronized (this) {
+                    if (trace == null) trace = new LoxTrace(loop);
+                    current = trace;
+                }
+            }
+            if (current.complete()) return true;
+
+            if (interpreter.recorder == null) {
+                interpreter.recorder = current;
+                return false;
+            }
+            if (interpreter.recorder != current || !current.recorded()) return false;
+
+            interpreter.recorder = null;
+            return true;
+        }
+
+        // the loop ended or returned, a recording cut short continues when it runs again
+        void leave(Interpreter interpreter) {
+            if (trace != null && interpreter.recorder == trace) interpreter.recorder = null;
+        }
+
+        // run the remaining iterations against the live environment
+        Object resume(Interpreter interpreter, Environment environment) {
+            if (trace != null) trace.entered();
+            return compiled.invoke(0, interpreter, environment, new Object[0]);
+        }
+
+        private synchronized void compile() {
+            LoxTrace current = trace;
+            if (failed || (compiled != null && (current == null || !current.stale()))) return;
+
+            try {
+                if (current != null) current.building();
+                JvmCompiler.Unit unit = JvmCompiler.compileLoop(
+                    JvmCompiler.PACKAGE + (current == null ? "Osr$loop" : "Trace$loop"),
+                    loop, resolution, current);
+                MethodHandles.Lookup lookup = LOOKUP.defineHiddenClassWithClassData(
+                    unit.bytes, unit.data, true);
+                compiled = (CompiledFunction.Code)lookup.findStaticVarHandle(
+                    lookup.lookupClass(), "INSTANCE", CompiledFunction.Code.class).get();
+            }
+            catch (IllegalStateException | ReflectiveOperationException | LinkageError error) {
+                failed = true;
+            }
+        }
+    }
+}
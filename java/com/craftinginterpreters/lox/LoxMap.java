@@ -0,0 +1,209 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Native hash map value - open addressing over parallel arrays
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+// dictionary from Lox values to Lox values
+    // methods:  get(key), set(key, value), has(key), remove(key), size(), keys()
+    // keys compare like '==' - strings, numbers and booleans by value, instances by identity
+    // linear probing over power-of-two parallel key/value arrays, no per-entry objects
+    // not synchronized - share between tasks by handing it over, not by concurrent writes
+class LoxMap {
+    // marks a removed slot so probe sequences running through it stay intact
+    private static final Object TOMBSTONE = new Object();
+
+    // grow once live entries plus tombstones pass three quarters of capacity
+    private static final int MAX_LOAD_NUMERATOR = 3;
+    private static final int MAX_LOAD_DENOMINATOR = 4;
+
+    // slot i holds keys[i] -> values[i], null key means never used
+    private Object[] keys;
+    private Object[] values;
+    // live entries
+    private int size;
+    // live entries plus tombstones, what the load factor is measured on
+    private int used;
+
+    // empty map
+    LoxMap() {
+        this.keys = new Object[8];
+        this.values = new Object[8];
+    }
+
+    int size() {
+        return size;
+    }
+
+    // value stored for key, nil when absent
+    Object get(Object key) {
+        int slot = find(checkKey(key));
+        return slot < 0 ? null : values[slot];
+    }
+
+    // true when key is present, tells a stored nil from a missing key
+    boolean has(Object key) {
+        return find(checkKey(key)) >= 0;
+    }
+
+    // insert or replace a value
+    void set(Object key, Object value) {
+        checkKey(key);
+
+        // room for one more slot before probing, keeps at least one empty slot
+        if ((used + 1) * MAX_LOAD_DENOMINATOR > keys.length * MAX_LOAD_NUMERATOR) {
+            resize();
+        }
+
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        // first tombstone on the probe path, reused if the key is not found
+        int reuse = -1;
+
+        while (keys[slot] != null) {
+            if (keys[slot] == TOMBSTONE) {
+                if (reuse < 0) reuse = slot;
+            }
+            else if (keys[slot].equals(key)) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // new entry - a reused tombstone was already counted as used
+        if (reuse >= 0) slot = reuse;
+        else used++;
+
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+    }
+
+    // delete an entry, returns the removed value or nil
+    Object remove(Object key) {
+        int slot = find(checkKey(key));
+        if (slot < 0) return null;
+
+        Object value = values[slot];
+        keys[slot] = TOMBSTONE;
+        values[slot] = null;
+        size--;
+        return value;
+    }
+
+    // live keys in slot order
+    LoxArray keys() {
+        Object[] live = new Object[Math.max(8, size)];
+        int count = 0;
+        for (Object key : keys) {
+            if (key != null && key != TOMBSTONE) live[count++] = key;
+        }
+        return LoxArray.of(live, count);
+    }
+
+    // slot holding key, or -1
+    private int find(Object key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+
+        // an empty slot ends the probe sequence, tombstones do not
+        while (keys[slot] != null) {
+            if (keys[slot] != TOMBSTONE && keys[slot].equals(key)) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    // rehash live entries, doubling only when tombstones are not the cause
+    private void resize() {
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+
+        int capacity = oldKeys.length;
+        if ((size + 1) * MAX_LOAD_DENOMINATOR > capacity * MAX_LOAD_NUMERATOR / 2) {
+            capacity *= 2;
+        }
+
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        used = size;
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            Object key = oldKeys[i];
+            if (key == null || key == TOMBSTONE) continue;
+
+            int slot = hash(key) & mask;
+            while (keys[slot] != null) slot = (slot + 1) & mask;
+            keys[slot] = key;
+            values[slot] = oldValues[i];
+        }
+    }
+
+    // spread high bits, linear probing over a power of two only sees the low ones
+    private static int hash(Object key) {
+        int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    // nil cannot be a key, 'get' already uses it for missing entries
+    private static Object checkKey(Object key) {
+        if (key == null) throw new LoxNative.NativeError("Map key cannot be nil.");
+        return key;
+    }
+
+    // method lookup through property syntax, e.g. counts.set("a", 1)
+    Object get(Token name) {
+        switch (name.lexeme) {
+            case "get":
+                return new LoxNative("get", 1,
+                    (interpreter, arguments) -> get(arguments.get(0)));
+
+            case "set":
+                return new LoxNative("set", 2, (interpreter, arguments) -> {
+                    set(arguments.get(0), arguments.get(1));
+                    return arguments.get(1);
+                });
+
+            case "has":
+                return new LoxNative("has", 1,
+                    (interpreter, arguments) -> has(arguments.get(0)));
+
+            case "remove":
+                return new LoxNative("remove", 1,
+                    (interpreter, arguments) -> remove(arguments.get(0)));
+
+            case "size":
+                return new LoxNative("size", 0,
+                    (interpreter, arguments) -> (double)size());
+
+            case "keys":
+                return new LoxNative("keys", 0,
+                    (interpreter, arguments) -> keys());
+        }
+
+        // create error if method does not exist
+        throw new RuntimeError(name,
+            "Undefined property '" + name.lexeme + "'.");
+    }
+
+    // entries in braces, formatted like print
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("{");
+        boolean first = true;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == null || keys[i] == TOMBSTONE) continue;
+            if (!first) text.append(", ");
+            text.append(Interpreter.stringify(keys[i])).append(": ")
+                .append(Interpreter.stringify(values[i]));
+            first = false;
+        }
+        return text.append("}").toString();
+    }
+}
@@ -0,0 +1,41 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Native library SPI - bundled math library
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.util.Set;
+
+// numeric helpers, all pure - defined on first use through LoxNativeLibraries
+    // sqrt(x) floor(x) ceil(x) abs(x) pow(x, y) min(x, y) max(x, y)
+public final class LoxMathLibrary implements LoxNativeLibrary {
+
+    @Override
+    public Set<String> names() {
+        return Set.of("sqrt", "floor", "ceil", "abs", "pow", "min", "max");
+    }
+
+    @Override
+    public void register(Registry registry) {
+        registry.function("sqrt", 1, true, arguments -> Math.sqrt(number(arguments.get(0))));
+        registry.function("floor", 1, true, arguments -> Math.floor(number(arguments.get(0))));
+        registry.function("ceil", 1, true, arguments -> Math.ceil(number(arguments.get(0))));
+        registry.function("abs", 1, true, arguments -> Math.abs(number(arguments.get(0))));
+        registry.function("pow", 2, true, arguments ->
+            Math.pow(number(arguments.get(0)), number(arguments.get(1))));
+        registry.function("min", 2, true, arguments ->
+            Math.min(number(arguments.get(0)), number(arguments.get(1))));
+        registry.function("max", 2, true, arguments ->
+            Math.max(number(arguments.get(0)), number(arguments.get(1))));
+    }
+
+    // reject anything but a Lox number
+    private static double number(Object value) {
+        if (value instanceof Double) return (Double)value;
+        throw new IllegalArgumentException("Operand must be a number.");
+    }
+}
@@ -0,0 +1,160 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Devirtualized method lookups - class hierarchy analysis
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+// the methods one 'object.name(...)' call has bound, skipping field and method table lookups
+    // an entry holds the class declaring the method and that class's binding assumption,
+    // valid while no subclass overrides the name and no instance below it has such a field
+    // any receiver whose class descends from the declaring class then gets the same method,
+    // so a site over many subclasses sharing one method stays monomorphic
+    // past LIMIT declaring classes the site stops caching and looks every property up
+final class LoxMethodSite {
+
+    // declaring classes kept before the site gives up caching
+    static final int LIMIT = LoxCallSite.LIMIT;
+
+    // one devirtualized target
+    private static final class Entry {
+        final LoxClass declaring;
+        final LoxFunction method;
+        final LoxAssumption assumption;
+
+        Entry(LoxClass declaring, LoxFunction method, LoxAssumption assumption) {
+            this.declaring = declaring;
+            this.method = method;
+            this.assumption = assumption;
+        }
+    }
+
+    private static final Entry[] EMPTY = new Entry[0];
+
+    // property looked up, for errors and dumps
+    final Token name;
+
+    // replaced as a whole when an entry is added or dropped, readers never lock
+    private volatile Entry[] entries = EMPTY;
+    private volatile boolean megamorphic = false;
+
+    // bound through an entry, looked up the generic way, entries dropped by invalidation
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    LoxMethodSite(Token name) {
+        this.name = name;
+    }
+
+    // value of 'object.name', the same result and errors as LoxOps.get
+    Object get(Object object) {
+        if (!(object instanceof LoxInstance)) return LoxOps.get(object, name);
+
+        LoxInstance instance = (LoxInstance)object;
+        LoxFunction method = method(instance);
+        if (method != null) return method.bind(instance);
+        return instance.get(name);
+    }
+
+    // guard of an inlined method call, true when the receiver would bind the expanded method
+    boolean binds(Object receiver, Stmt.Function declaration) {
+        if (!(receiver instanceof LoxInstance)) return false;
+
+        LoxFunction method = method((LoxInstance)receiver);
+        return method != null && method.identity() == declaration;
+    }
+
+    // unbound method the property resolves to, null for fields and anything uncached
+    private LoxFunction method(LoxInstance instance) {
+        LoxClass klass = instance.klass();
+        for (Entry entry : entries) {
+            if (klass.descendsFrom(entry.declaring) && entry.assumption.isValid()) {
+                hits.increment();
+                return entry.method;
+            }
+        }
+
+        misses.increment();
+        if (megamorphic || instance.hasField(name.lexeme)) return null;
+
+        LoxClass declaring = klass.declaring(name.lexeme);
+        if (declaring == null) return null;
+        LoxFunction method = declaring.methods.get(name.lexeme);
+        add(declaring, method);
+        return method;
+    }
+
+    // single method every cached receiver binds to, null unless the site is monomorphic
+        // a candidate for inlining, as long as its assumption holds
+    LoxFunction target() {
+        Entry[] current = entries;
+        if (megamorphic || current.length != 1 || !current[0].assumption.isValid()) return null;
+        return current[0].method;
+    }
+
+    // class hierarchy fact behind target, null when target is
+    LoxAssumption binding() {
+        Entry[] current = entries;
+        if (megamorphic || current.length != 1) return null;
+        return current[0].assumption;
+    }
+
+    private synchronized void add(LoxClass declaring, LoxFunction method) {
+        // another thread may have added it meanwhile
+        for (Entry entry : entries) {
+            if (entry.declaring == declaring && entry.assumption.isValid()) return;
+        }
+
+        // invalidated entries would never hit again, make room first
+        List<Entry> live = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.assumption.isValid()) live.add(entry);
+            else invalidations.increment();
+        }
+
+        LoxAssumption assumption = declaring.binding(name.lexeme);
+        // overridden or shadowed already, binding it would only fail the guard
+        if (!assumption.isValid()) {
+            entries = live.toArray(EMPTY);
+            return;
+        }
+
+        if (live.size() == LIMIT) {
+            megamorphic = true;
+            entries = EMPTY;
+            return;
+        }
+
+        Entry[] grown = Arrays.copyOf(live.toArray(EMPTY), live.size() + 1);
+        grown[live.size()] = new Entry(declaring, method, assumption);
+        entries = grown;
+    }
+
+    // ##### statistics #####
+
+    long total() {
+        return hits.sum() + misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("." + name.lexeme + " " +
+            (megamorphic ? "megamorphic" : "devirtualized") +
+            " hits=" + hits.sum() + " misses=" + misses.sum() +
+            " invalidated=" + invalidations.sum());
+        for (Entry entry : entries) {
+            text.append(entry.assumption.isValid() ? " " : " !")
+                .append(entry.declaring.name).append(".").append(name.lexeme);
+        }
+        return text.toString();
+    }
+}
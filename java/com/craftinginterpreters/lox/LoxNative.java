@@ -0,0 +1,127 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Native functions implemented in Java and exposed as Lox globals
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// callable wrapper around a Java implementation
+    // replaces one-off anonymous LoxCallable classes for every native
+class LoxNative implements LoxCallable {
+
+    // implementation of a native, receives the calling interpreter
+    interface Body {
+        Object call(Interpreter interpreter, List<Object> arguments);
+    }
+
+    // failure inside a native - the interpreter attaches the call site before reporting
+    static class NativeError extends RuntimeException {
+        NativeError(String message) {
+            // no stack trace, converted to a RuntimeError right away
+            super(message, null, false, false);
+        }
+    }
+
+    // results kept per memoized native, the least recently used one goes first
+    private static final int MEMO_LIMIT = 1024;
+
+    // stand-in for a nil result, a null lookup means a miss
+    private static final Object NIL = new Object();
+
+    // global name the native is registered under
+    final String name;
+    private final int arity;
+    private final Body body;
+    // result depends only on arguments, no side effects - calls with literals may be folded
+    final boolean pure;
+    // argument list -> result, only for natives that asked for it, null otherwise
+        // pure alone does not memoize, boxing and a lookup cost more than a cheap body
+    private final Map<List<Object>, Object> memo;
+
+    LoxNative(String name, int arity, Body body) {
+        this(name, arity, false, body);
+    }
+
+    LoxNative(String name, int arity, boolean pure, Body body) {
+        this(name, arity, pure, false, body);
+    }
+
+    // memoized natives must be pure, a remembered result is only right for those
+    LoxNative(String name, int arity, boolean pure, boolean memoized, Body body) {
+        if (memoized && !pure) {
+            throw new IllegalArgumentException("Memoized native '" + name + "' must be pure.");
+        }
+        this.name = name;
+        this.arity = arity;
+        this.body = body;
+        this.pure = pure;
+        this.memo = memoized ? Collections.synchronizedMap(
+            new LinkedHashMap<List<Object>, Object>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest) {
+                    return size() > MEMO_LIMIT;
+                }
+            }) : null;
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        if (memo == null || !memoizable(arguments)) return body.call(interpreter, arguments);
+
+        Object cached = memo.get(arguments);
+        if (cached != null) return cached == NIL ? null : cached;
+
+        Object result = body.call(interpreter, arguments);
+        memo.put(arguments, result == null ? NIL : result);
+        return result;
+    }
+
+    // numbers, strings, booleans and nil are immutable and compare by value
+    private static boolean memoizable(List<Object> arguments) {
+        for (Object argument : arguments) {
+            if (argument != null && !(argument instanceof Double) &&
+                !(argument instanceof String) && !(argument instanceof Boolean)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // on attempt to print
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+
+    // ##### argument checking helpers #####
+
+    // require an argument of a given runtime type
+    static <T> T expect(Object value, Class<T> type, String function, String what) {
+        if (type.isInstance(value)) return type.cast(value);
+        throw new NativeError(function + "() expects " + what + ".");
+    }
+
+    // require a callable taking the given number of arguments
+    static LoxCallable expectCallable(Object value, int arity, String function) {
+        LoxCallable callable = expect(value, LoxCallable.class, function,
+            "a function taking " + arity + " argument" + (arity == 1 ? "" : "s"));
+        if (callable.arity() != arity) {
+            throw new NativeError(function + "() expects a function taking " +
+                arity + " argument" + (arity == 1 ? "" : "s") + ".");
+        }
+        return callable;
+    }
+}
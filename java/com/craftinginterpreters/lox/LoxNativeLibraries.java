@@ -0,0 +1,81 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Native library SPI - lazy discovery and initialization
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+// process-wide registry of LoxNativeLibrary providers
+    // nothing is loaded until a global lookup misses, scripts using only built-ins pay nothing
+class LoxNativeLibraries {
+
+    // global name -> providing library, built on the first miss
+    private static volatile Map<String, LoxNativeLibrary> index;
+
+    // natives of each initialized library, register runs at most once per library
+    private static final Map<LoxNativeLibrary, Map<String, LoxNative>> loaded =
+        new ConcurrentHashMap<>();
+
+    // define a library native in globals after a lookup miss
+        // false when no library provides the name
+    static boolean define(Environment globals, String name) {
+        LoxNativeLibrary library = index().get(name);
+        if (library == null) return false;
+
+        LoxNative function = loaded.computeIfAbsent(library,
+            LoxNativeLibraries::initialize).get(name);
+        if (function == null) return false;
+
+        // only the referenced name, other names stay free for the script's own globals
+        globals.define(name, function);
+        return true;
+    }
+
+    // discover providers once, the first library listing a name wins
+    private static Map<String, LoxNativeLibrary> index() {
+        Map<String, LoxNativeLibrary> current = index;
+        if (current != null) return current;
+
+        synchronized (LoxNativeLibraries.class) {
+            if (index == null) {
+                Map<String, LoxNativeLibrary> names = new HashMap<>();
+                for (LoxNativeLibrary library : ServiceLoader.load(LoxNativeLibrary.class)) {
+                    for (String name : library.names()) names.putIfAbsent(name, library);
+                }
+                index = names;
+            }
+            return index;
+        }
+    }
+
+    // run a library's register, wrapping every function as a native
+    private static Map<String, LoxNative> initialize(LoxNativeLibrary library) {
+        Map<String, LoxNative> natives = new HashMap<>();
+
+        library.register((name, arity, pure, memoized, body) ->
+            natives.put(name, new LoxNative(name, arity, pure, memoized,
+                (interpreter, arguments) -> {
+                    try {
+                        return body.call(arguments);
+                    }
+                    // library code knows nothing of NativeError, attach its message to the
+                    // call site
+                    catch (LoxNative.NativeError error) {
+                        throw error;
+                    }
+                    catch (RuntimeException error) {
+                        throw new LoxNative.NativeError(name + ": " + error.getMessage());
+                    }
+                })));
+
+        return natives;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Native library SPI - bulk natives discovered through ServiceLoader
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.Set;
+
+// a set of natives shipped outside the interpreter
+    // list implementations in META-INF/services/com.craftinginterpreters.lox.LoxNativeLibrary
+    // providers are instantiated when a script first misses a global, keep constructors cheap -
+    // register runs once per process, on first reference to one of the library's names
+public interface LoxNativeLibrary {
+
+    // global names defined by register, read before the library is initialized
+    Set<String> names();
+
+    // define every function of the library
+    void register(Registry registry);
+
+    // sink for a library's functions
+    interface Registry {
+        // pure functions depend only on their arguments and have no side effects,
+        // the engine may fold calls with literal arguments
+        // memoized ones must be pure, their recent results are kept and reused - only worth
+        // it when the body costs far more than hashing the arguments
+        void function(String name, int arity, boolean pure, boolean memoized, Function body);
+
+        default void function(String name, int arity, boolean pure, Function body) {
+            function(name, arity, pure, false, body);
+        }
+    }
+
+    // implementation of one native
+        // arguments and results are Lox values - Double, String, Boolean, null for nil,
+        // or values handed out by Lox and passed back unchanged
+        // any RuntimeException is reported as a Lox runtime error at the call site
+    @FunctionalInterface
+    interface Function {
+        Object call(List<Object> arguments);
+    }
+}
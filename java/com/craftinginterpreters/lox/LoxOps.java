@@ -0,0 +1,278 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   JVM back end - runtime operations called by compiled code
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// dynamically typed operations of the language, one static method each
+    // same checks and messages as Interpreter so compiled and interpreted code agree,
+    // tokens are passed only for error reporting
+    // small enough for HotSpot to inline into the generated methods
+final class LoxOps {
+
+    private LoxOps() {}
+
+    // ##### truthiness and equality #####
+
+    static boolean isTruthy(Object object) {
+        if (object == null) return false;
+        if (object instanceof Boolean) return (Boolean)object;
+        return true;
+    }
+
+    static boolean isEqual(Object a, Object b) {
+        if (a == null) return b == null;
+        return a.equals(b);
+    }
+
+    static Object not(Object object) {
+        return isTruthy(object) ? Boolean.FALSE : Boolean.TRUE;
+    }
+
+    static Object equal(Object a, Object b) {
+        return isEqual(a, b) ? Boolean.TRUE : Boolean.FALSE;
+    }
+
+    static Object notEqual(Object a, Object b) {
+        return isEqual(a, b) ? Boolean.FALSE : Boolean.TRUE;
+    }
+
+    // ##### arithmetic #####
+
+    static Object add(Object left, Object right, Token operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return (Double)left + (Double)right;
+        }
+        if (left instanceof String && right instanceof String) {
+            return (String)left + (String)right;
+        }
+        throw new RuntimeError(operator,
+            "Operands must be two numbers or two strings.");
+    }
+
+    // '+' in just-in-time code compiled on the assumption that it adds numbers
+    static Object addNumbers(Object left, Object right, Token operator,
+                             CompiledFunction function) {
+        if (left instanceof Double && right instanceof Double) {
+            return (Double)left + (Double)right;
+        }
+        function.invalidate("'+' on numbers only");
+        return add(left, right, operator);
+    }
+
+    static Object subtract(Object left, Object right, Token operator) {
+        return number(left, right, operator) - (Double)right;
+    }
+
+    static Object multiply(Object left, Object right, Token operator) {
+        return number(left, right, operator) * (Double)right;
+    }
+
+    static Object divide(Object left, Object right, Token operator) {
+        return number(left, right, operator) / (Double)right;
+    }
+
+    static Object negate(Object operand, Token operator) {
+        if (operand instanceof Double) return -(Double)operand;
+        throw new RuntimeError(operator, "Operand must be a number.");
+    }
+
+    // ##### comparison, unboxed for branches #####
+
+    static boolean greater(Object left, Object right, Token operator) {
+        return number(left, right, operator) > (Double)right;
+    }
+
+    static boolean greaterEqual(Object left, Object right, Token operator) {
+        return number(left, right, operator) >= (Double)right;
+    }
+
+    static boolean less(Object left, Object right, Token operator) {
+        return number(left, right, operator) < (Double)right;
+    }
+
+    static boolean lessEqual(Object left, Object right, Token operator) {
+        return number(left, right, operator) <= (Double)right;
+    }
+
+    // left operand as a number once both are checked
+    private static double number(Object left, Object right, Token operator) {
+        if (left instanceof Double && right instanceof Double) return (Double)left;
+        throw new RuntimeError(operator, "Operands must be numbers");
+    }
+
+    // ##### calls #####
+
+    // guard of an inlined call, true when the callee is a closure of the expanded function
+    static boolean calls(Object callee, Stmt.Function declaration) {
+        return callee instanceof LoxFunction && ((LoxFunction)callee).identity() == declaration;
+    }
+
+    // site keeps the overload a bound Java method chose here
+    static Object call(Interpreter interpreter, Object callee, Object[] arguments,
+                       Token paren, JavaInterop.Site site) {
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+
+        LoxCallable function = (LoxCallable)callee;
+        if (arguments.length != function.arity()) {
+            throw new RuntimeError(paren, "Expected " +
+                function.arity() + " arguments but got " +
+                arguments.length + ".");
+        }
+
+        try {
+            // compiled and interpreted functions take the array without a list copy
+            if (function instanceof LoxFunction) {
+                return ((LoxFunction)function).invoke(interpreter, arguments);
+            }
+            if (function instanceof JavaInterop.JavaFunction) {
+                return site.call((JavaInterop.JavaFunction)function, Arrays.asList(arguments));
+            }
+            return function.call(interpreter, Arrays.asList(arguments));
+        }
+        // natives report failures without a token, attach the call site
+        catch (LoxNative.NativeError error) {
+            throw new RuntimeError(paren, error.getMessage());
+        }
+    }
+
+    // ##### variables, value first so it can stay on the stack #####
+
+    static void define(Object value, Environment environment, String name) {
+        environment.define(name, value);
+    }
+
+    static void defineGlobal(Object value, Interpreter interpreter, String name) {
+        interpreter.globals.define(name, value);
+    }
+
+    static Object assignAt(Object value, Environment environment, int distance, Token name) {
+        environment.assignAt(distance, name, value);
+        return value;
+    }
+
+    static Object assignGlobal(Object value, Interpreter interpreter, Token name) {
+        interpreter.globals.assign(name, value);
+        return value;
+    }
+
+    // ##### properties #####
+
+    static Object get(Object object, Token name) {
+        if (object instanceof LoxInstance) return ((LoxInstance)object).get(name);
+        if (object instanceof LoxArray) return ((LoxArray)object).get(name);
+        if (object instanceof LoxMap) return ((LoxMap)object).get(name);
+        throw new RuntimeError(name, "Only instances have properties.");
+    }
+
+    // receiver of a property assignment, checked before the value is evaluated
+    static LoxInstance instance(Object object, Token name) {
+        if (object instanceof LoxInstance) return (LoxInstance)object;
+        throw new RuntimeError(name, "Only instances have fields.");
+    }
+
+    static Object set(LoxInstance instance, Object value, Token name) {
+        instance.set(name, value);
+        return value;
+    }
+
+    // bound method of the superclass, 'super.name'
+    static Object superMethod(Object superclass, Object instance, Token method) {
+        LoxFunction function = ((LoxClass)superclass).findMethod(method.lexeme);
+        if (function == null) {
+            throw new RuntimeError(method,
+                "Undefined property '" + method.lexeme + "'.");
+        }
+        return function.bind((LoxInstance)instance);
+    }
+
+    // ##### subscripts #####
+
+    static Object index(Object object, Object index, Token bracket) {
+        if (object instanceof LoxArray) {
+            LoxArray array = (LoxArray)object;
+            return array.get(arrayIndex(array, index, bracket));
+        }
+        if (object instanceof LoxMap) {
+            return ((LoxMap)object).get(mapKey(index, bracket));
+        }
+        throw new RuntimeError(bracket, "Only arrays and maps can be indexed.");
+    }
+
+    // target of an element assignment, checked before the value is evaluated
+    static Object indexable(Object object, Object index, Token bracket) {
+        if (object instanceof LoxMap) {
+            mapKey(index, bracket);
+            return object;
+        }
+        if (object instanceof LoxArray) return object;
+        throw new RuntimeError(bracket, "Only arrays and maps can be indexed.");
+    }
+
+    static Object indexSet(Object object, Object index, Object value, Token bracket) {
+        if (object instanceof LoxMap) {
+            ((LoxMap)object).set(index, value);
+        }
+        else {
+            LoxArray array = (LoxArray)object;
+            array.set(arrayIndex(array, index, bracket), value);
+        }
+        return value;
+    }
+
+    private static int arrayIndex(LoxArray array, Object index, Token bracket) {
+        if (!(index instanceof Double)) {
+            throw new RuntimeError(bracket, "Array index must be a number.");
+        }
+        try {
+            return array.index(index, "[]");
+        }
+        catch (LoxNative.NativeError error) {
+            throw new RuntimeError(bracket, error.getMessage());
+        }
+    }
+
+    private static Object mapKey(Object key, Token bracket) {
+        if (key == null) throw new RuntimeError(bracket, "Map key cannot be nil.");
+        return key;
+    }
+
+    // ##### statements #####
+
+    static void print(Interpreter interpreter, Object value) {
+        interpreter.runtime.out.println(Interpreter.stringify(value));
+    }
+
+    // value of a superclass clause, must be a class
+    static Object superclass(Object value, Token name) {
+        if (value instanceof LoxClass) return value;
+        throw new RuntimeError(name, "Superclass must be a class.");
+    }
+
+    // class declaration - methods close over a 'super' scope when there is a superclass
+    static LoxClass makeClass(String name, Object superclass, Environment closure,
+                              CompiledFunction[] methods) {
+        if (superclass != null) {
+            closure = new Environment(closure);
+            closure.define("super", superclass);
+        }
+
+        Map<String, LoxFunction> table = new HashMap<>();
+        for (CompiledFunction method : methods) {
+            table.put(method.name, new LoxFunction(method, closure,
+                method.name.equals("init")));
+        }
+
+        return new LoxClass(name, (LoxClass)superclass, table);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Data-parallel natives - fork/join map and reduce over arrays
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// natives splitting array work across a work-stealing pool
+    // parallelMap(array, fn)                 -> new array of fn(element)
+    // parallelReduce(array, fn, identity)    -> fn(fn(identity, a), b)... combined across chunks,
+    //                                           fn must be associative with identity as neutral value
+class LoxParallel {
+
+    // one worker per core, shared by every runtime in the process
+    private static final ForkJoinPool pool =
+        new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    // chunks per worker, extra chunks let stealing even out uneven elements
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    // register natives in an interpreter's globals
+    static void define(Environment globals) {
+        globals.define("parallelMap", new LoxNative("parallelMap", 2,
+            (interpreter, arguments) -> {
+                LoxArray array = LoxNative.expect(arguments.get(0), LoxArray.class,
+                    "parallelMap", "an array");
+                LoxCallable function = LoxNative.expectCallable(arguments.get(1), 1,
+                    "parallelMap");
+
+                // results are written into disjoint ranges of one buffer
+                Object[] results = new Object[array.length()];
+                pool.invoke(new MapTask(interpreter, array, function, results,
+                    0, array.length(), threshold(array.length())));
+                // numeric results go back to the unboxed representation
+                return LoxArray.of(results, results.length);
+            }));
+
+        globals.define("parallelReduce", new LoxNative("parallelReduce", 3,
+            (interpreter, arguments) -> {
+                LoxArray array = LoxNative.expect(arguments.get(0), LoxArray.class,
+                    "parallelReduce", "an array");
+                LoxCallable function = LoxNative.expectCallable(arguments.get(1), 2,
+                    "parallelReduce");
+
+                return pool.invoke(new ReduceTask(interpreter, array, function,
+                    arguments.get(2), 0, array.length(), threshold(array.length())));
+            }));
+    }
+
+    // smallest range worth splitting further
+    private static int threshold(int length) {
+        return Math.max(1, length / (pool.getParallelism() * CHUNKS_PER_WORKER));
+    }
+
+    // apply a function to a range of elements
+    private static class MapTask extends RecursiveTask<Void> {
+        private final Interpreter interpreter;
+        private final LoxArray array;
+        private final LoxCallable function;
+        private final Object[] results;
+        private final int from, to, threshold;
+
+        MapTask(Interpreter interpreter, LoxArray array, LoxCallable function,
+                Object[] results, int from, int to, int threshold) {
+            this.interpreter = interpreter;
+            this.array = array;
+            this.function = function;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected Void compute() {
+            // small enough - run sequentially on a private interpreter stack
+            if (to - from <= threshold) {
+                Interpreter worker = interpreter.fork();
+                for (int i = from; i < to; i++) {
+                    results[i] = function.call(worker, nullable(array.get(i)));
+                }
+                return null;
+            }
+
+            // split in halves, second half may be stolen
+            int middle = (from + to) >>> 1;
+            MapTask right = new MapTask(interpreter, array, function, results,
+                middle, to, threshold);
+            right.fork();
+            new MapTask(interpreter, array, function, results,
+                from, middle, threshold).compute();
+            right.join();
+            return null;
+        }
+    }
+
+    // fold a range of elements then combine neighbouring ranges
+    private static class ReduceTask extends RecursiveTask<Object> {
+        private final Interpreter interpreter;
+        private final LoxArray array;
+        private final LoxCallable function;
+        private final Object identity;
+        private final int from, to, threshold;
+
+        ReduceTask(Interpreter interpreter, LoxArray array, LoxCallable function,
+                   Object identity, int from, int to, int threshold) {
+            this.interpreter = interpreter;
+            this.array = array;
+            this.function = function;
+            this.identity = identity;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected Object compute() {
+            // small enough - left fold on a private interpreter stack
+            if (to - from <= threshold) {
+                Interpreter worker = interpreter.fork();
+                Object accumulator = identity;
+                for (int i = from; i < to; i++) {
+                    accumulator = function.call(worker,
+                        pair(accumulator, array.get(i)));
+                }
+                return accumulator;
+            }
+
+            // reduce halves independently, keep left-to-right order when combining
+            int middle = (from + to) >>> 1;
+            ReduceTask right = new ReduceTask(interpreter, array, function, identity,
+                middle, to, threshold);
+            right.fork();
+            Object left = new ReduceTask(interpreter, array, function, identity,
+                from, middle, threshold).compute();
+            Object rightValue = right.join();
+            return function.call(interpreter.fork(), pair(left, rightValue));
+        }
+    }
+
+    // argument lists that may hold nil, List.of rejects null
+    private static List<Object> nullable(Object value) {
+        return Collections.singletonList(value);
+    }
+
+    private static List<Object> pair(Object first, Object second) {
+        return Arrays.asList(first, second);
+    }
+}
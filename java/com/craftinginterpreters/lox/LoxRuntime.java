@@ -0,0 +1,300 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Interpreter isolates - all per-program state in one owned object
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+// one independent Lox execution context
+    // owns globals (through its interpreter), error state and output streams
+    // no static state is shared, separate runtimes may run on separate threads
+class LoxRuntime {
+
+    // exit codes reported for a finished program, UNIX sysexits.h
+    static final int EXIT_OK = 0;
+    static final int EXIT_COMPILE_ERROR = 65;
+    static final int EXIT_RUNTIME_ERROR = 70;
+
+    // streams for program output and diagnostics
+    final PrintStream out;
+    final PrintStream err;
+
+    // interpreter instance to be executed, holds this runtime's globals
+    final Interpreter interpreter;
+
+    // execution state variable - prevent instruction execution on error
+    boolean hadError = false;
+    // check for errors made during interpreter execution
+    boolean hadRuntimeError = false;
+
+    // Lox call stack sampler, null unless -Dlox.sample is set
+        // created before the interpreter, which registers its shadow stack with it
+    final LoxSampler sampler = LoxSampler.ENABLED ? new LoxSampler() : null;
+
+    LoxRuntime(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+        // interpreter needs the runtime for printing and error reporting
+            // the counting subclass under -Dlox.hotspots=N
+        this.interpreter = ProfilingInterpreter.ENABLED ?
+            new ProfilingInterpreter(this) : new Interpreter(this);
+    }
+
+    // run a script or artifact, pass exit status to caller
+        // 0 on success, 65 on compile error, 70 on runtime error
+    int runFile(String path) throws IOException {
+        return runFile(path, null, null);
+    }
+
+    // run a script or artifact with a profile loaded from and saved to the given files
+        // either file may be null, a profile of some other program is ignored with a warning
+    int runFile(String path, Path profileIn, Path profileOut) throws IOException {
+        // read all source code from path
+        byte[] readBytes = Files.readAllBytes(Paths.get(path));
+
+        // check for precompiled artifact and skip the front end entirely
+        List<Stmt> statements = LoxcReader.isArtifact(readBytes) ? readArtifact(readBytes) :
+            analyze(new String(readBytes, Charset.defaultCharset()));
+
+        if (!hadError) {
+            RunProfile profile = profileIn != null || profileOut != null ?
+                new RunProfile(readBytes, statements) : null;
+            interpreter.runProfile = profile;
+            // profiles only steer optimization, the program runs without one
+            if (profileIn != null) {
+                try {
+                    if (!profile.load(profileIn, interpreter)) {
+                        err.println("Profile " + profileIn +
+                            " was recorded for another program, ignored.");
+                    }
+                }
+                catch (IOException error) {
+                    err.println("Could not read profile " + profileIn + ": " +
+                        reason(error) + ", ignored.");
+                }
+            }
+
+            // run interpreter on statements, sampled when -Dlox.sample=file is set
+            if (sampler != null) sampler.start();
+            execute(statements);
+            if (sampler != null) {
+                sampler.stop();
+                sampler.write(Paths.get(LoxSampler.OUTPUT), err);
+            }
+
+            // the run already succeeded, a profile that cannot be written only warns
+            if (profileOut != null) {
+                try {
+                    profile.save(profileOut, interpreter);
+                }
+                catch (IOException error) {
+                    err.println("Could not write profile to " + profileOut + ": " +
+                        reason(error) + ".");
+                }
+            }
+        }
+
+        // inline cache statistics on request, -Dlox.callsites=true
+        if (Boolean.getBoolean("lox.callsites")) interpreter.dumpCallSites(err);
+        // deoptimization summary with the trace, -Dlox.deopt.trace=true
+        if (LoxJit.TRACE) interpreter.jit.dumpDeopts(err);
+        // trace lengths and side exits, -Dlox.trace.stats=true
+        if (LoxTrace.STATS) interpreter.jit.dumpTraces(err);
+        // hottest statements and functions, -Dlox.hotspots=N
+        if (ProfilingInterpreter.ENABLED && !hadError) {
+            ((ProfilingInterpreter)interpreter).report(err, path);
+        }
+
+        return status();
+    }
+
+    // file system errors carry only the path as their message
+    private static String reason(IOException error) {
+        if (error instanceof NoSuchFileException) return "no such file or directory";
+        if (error instanceof AccessDeniedException) return "permission denied";
+        return error.getMessage();
+    }
+
+    // exit status for the errors seen so far
+    int status() {
+        // check execute status and provide exit code for error
+        if (hadError) return EXIT_COMPILE_ERROR;
+        // check for error during interpreter execution
+        if (hadRuntimeError) return EXIT_RUNTIME_ERROR;
+
+        return EXIT_OK;
+    }
+
+    // scan, parse and resolve a script then write it out as a .loxc artifact
+        // pass false to caller if the program has compile errors
+    boolean compileFile(String path, String output) throws IOException {
+        // read source as for a normal run
+        byte[] readBytes = Files.readAllBytes(Paths.get(path));
+        // front end only, nothing is executed
+        List<Stmt> statements = analyze(new String(readBytes, Charset.defaultCharset()));
+
+        // do not produce an artifact for a program with compile errors
+        if (hadError) return false;
+
+        // serialize tree together with the interpreter's resolved scope distances
+        try (OutputStream stream = new BufferedOutputStream(
+                Files.newOutputStream(Paths.get(output)))) {
+            new LoxcWriter(interpreter).write(statements, stream);
+        }
+        return true;
+    }
+
+    // load a verified artifact without scanning, parsing or resolving
+    private List<Stmt> readArtifact(byte[] bytes) {
+        List<Stmt> statements;
+        try {
+            statements = new LoxcReader(interpreter).read(bytes);
+        }
+        // refuse to run anything from a file that fails verification
+        catch (IOException error) {
+            err.println(error.getMessage());
+            hadError = true;
+            return null;
+        }
+
+        // artifacts carry resolution but not types
+        infer(statements);
+        return statements;
+    }
+
+    // optional type inference, -Dlox.types=true, with a report under -Dlox.types.report=true
+    private void infer(List<Stmt> statements) {
+        if (!Boolean.getBoolean("lox.types")) return;
+
+        TypeInference.Report report = new TypeInference(interpreter).infer(statements);
+        if (Boolean.getBoolean("lox.types.report")) err.println(report);
+    }
+
+    // scan, parse and resolve a script then write it out as an executable jar
+        // pass false to caller if the program has compile errors
+    boolean aotFile(String path, String output) throws IOException {
+        byte[] readBytes = Files.readAllBytes(Paths.get(path));
+        List<Stmt> statements = analyze(new String(readBytes, Charset.defaultCharset()));
+
+        // do not produce a jar for a program with compile errors
+        if (hadError) return false;
+
+        LoxAot.write(JvmCompiler.compileProgram(LoxAot.PROGRAM, statements, interpreter),
+            Paths.get(output));
+        return true;
+    }
+
+    // run a program compiled by JvmCompiler, function 0 holds its top-level statements
+    void runCompiled(CompiledFunction.Code program) {
+        try {
+            program.invoke(0, interpreter, interpreter.globals, new Object[0]);
+        }
+        catch (RuntimeError error) {
+            runtimeError(error);
+        }
+    }
+
+    // execute source code on this runtime's globals
+    void run(String source) {
+        // front end - scan, parse and resolve
+        List<Stmt> statements = analyze(source);
+
+        // check for error generated before execution and exit
+        if (hadError) return;
+
+        // run interpreter on statements
+        execute(statements);
+    }
+
+    // interpret a resolved program as the execute phase of a flight recording
+    private void execute(List<Stmt> statements) {
+        LoxEvents.Phase phase = LoxEvents.phase();
+        interpreter.interpret(statements);
+        LoxEvents.phased(phase, "execute");
+        // counts since the last periodic event, a program may finish within one period
+        LoxEvents.instantiations();
+    }
+
+    // front end shared by execution and ahead-of-time compilation
+    List<Stmt> analyze(String source) {
+        // each pass is a phase event when a flight recording is active
+        LoxEvents.Phase phase = LoxEvents.phase();
+        // create new Scanner instance from passed source code
+        Scanner scanner = new Scanner(source, this);
+        // invoke scanner on source code to generate tokens
+        List<Token> tokens = scanner.scanTokens();
+        LoxEvents.phased(phase, "scan");
+
+        phase = LoxEvents.phase();
+        Parser parser = new Parser(tokens, this);
+        // attempt get statements
+        List<Stmt> statements = parser.parse();
+        LoxEvents.phased(phase, "parse");
+
+        // check for error after parsing and exit call
+        if (hadError) return statements;
+
+        // create Resolver instance for variable binding and provide with reference to interpreter
+        phase = LoxEvents.phase();
+        Resolver resolver = new Resolver(interpreter);
+        // single-pass evaluate variable bindings before interpretation
+        resolver.resolve(statements);
+        LoxEvents.phased(phase, "resolve");
+
+        // types need resolved scopes
+        if (!hadError) infer(statements);
+
+        // pass resolved statements to caller
+        return statements;
+    }
+
+    // basic error reporting (scanning)
+    void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    // parse-level error handling
+    void error(Token token, String message) {
+        // check for incorrect termination
+        if (token.type == TokenType.EOF) {
+            report(token.line, " at end", message);
+        }
+        // default
+        else {
+            report(token.line, " at '" + token.lexeme + "'", message);
+        }
+    }
+
+    // handle errors recevied at runtime
+    void runtimeError(RuntimeError error) {
+        LoxEvents.runtimeError(error);
+        // log formatted message
+        out.println(error.getMessage() +
+            "\n[line " + error.token.line + "]");
+        // update state on event
+        hadRuntimeError = true;
+    }
+
+    void report(int line, String where, String message) {
+        // display format to error stream
+        err.println(
+            "[line " + line + "] Error" + where + ": " + message);
+        // update state
+        hadError = true;
+    }
+}
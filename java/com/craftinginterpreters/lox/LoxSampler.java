@@ -0,0 +1,165 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Sampling profiler - Lox call stacks as flame graph input
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+// counts the Lox call stacks of every interpreter of a run, sampled from a daemon thread
+    // each interpreter keeps a shadow stack, LoxFunction pushes the function on every call
+    // whichever tier runs it, so Java profilers' visitCallExpr recursion becomes Lox frames
+    // a frame's line is its declaration until it makes a call from the tree walker, then the
+    // line of that call, compiled code and inlined calls do not update it
+    // -Dlox.sample=file writes one 'frame;frame;... count' line per stack at exit, the
+    // collapsed format flamegraph.pl and speedscope read, -Dlox.sample.hz sets the rate
+    // off by default, the shadow stack is then never created or touched
+final class LoxSampler {
+
+    static final String OUTPUT = System.getProperty("lox.sample");
+    static final boolean ENABLED = OUTPUT != null;
+    static final int HZ = Integer.getInteger("lox.sample.hz", 1000);
+
+    // Lox frames of one interpreter, written by its thread and read by the sampler
+        // the sampler may see a frame being replaced, a sample is allowed to be off by one
+    static final class Stack {
+        // bottom frame, the script or a spawned task
+        private final String root;
+        private String[] names = new String[64];
+        private int[] lines = new int[64];
+        // frames above the root
+        private volatile int depth = 0;
+        private volatile int rootLine = 0;
+
+        Stack(String root) {
+            this.root = root;
+        }
+
+        void push(String name, int line) {
+            int top = depth;
+            if (top == names.length) {
+                // the sampler keeps reading the old arrays until depth moves past them
+                String[] grownNames = Arrays.copyOf(names, top * 2);
+                int[] grownLines = Arrays.copyOf(lines, top * 2);
+                names = grownNames;
+                lines = grownLines;
+            }
+            names[top] = name;
+            lines[top] = line;
+            depth = top + 1;
+        }
+
+        void pop() {
+            depth--;
+        }
+
+        // the current frame reached a call on the given line
+        void line(int line) {
+            int top = depth;
+            if (top == 0) rootLine = line;
+            else lines[top - 1] = line;
+        }
+
+        // collapsed frames root first, null when a task has nothing on its stack
+        private String snapshot() {
+            int top = depth;
+            String[] frames = names;
+            int[] at = lines;
+            top = Math.min(top, frames.length);
+            if (top == 0 && !root.equals("script")) return null;
+
+            StringBuilder collapsed = new StringBuilder(root).append(':').append(rootLine);
+            for (int i = 0; i < top; i++) {
+                collapsed.append(';').append(frames[i]).append(':').append(at[i]);
+            }
+            return collapsed.toString();
+        }
+    }
+
+    // stacks of the run's interpreters, dropped with forks that are collected
+    private final Set<Stack> stacks = Collections.newSetFromMap(new WeakHashMap<>());
+    // samples per collapsed stack, touched by the sampler thread only
+    private final Map<String, Long> counts = new TreeMap<>();
+    private volatile boolean running = false;
+    private Thread thread;
+    private long samples = 0;
+
+    // shadow stack for a new interpreter, 'script' for the runtime's own, 'task' for forks
+    Stack stack(String root) {
+        Stack stack = new Stack(root);
+        synchronized (stacks) {
+            stacks.add(stack);
+        }
+        return stack;
+    }
+
+    void start() {
+        running = true;
+        long interval = 1_000_000_000L / Math.max(1, HZ);
+        thread = new Thread(() -> {
+            while (running) {
+                sample();
+                LockSupport.parkNanos(interval);
+            }
+        }, "lox-sampler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // stop sampling and wait for the thread, counts are final afterwards
+    void stop() {
+        running = false;
+        try {
+            thread.join();
+        }
+        catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sample() {
+        List<Stack> live;
+        synchronized (stacks) {
+            live = new ArrayList<>(stacks);
+        }
+        for (Stack stack : live) {
+            String collapsed = stack.snapshot();
+            if (collapsed != null) counts.merge(collapsed, 1L, Long::sum);
+        }
+        samples++;
+    }
+
+    // collapsed stacks to the output file, a one-line summary to err
+    void write(Path path, PrintStream err) {
+        try (PrintWriter out = new PrintWriter(
+                Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, Long> stack : counts.entrySet()) {
+                out.println(stack.getKey() + " " + stack.getValue());
+            }
+        }
+        catch (IOException error) {
+            err.println("Could not write samples to " + path + ": " + error.getMessage());
+            return;
+        }
+        err.println("sampler: " + samples + " samples, " + counts.size() +
+            " distinct stacks written to " + path);
+    }
+}
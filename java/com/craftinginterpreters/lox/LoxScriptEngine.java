@@ -0,0 +1,172 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Embedding API - JSR-223 ScriptEngine adapter over LoxEngine
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+// javax.script view of the engine - eval and compile against ScriptContext bindings
+    // global scope bindings are visible as inputs, engine scope bindings are read and written back
+    // a global scope binding reaches engine scope only when the script assigned it a new value
+public class LoxScriptEngine extends AbstractScriptEngine implements Compilable {
+    // factory that produced this engine
+    private final LoxScriptEngineFactory factory;
+    // compiler shared by every eval
+    private final LoxEngine engine = new LoxEngine();
+
+    LoxScriptEngine(LoxScriptEngineFactory factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return compile(script).eval(context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return eval(readAll(reader), context);
+    }
+
+    @Override
+    public javax.script.CompiledScript compile(String script) throws ScriptException {
+        try {
+            return new LoxCompiledScript(engine.compile(script));
+        }
+        // compile errors surface as script exceptions
+        catch (LoxScriptException error) {
+            throw new ScriptException(error.getMessage());
+        }
+    }
+
+    @Override
+    public javax.script.CompiledScript compile(Reader script) throws ScriptException {
+        return compile(readAll(script));
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    // drain a reader into a string for the front end
+    private static String readAll(Reader reader) throws ScriptException {
+        StringWriter source = new StringWriter();
+        try {
+            reader.transferTo(source);
+        }
+        catch (IOException error) {
+            throw new ScriptException(error);
+        }
+        return source.toString();
+    }
+
+    // javax.script handle wrapping a reusable Lox script
+    private class LoxCompiledScript extends javax.script.CompiledScript {
+        private final CompiledScript script;
+
+        LoxCompiledScript(CompiledScript script) {
+            this.script = script;
+        }
+
+        @Override
+        public Object eval(ScriptContext context) throws ScriptException {
+            // inputs - global scope first so engine scope entries win
+            Map<String, Object> globals = new HashMap<>();
+            Bindings globalScope = context.getBindings(ScriptContext.GLOBAL_SCOPE);
+            if (globalScope != null) inputs(globalScope, globals);
+            Bindings engineScope = context.getBindings(ScriptContext.ENGINE_SCOPE);
+            if (engineScope != null) inputs(engineScope, globals);
+
+            // inherited values as the script received them, to spot the ones it assigned
+            Map<String, Object> inherited = new HashMap<>(globals);
+            if (engineScope != null) inherited.keySet().removeAll(engineScope.keySet());
+
+            // capture script output for the context's writers
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+            try {
+                Object result = script.execute(globals,
+                    new PrintStream(out, true, StandardCharsets.UTF_8),
+                    new PrintStream(err, true, StandardCharsets.UTF_8));
+
+                // outputs land in engine scope, global scope names only if the script changed them
+                if (engineScope != null) {
+                    for (Map.Entry<String, Object> global : globals.entrySet()) {
+                        String name = global.getKey();
+                        if (inherited.containsKey(name) &&
+                            Objects.equals(inherited.get(name), global.getValue())) continue;
+                        engineScope.put(name, global.getValue());
+                    }
+                }
+                return result;
+            }
+            // runtime errors keep their line number
+            catch (LoxScriptException error) {
+                throw new ScriptException(error.getMessage(), null, error.getLine());
+            }
+            // hand captured output over even when the script failed
+            finally {
+                write(context.getWriter(), out);
+                write(context.getErrorWriter(), err);
+            }
+        }
+
+        // convert one scope's bindings up front, a value Lox cannot hold fails the eval
+        private void inputs(Bindings scope, Map<String, Object> globals) throws ScriptException {
+            for (Map.Entry<String, Object> binding : scope.entrySet()) {
+                try {
+                    globals.put(binding.getKey(), CompiledScript.toLox(binding.getValue()));
+                }
+                catch (IllegalArgumentException error) {
+                    throw new ScriptException("Binding '" + binding.getKey() + "': " +
+                        error.getMessage());
+                }
+            }
+        }
+
+        @Override
+        public javax.script.ScriptEngine getEngine() {
+            return LoxScriptEngine.this;
+        }
+
+        // copy captured bytes to a context writer
+        private void write(Writer writer, ByteArrayOutputStream bytes) throws ScriptException {
+            if (writer == null || bytes.size() == 0) return;
+            try {
+                writer.write(bytes.toString(StandardCharsets.UTF_8));
+                writer.flush();
+            }
+            catch (IOException error) {
+                throw new ScriptException(error);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Embedding API - JSR-223 factory, discovered via META-INF/services
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+// describes the Lox engine to javax.script.ScriptEngineManager
+public class LoxScriptEngineFactory implements ScriptEngineFactory {
+
+    @Override
+    public String getEngineName() { return "jlox"; }
+
+    @Override
+    public String getEngineVersion() { return "1.0"; }
+
+    @Override
+    public List<String> getExtensions() { return List.of("lox"); }
+
+    @Override
+    public List<String> getMimeTypes() { return List.of("application/x-lox"); }
+
+    @Override
+    public List<String> getNames() { return List.of("lox", "Lox", "jlox"); }
+
+    @Override
+    public String getLanguageName() { return "Lox"; }
+
+    @Override
+    public String getLanguageVersion() { return "1.0"; }
+
+    @Override
+    public Object getParameter(String key) {
+        switch (key) {
+            case ScriptEngine.ENGINE: return getEngineName();
+            case ScriptEngine.ENGINE_VERSION: return getEngineVersion();
+            case ScriptEngine.LANGUAGE: return getLanguageName();
+            case ScriptEngine.LANGUAGE_VERSION: return getLanguageVersion();
+            case ScriptEngine.NAME: return getNames().get(0);
+            // every eval runs in its own isolate
+            case "THREADING": return "MULTITHREADED";
+        }
+        return null;
+    }
+
+    @Override
+    public String getMethodCallSyntax(String obj, String m, String... args) {
+        return obj + "." + m + "(" + String.join(", ", args) + ")";
+    }
+
+    @Override
+    public String getOutputStatement(String toDisplay) {
+        return "print \"" + toDisplay.replace("\"", "") + "\";";
+    }
+
+    @Override
+    public String getProgram(String... statements) {
+        return String.join("\n", statements);
+    }
+
+    @Override
+    public ScriptEngine getScriptEngine() {
+        return new LoxScriptEngine(this);
+    }
+}
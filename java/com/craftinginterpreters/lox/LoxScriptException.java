@@ -0,0 +1,25 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Embedding API - failure of a compiled or executed script
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+// error surfaced to embedders for compile errors and runtime errors
+public class LoxScriptException extends RuntimeException {
+    // source line of a runtime error, -1 when not tied to one line
+    private final int line;
+
+    LoxScriptException(String message, int line) {
+        super(message);
+        this.line = line;
+    }
+
+    // line the error was raised on, -1 for compile errors (all are listed in the message)
+    public int getLine() {
+        return line;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Trace compilation - hot loops specialized to their recorded path
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// what a hot loop's body did over a few recorded iterations, and the guards its trace keeps
+    // once a loop reaches the on-stack replacement threshold the interpreter records which way
+    // each 'if' went and whether each numeric operator saw only numbers, then the loop is
+    // compiled with only the branches taken and calls inlined from the call site profiles
+    // an 'if' going the other way is a side exit: the rest of the iteration runs interpreted
+    // and the loop enters the trace again, operators that saw numbers check their operands
+    // and fall back to the generic operation
+    // a guard exiting -Dlox.trace.exits times gets both branches and the trace is rebuilt
+    // -Dlox.trace=true replaces hot loops with traces instead of whole-loop code,
+    // -Dlox.trace.record sets the iterations recorded, -Dlox.trace.stats=true prints
+    // every trace with its length and side exits at exit
+final class LoxTrace {
+
+    static final boolean ENABLED = Boolean.getBoolean("lox.trace");
+    static final int RECORD = Integer.getInteger("lox.trace.record", 16);
+    static final int EXIT_LIMIT = Integer.getInteger("lox.trace.exits", 100);
+    static final boolean STATS = Boolean.getBoolean("lox.trace.stats");
+
+    // branch bits recorded per 'if'
+    private static final int THEN = 1;
+    private static final int ELSE = 2;
+
+    // an 'if' a compiled trace pinned to one branch
+    static final class Guard {
+        final Stmt.If stmt;
+        final int line;
+        final LongAdder exits = new LongAdder();
+
+        Guard(Stmt.If stmt, int line) {
+            this.stmt = stmt;
+            this.line = line;
+        }
+    }
+
+    // where one guard leaves the trace, the statements left of the iteration at each level
+        // innermost first, beginning with the branch the trace did not record
+    static final class Exit {
+        private final LoxTrace trace;
+        private final Guard guard;
+        private final List<LoxDeopt.Frame> frames;
+
+        Exit(LoxTrace trace, Guard guard, List<LoxDeopt.Frame> frames) {
+            this.trace = trace;
+            this.guard = guard;
+            this.frames = frames;
+        }
+
+        // finish the iteration interpreted, LoxJit.EXITED or the value of a 'return'
+            // frames at scope -1 run in the environment the trace was entered with
+        Object run(Interpreter interpreter, Environment closure, Environment[] scopes) {
+            trace.exited(guard);
+            try {
+                for (LoxDeopt.Frame frame : frames) {
+                    interpreter.executeBlock(frame.statements,
+                        frame.scope < 0 ? closure : scopes[frame.scope]);
+                }
+            }
+            catch (Return value) {
+                return value.value;
+            }
+            return LoxJit.EXITED;
+        }
+    }
+
+    final Stmt.While loop;
+
+    // THEN and ELSE bits of every 'if' run while recording
+    private final Map<Stmt.If, Integer> branches = new ConcurrentHashMap<>();
+    // numeric operators by whether every recorded run had number operands
+    private final Map<Expr.Binary, Boolean> numbers = new ConcurrentHashMap<>();
+    private final AtomicInteger recorded = new AtomicInteger();
+
+    // guards of every version, and the ones compiled both ways after exiting too often
+    private final Map<Stmt.If, Guard> guards = new ConcurrentHashMap<>();
+    private final Set<Stmt.If> widened = ConcurrentHashMap.newKeySet();
+    // a guard was widened since the current version was built
+    private volatile boolean stale = false;
+
+    // versions built, statements in the latest, times the interpreter entered a trace
+    private volatile int versions = 0;
+    private volatile int length = 0;
+    private final LongAdder entries = new LongAdder();
+
+    LoxTrace(Stmt.While loop) {
+        this.loop = loop;
+    }
+
+    // ##### recording #####
+
+    // the interpreter took a branch
+    void branch(Stmt.If stmt, boolean then) {
+        branches.merge(stmt, then ? THEN : ELSE, (a, b) -> a | b);
+    }
+
+    // the interpreter ran a binary operator
+    void operands(Expr.Binary expr, Object left, Object right) {
+        numbers.merge(expr, left instanceof Double && right instanceof Double,
+            Boolean::logicalAnd);
+    }
+
+    // one more iteration ran while recording, true once there are enough
+    boolean recorded() {
+        return recorded.incrementAndGet() >= RECORD;
+    }
+
+    boolean complete() {
+        return recorded.get() >= RECORD;
+    }
+
+    // ##### compilation #####
+
+    // the only branch an 'if' took, null when it took both, never ran or exited too often
+    Boolean direction(Stmt.If stmt) {
+        if (widened.contains(stmt)) return null;
+        Integer seen = branches.get(stmt);
+        if (seen == null || seen == (THEN | ELSE)) return null;
+        return seen == THEN;
+    }
+
+    // every recorded run of the operator had number operands
+    boolean numeric(Expr.Binary expr) {
+        return numbers.getOrDefault(expr, false);
+    }
+
+    // guard of an 'if', shared by every version of the trace
+    Guard guard(Stmt.If stmt, int line) {
+        return guards.computeIfAbsent(stmt, key -> new Guard(stmt, line));
+    }
+
+    // a version is being built from the current guards
+    void building() {
+        stale = false;
+    }
+
+    void built(int length) {
+        this.length = length;
+        versions++;
+    }
+
+    boolean stale() {
+        return stale;
+    }
+
+    void entered() {
+        entries.increment();
+    }
+
+    private void exited(Guard guard) {
+        guard.exits.increment();
+        if (guard.exits.sum() >= EXIT_LIMIT && widened.add(guard.stmt)) stale = true;
+    }
+
+    // ##### statistics #####
+
+    long exits() {
+        long exits = 0;
+        for (Guard guard : guards.values()) exits += guard.exits.sum();
+        return exits;
+    }
+
+    int versions() {
+        return versions;
+    }
+
+    long entries() {
+        return entries.sum();
+    }
+
+    // one line for the trace, then one per guard that exited
+    void dump(PrintStream out) {
+        long entered = entries.sum();
+        long exits = exits();
+        out.println("[line " + JvmCompiler.line(loop.condition, 0) + "] loop traced " +
+            versions + (versions == 1 ? " time" : " times") + ", length " + length +
+            ", entries " + entered + ", side exits " + exits +
+            (entered > 0 ? String.format(" (%.2f per entry)", (double)exits / entered) : ""));
+        for (Guard guard : guards.values()) {
+            if (guard.exits.sum() == 0) continue;
+            out.println("    exit [line " + guard.line + "] x" + guard.exits.sum() +
+                (widened.contains(guard.stmt) ? ", both branches compiled" : ""));
+        }
+    }
+}
@@ -0,0 +1,28 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Static types - what inference can prove about a value
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+// runtime representation a value is known to have
+    // ANY when nothing is proven, every other type is exact
+enum LoxType {
+    NUMBER,     // Double
+    STRING,     // String
+    BOOLEAN,    // Boolean
+    NIL,        // null
+    INSTANCE,   // LoxInstance
+    CALLABLE,   // LoxCallable
+    ANY;
+
+    // least type covering both, null stands for no value seen yet
+    static LoxType join(LoxType a, LoxType b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        return a == b ? a : ANY;
+    }
+}
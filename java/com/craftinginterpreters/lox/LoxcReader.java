@@ -0,0 +1,361 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Precompiled Lox artifacts (.loxc) - load a resolved syntax tree
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// static use of the format constants shared with the writer
+import static com.craftinginterpreters.lox.LoxcWriter.*;
+
+// rebuild a program from the .loxc format straight into interpreter-ready statements
+    // no scanning, parsing or resolving - resolved scope distances are restored from the artifact
+class LoxcReader {
+
+    // raised for any artifact that fails verification
+    static class FormatError extends IOException {
+        FormatError(String message) {
+            super(message);
+        }
+    }
+
+    // resolution information is handed to the interpreter that will run the program
+    private final Interpreter interpreter;
+
+    // tables restored from the payload
+    private String[] strings;
+    private Object[] constants;
+    private Token[] tokens;
+    private Stmt.Function[] functions;
+
+    // payload being decoded
+    private DataInputStream in;
+
+    LoxcReader(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    // check for the artifact magic without fully reading the file
+    static boolean isArtifact(byte[] bytes) {
+        return bytes.length >= MAGIC.length &&
+            Arrays.equals(Arrays.copyOf(bytes, MAGIC.length), MAGIC);
+    }
+
+    // verify and decode an entire artifact, passing top-level statements to caller
+    List<Stmt> read(byte[] bytes) throws IOException {
+        // header is magic + major + minor + length + crc
+        if (bytes.length < MAGIC.length + 12) throw corrupt("file too short");
+        if (!isArtifact(bytes)) throw corrupt("not a .loxc file");
+
+        DataInputStream header = new DataInputStream(
+            new ByteArrayInputStream(bytes, MAGIC.length, bytes.length - MAGIC.length));
+        int major = header.readUnsignedShort();
+        int minor = header.readUnsignedShort();
+        int length = header.readInt();
+        int checksum = header.readInt();
+
+        // reject artifacts produced by an incompatible format revision
+        if (major != MAJOR_VERSION) {
+            throw corrupt("unsupported format version " + major + "." + minor +
+                " (expected " + MAJOR_VERSION + ".x)");
+        }
+
+        // payload must be exactly as long as declared and match its checksum
+        int offset = MAGIC.length + 12;
+        if (length != bytes.length - offset) throw corrupt("payload length mismatch");
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        if ((int)crc.getValue() != checksum) throw corrupt("checksum mismatch");
+
+        in = new DataInputStream(new ByteArrayInputStream(bytes, offset, length));
+        try {
+            readTables();
+            List<Stmt> statements = readStatements();
+
+            // trailing data means the writer and reader disagree on layout
+            if (in.available() != 0) throw corrupt("unexpected trailing data");
+            return statements;
+        }
+        // checksum passed but a structure ran past the end - still a bad file
+        catch (EOFException error) {
+            throw corrupt("unexpected end of payload");
+        }
+    }
+
+    // ##### tables #####
+
+    private void readTables() throws IOException {
+        // string table
+        strings = new String[count()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] utf8 = new byte[count()];
+            in.readFully(utf8);
+            strings[i] = new String(utf8, StandardCharsets.UTF_8);
+        }
+
+        // constant pool
+        constants = new Object[count()];
+        for (int i = 0; i < constants.length; i++) {
+            int kind = in.readUnsignedByte();
+            if (kind == CONST_NUMBER) constants[i] = in.readDouble();
+            else if (kind == CONST_STRING) constants[i] = string();
+            else throw corrupt("unknown constant kind " + kind);
+        }
+
+        // line table
+        tokens = new Token[count()];
+        for (int i = 0; i < tokens.length; i++) {
+            TokenType type;
+            try {
+                type = TokenType.valueOf(string());
+            }
+            catch (IllegalArgumentException error) {
+                throw corrupt("unknown token type");
+            }
+            String lexeme = string();
+            int line = in.readInt();
+            tokens[i] = new Token(type, lexeme, null, line);
+        }
+
+        // function signatures, bodies are filled in once every prototype exists
+        functions = new Stmt.Function[count()];
+        List<List<Stmt>> bodies = new ArrayList<>();
+        for (int i = 0; i < functions.length; i++) {
+            Token name = token();
+            int arity = in.readUnsignedShort();
+            List<Token> params = new ArrayList<>();
+            for (int p = 0; p < arity; p++) params.add(token());
+
+            List<Stmt> body = new ArrayList<>();
+            bodies.add(body);
+            functions[i] = new Stmt.Function(name, params, body);
+        }
+
+        // prototype bodies may reference any function in the table
+        for (List<Stmt> body : bodies) body.addAll(readStatements());
+    }
+
+    // read a non-negative element count that cannot exceed the remaining payload
+    private int count() throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > in.available()) throw corrupt("bad element count");
+        return count;
+    }
+
+    // bounds-checked table lookups
+    private String string() throws IOException {
+        int index = in.readInt();
+        if (index < 0 || index >= strings.length) throw corrupt("bad string index");
+        return strings[index];
+    }
+
+    private Token token() throws IOException {
+        int index = in.readInt();
+        if (index < 0 || index >= tokens.length) throw corrupt("bad token index");
+        return tokens[index];
+    }
+
+    private Stmt.Function function() throws IOException {
+        int index = in.readInt();
+        if (index < 0 || index >= functions.length) throw corrupt("bad function index");
+        return functions[index];
+    }
+
+    private Object constant() throws IOException {
+        int index = in.readInt();
+        if (index < 0 || index >= constants.length) throw corrupt("bad constant index");
+        return constants[index];
+    }
+
+    // restore resolved scope distance for a variable-like expression
+    private <E extends Expr> E resolved(E expr) throws IOException {
+        int depth = in.readInt();
+        if (depth < GLOBAL_DEPTH) throw corrupt("bad scope depth");
+        // globals are looked up by name at runtime, nothing to record
+        if (depth != GLOBAL_DEPTH) interpreter.resolve(expr, depth);
+        return expr;
+    }
+
+    // ##### nodes #####
+
+    private List<Stmt> readStatements() throws IOException {
+        int count = count();
+        List<Stmt> statements = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) statements.add(readStmt());
+        return statements;
+    }
+
+    private Stmt readStmt() throws IOException {
+        int tag = in.readUnsignedByte();
+
+        switch (tag) {
+            case TAG_NULL: return null;
+
+            case STMT_BLOCK:
+                return new Stmt.Block(readStatements());
+
+            case STMT_CLASS: {
+                Token name = token();
+                Expr superclass = readExpr();
+                // superclass is always written as a variable reference
+                if (superclass != null && !(superclass instanceof Expr.Variable)) {
+                    throw corrupt("superclass must be a variable");
+                }
+                int count = count();
+                List<Stmt.Function> methods = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) methods.add(function());
+                return new Stmt.Class(name, (Expr.Variable)superclass, methods);
+            }
+
+            case STMT_EXPRESSION:
+                return new Stmt.Expression(requireExpr());
+
+            case STMT_FUNCTION:
+                return function();
+
+            case STMT_IF: {
+                Expr condition = requireExpr();
+                Stmt thenBranch = readStmt();
+                Stmt elseBranch = readStmt();
+                return new Stmt.If(condition, thenBranch, elseBranch);
+            }
+
+            case STMT_PRINT:
+                return new Stmt.Print(requireExpr());
+
+            case STMT_RETURN: {
+                Token keyword = token();
+                return new Stmt.Return(keyword, readExpr());
+            }
+
+            case STMT_VAR: {
+                Token name = token();
+                return new Stmt.Var(name, readExpr());
+            }
+
+            case STMT_WHILE: {
+                Expr condition = requireExpr();
+                return new Stmt.While(condition, readStmt());
+            }
+        }
+
+        // anything else is not a statement in this format revision
+        throw corrupt("unknown statement tag " + tag);
+    }
+
+    // expressions that the grammar never leaves empty
+    private Expr requireExpr() throws IOException {
+        Expr expr = readExpr();
+        if (expr == null) throw corrupt("missing expression");
+        return expr;
+    }
+
+    private Expr readExpr() throws IOException {
+        int tag = in.readUnsignedByte();
+
+        switch (tag) {
+            case TAG_NULL: return null;
+
+            case EXPR_ASSIGN: {
+                Token name = token();
+                Expr value = requireExpr();
+                return resolved(new Expr.Assign(name, value));
+            }
+
+            case EXPR_BINARY: {
+                Expr left = requireExpr();
+                Token operator = token();
+                return new Expr.Binary(left, operator, requireExpr());
+            }
+
+            case EXPR_CALL: {
+                Expr callee = requireExpr();
+                Token paren = token();
+                int count = count();
+                List<Expr> arguments = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) arguments.add(requireExpr());
+                return new Expr.Call(callee, paren, arguments);
+            }
+
+            case EXPR_GET: {
+                Expr object = requireExpr();
+                return new Expr.Get(object, token());
+            }
+
+            case EXPR_GROUPING:
+                return new Expr.Grouping(requireExpr());
+
+            case EXPR_INDEX: {
+                Expr object = requireExpr();
+                Token bracket = token();
+                return new Expr.Index(object, bracket, requireExpr());
+            }
+
+            case EXPR_INDEX_SET: {
+                Expr object = requireExpr();
+                Token bracket = token();
+                Expr index = requireExpr();
+                return new Expr.IndexSet(object, bracket, index, requireExpr());
+            }
+
+            case EXPR_LITERAL: {
+                int kind = in.readUnsignedByte();
+                if (kind == LITERAL_NIL) return new Expr.Literal(null);
+                if (kind == LITERAL_TRUE) return new Expr.Literal(true);
+                if (kind == LITERAL_FALSE) return new Expr.Literal(false);
+                if (kind == LITERAL_CONST) return new Expr.Literal(constant());
+                throw corrupt("unknown literal kind " + kind);
+            }
+
+            case EXPR_LOGICAL: {
+                Expr left = requireExpr();
+                Token operator = token();
+                return new Expr.Logical(left, operator, requireExpr());
+            }
+
+            case EXPR_SET: {
+                Expr object = requireExpr();
+                Token name = token();
+                return new Expr.Set(object, name, requireExpr());
+            }
+
+            case EXPR_SUPER: {
+                Token keyword = token();
+                Token method = token();
+                return resolved(new Expr.Super(keyword, method));
+            }
+
+            case EXPR_THIS:
+                return resolved(new Expr.This(token()));
+
+            case EXPR_UNARY: {
+                Token operator = token();
+                return new Expr.Unary(operator, requireExpr());
+            }
+
+            case EXPR_VARIABLE:
+                return resolved(new Expr.Variable(token()));
+        }
+
+        // anything else is not an expression in this format revision
+        throw corrupt("unknown expression tag " + tag);
+    }
+
+    // build a verification failure
+    private static FormatError corrupt(String reason) {
+        return new FormatError("Corrupt .loxc artifact: " + reason + ".");
+    }
+}
@@ -0,0 +1,508 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Precompiled Lox artifacts (.loxc) - serialize a resolved syntax tree
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// write a scanned, parsed and resolved program to the portable .loxc format
+    // layout:  header  -> magic "LOXC", u2 major, u2 minor, u4 payload length, u4 payload crc32
+    //          payload -> string table, constant pool, line table (tokens), function prototypes, top-level code
+class LoxcWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    // file identification and format revision, bump major on incompatible layout changes
+    static final byte[] MAGIC = { 'L', 'O', 'X', 'C' };
+    static final int MAJOR_VERSION = 1;
+    static final int MINOR_VERSION = 1;
+
+    // node tags shared with the reader - order is part of the format
+    static final int TAG_NULL = 0;
+
+    static final int EXPR_ASSIGN   = 1;
+    static final int EXPR_BINARY   = 2;
+    static final int EXPR_CALL     = 3;
+    static final int EXPR_GET      = 4;
+    static final int EXPR_GROUPING = 5;
+    static final int EXPR_LITERAL  = 6;
+    static final int EXPR_LOGICAL  = 7;
+    static final int EXPR_SET      = 8;
+    static final int EXPR_SUPER    = 9;
+    static final int EXPR_THIS     = 10;
+    static final int EXPR_UNARY    = 11;
+    static final int EXPR_VARIABLE = 12;
+    // added in 1.1 - subscript access, older readers reject them as unknown tags
+    static final int EXPR_INDEX     = 13;
+    static final int EXPR_INDEX_SET = 14;
+
+    static final int STMT_BLOCK      = 32;
+    static final int STMT_CLASS      = 33;
+    static final int STMT_EXPRESSION = 34;
+    static final int STMT_FUNCTION   = 35;
+    static final int STMT_IF         = 36;
+    static final int STMT_PRINT      = 37;
+    static final int STMT_RETURN     = 38;
+    static final int STMT_VAR        = 39;
+    static final int STMT_WHILE      = 40;
+
+    // literal kinds, constants stored in pool only when they carry data
+    static final int LITERAL_NIL    = 0;
+    static final int LITERAL_TRUE   = 1;
+    static final int LITERAL_FALSE  = 2;
+    static final int LITERAL_CONST  = 3;
+
+    // constant pool entry kinds
+    static final int CONST_NUMBER = 1;
+    static final int CONST_STRING = 2;
+
+    // depth marker for variables resolved to the global scope
+    static final int GLOBAL_DEPTH = -1;
+
+    // resolution information lives in the interpreter that resolved the program
+    private final Interpreter interpreter;
+
+    // deduplicated tables collected while walking the tree
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIndex = new HashMap<>();
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+    private final List<Token> tokens = new ArrayList<>();
+    private final Map<Token, Integer> tokenIndex = new IdentityHashMap<>();
+    private final List<Stmt.Function> functions = new ArrayList<>();
+    private final Map<Stmt.Function, Integer> functionIndex = new IdentityHashMap<>();
+
+    // node stream for the tree currently being written
+    private DataOutputStream code;
+
+    LoxcWriter(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    // serialize the given top-level statements to an output stream
+    void write(List<Stmt> statements, OutputStream out) throws IOException {
+        // collect every function body first so prototypes can reference one another by index
+        ByteArrayOutputStream prototypeBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream topLevelBytes = new ByteArrayOutputStream();
+
+        try {
+            // top-level code registers functions as it is walked
+            code = new DataOutputStream(topLevelBytes);
+            writeStatements(statements);
+
+            // prototype bodies may discover nested functions, table grows while iterating
+            code = new DataOutputStream(prototypeBytes);
+            for (int i = 0; i < functions.size(); i++) {
+                Stmt.Function function = functions.get(i);
+                // intern signature tokens now, headers are written ahead of all bodies
+                internToken(function.name);
+                for (Token param : function.params) internToken(param);
+                writeStatements(function.body);
+            }
+        }
+        // unwrap failures tunneled through the visitor methods
+        catch (UncheckedIOException error) {
+            throw error.getCause();
+        }
+
+        // assemble payload with tables preceding the code that references them
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+
+        // string table
+        payload.writeInt(strings.size());
+        for (String string : strings) {
+            // length-prefixed utf-8, string literals may exceed writeUTF's 64k limit
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            payload.writeInt(bytes.length);
+            payload.write(bytes);
+        }
+
+        // constant pool
+        payload.writeInt(constants.size());
+        for (Object constant : constants) {
+            if (constant instanceof Double) {
+                payload.writeByte(CONST_NUMBER);
+                payload.writeDouble((Double)constant);
+            }
+            else {
+                payload.writeByte(CONST_STRING);
+                payload.writeInt(stringIndex.get((String)constant));
+            }
+        }
+
+        // line table - every token keeps its type, lexeme and source line for error reporting
+        payload.writeInt(tokens.size());
+        for (Token token : tokens) {
+            payload.writeInt(stringIndex.get(token.type.name()));
+            payload.writeInt(stringIndex.get(token.lexeme));
+            payload.writeInt(token.line);
+        }
+
+        // function prototypes - every signature first so bodies can reference any function
+        payload.writeInt(functions.size());
+        for (Stmt.Function function : functions) {
+            payload.writeInt(tokenIndex.get(function.name));
+            payload.writeShort(function.params.size());
+            for (Token param : function.params) payload.writeInt(tokenIndex.get(param));
+        }
+        // prototype bodies in table order, then top-level code
+        prototypeBytes.writeTo(payload);
+        topLevelBytes.writeTo(payload);
+        payload.flush();
+
+        // checksum guards against truncated or corrupted artifacts
+        byte[] body = payloadBytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+
+        // header then payload
+        DataOutputStream header = new DataOutputStream(out);
+        header.write(MAGIC);
+        header.writeShort(MAJOR_VERSION);
+        header.writeShort(MINOR_VERSION);
+        header.writeInt(body.length);
+        header.writeInt((int)crc.getValue());
+        header.write(body);
+        header.flush();
+    }
+
+    // ##### table helpers #####
+
+    // intern a string and pass its index to caller
+    private int string(String value) {
+        Integer index = stringIndex.get(value);
+        if (index != null) return index;
+
+        strings.add(value);
+        stringIndex.put(value, strings.size() - 1);
+        return strings.size() - 1;
+    }
+
+    // intern a literal number or string in the constant pool
+    private int constant(Object value) {
+        Integer index = constantIndex.get(value);
+        if (index != null) return index;
+
+        // strings are stored once in the string table and referenced from the pool
+        if (value instanceof String) string((String)value);
+
+        constants.add(value);
+        constantIndex.put(value, constants.size() - 1);
+        return constants.size() - 1;
+    }
+
+    // reference a token through the line table
+    private void writeToken(Token token) throws IOException {
+        code.writeInt(internToken(token));
+    }
+
+    // add a token to the line table and pass its index to caller
+    private int internToken(Token token) {
+        Integer index = tokenIndex.get(token);
+        if (index == null) {
+            // intern the strings the token table will need
+            string(token.type.name());
+            string(token.lexeme);
+
+            tokens.add(token);
+            index = tokens.size() - 1;
+            tokenIndex.put(token, index);
+        }
+        return index;
+    }
+
+    // register a function prototype and reference it by index
+    private void writeFunction(Stmt.Function function) throws IOException {
+        Integer index = functionIndex.get(function);
+        if (index == null) {
+            functions.add(function);
+            index = functions.size() - 1;
+            functionIndex.put(function, index);
+        }
+        code.writeInt(index);
+    }
+
+    // store resolved scope distance for a variable-like expression
+    private void writeDepth(Expr expr) throws IOException {
+        Integer depth = interpreter.resolvedDepth(expr);
+        code.writeInt(depth == null ? GLOBAL_DEPTH : depth);
+    }
+
+    private void writeStatements(List<Stmt> statements) throws IOException {
+        code.writeInt(statements.size());
+        for (Stmt statement : statements) writeStmt(statement);
+    }
+
+    private void writeStmt(Stmt stmt) throws IOException {
+        // optional branches are written as an explicit null tag
+        if (stmt == null) {
+            code.writeByte(TAG_NULL);
+            return;
+        }
+        stmt.accept(this);
+    }
+
+    private void writeExpr(Expr expr) throws IOException {
+        if (expr == null) {
+            code.writeByte(TAG_NULL);
+            return;
+        }
+        expr.accept(this);
+    }
+
+    // visitor methods cannot throw checked exceptions, tunnel them out
+    private Void emit(IORunnable body) {
+        try {
+            body.run();
+        }
+        catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+        return null;
+    }
+
+    // body of a single node write
+    private interface IORunnable {
+        void run() throws IOException;
+    }
+
+    // ##### statements #####
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        return emit(() -> {
+            code.writeByte(STMT_BLOCK);
+            writeStatements(stmt.statements);
+        });
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        return emit(() -> {
+            code.writeByte(STMT_CLASS);
+            writeToken(stmt.name);
+            writeExpr(stmt.superclass);
+            code.writeInt(stmt.methods.size());
+            for (Stmt.Function method : stmt.methods) writeFunction(method);
+        });
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        return emit(() -> {
+            code.writeByte(STMT_EXPRESSION);
+            writeExpr(stmt.expression);
+        });
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        return emit(() -> {
+            code.writeByte(STMT_FUNCTION);
+            writeFunction(stmt);
+        });
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        return emit(() -> {
+            code.writeByte(STMT_IF);
+            writeExpr(stmt.condition);
+            writeStmt(stmt.thenBranch);
+            writeStmt(stmt.elseBranch);
+        });
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        return emit(() -> {
+            code.writeByte(STMT_PRINT);
+            writeExpr(stmt.expression);
+        });
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        return emit(() -> {
+            code.writeByte(STMT_RETURN);
+            writeToken(stmt.keyword);
+            writeExpr(stmt.value);
+        });
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        return emit(() -> {
+            code.writeByte(STMT_VAR);
+            writeToken(stmt.name);
+            writeExpr(stmt.initializer);
+        });
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        return emit(() -> {
+            code.writeByte(STMT_WHILE);
+            writeExpr(stmt.condition);
+            writeStmt(stmt.body);
+        });
+    }
+
+    // ##### expressions #####
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        return emit(() -> {
+            code.writeByte(EXPR_ASSIGN);
+            writeToken(expr.name);
+            writeExpr(expr.value);
+            writeDepth(expr);
+        });
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        return emit(() -> {
+            code.writeByte(EXPR_BINARY);
+            writeExpr(expr.left);
+            writeToken(expr.operator);
+            writeExpr(expr.right);
+        });
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        return emit(() -> {
+            code.writeByte(EXPR_CALL);
+            writeExpr(expr.callee);
+            writeToken(expr.paren);
+            code.writeInt(expr.arguments.size());
+            for (Expr argument : expr.arguments) writeExpr(argument);
+        });
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        return emit(() -> {
+            code.writeByte(EXPR_GET);
+            writeExpr(expr.object);
+            writeToken(expr.name);
+        });
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        return emit(() -> {
+            code.writeByte(EXPR_GROUPING);
+            writeExpr(expr.expression);
+        });
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        return emit(() -> {
+            code.writeByte(EXPR_INDEX);
+            writeExpr(expr.object);
+            writeToken(expr.bracket);
+            writeExpr(expr.index);
+        });
+    }
+
+    @Override
+    public Void visitIndexSetExpr(Expr.IndexSet expr) {
+        return emit(() -> {
+            code.writeByte(EXPR_INDEX_SET);
+            writeExpr(expr.object);
+            writeToken(expr.bracket);
+            writeExpr(expr.index);
+            writeExpr(expr.value);
+        });
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return emit(() -> {
+            code.writeByte(EXPR_LITERAL);
+            // small literal kinds need no pool entry
+            if (expr.value == null) code.writeByte(LITERAL_NIL);
+            else if (expr.value.equals(Boolean.TRUE)) code.writeByte(LITERAL_TRUE);
+            else if (expr.value.equals(Boolean.FALSE)) code.writeByte(LITERAL_FALSE);
+            else {
+                code.writeByte(LITERAL_CONST);
+                code.writeInt(constant(expr.value));
+            }
+        });
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        return emit(() -> {
+            code.writeByte(EXPR_LOGICAL);
+            writeExpr(expr.left);
+            writeToken(expr.operator);
+            writeExpr(expr.right);
+        });
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        return emit(() -> {
+            code.writeByte(EXPR_SET);
+            writeExpr(expr.object);
+            writeToken(expr.name);
+            writeExpr(expr.value);
+        });
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        return emit(() -> {
+            code.writeByte(EXPR_SUPER);
+            writeToken(expr.keyword);
+            writeToken(expr.method);
+            writeDepth(expr);
+        });
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        return emit(() -> {
+            code.writeByte(EXPR_THIS);
+            writeToken(expr.keyword);
+            writeDepth(expr);
+        });
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        return emit(() -> {
+            code.writeByte(EXPR_UNARY);
+            writeToken(expr.operator);
+            writeExpr(expr.right);
+        });
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        return emit(() -> {
+            code.writeByte(EXPR_VARIABLE);
+            writeToken(expr.name);
+            writeDepth(expr);
+        });
+    }
+}
@@ -25,9 +25,13 @@ class Parser {
     // for token traversal
     private int current = 0;
 
+    // isolate receiving parse errors
+    private final LoxRuntime runtime;
+
     // assign list at creation
-    Parser(List<Token> tokens) {
+    Parser(List<Token> tokens, LoxRuntime runtime) {
         this.tokens = tokens;
+        this.runtime = runtime;
     }
 
     // library method for class functionality
@@ -312,6 +316,13 @@ class Parser {
                 // call setter using getter as recipient
                 return new Expr.Set(get.object, get.name, value);
             }
+            // check for element assignment, a[i] = value
+            else if (expr instanceof Expr.Index) {
+                // cast left-side expression as an element read
+                Expr.Index index = (Expr.Index)expr;
+                // store through the same object and index
+                return new Expr.IndexSet(index.object, index.bracket, index.index, value);
+            }
 
             // produce error on incorrect request
             error(equals, "Invalid assignment target.");
@@ -537,7 +548,7 @@ class Parser {
         return new Expr.Call(callee, paren, arguments);
     }
 
-    // call     -> primary ( "(" arguments? ")" )*
+    // call     -> primary ( "(" arguments? ")" | "." IDENTIFIER | "[" expression "]" )*
     private Expr call() {
         // evaluate callee expression as primary, call -> primary
         Expr expr = primary();
@@ -557,6 +568,15 @@ class Parser {
                 // use method name for expression parsing
                 expr = new Expr.Get(expr, name);
             }
+            // check for element access
+            else if (match(LEFT_BRACKET)) {
+                // any expression may compute the index
+                Expr index = expression();
+                // require close bracket, kept for error location
+                Token bracket = consume(RIGHT_BRACKET,
+                    "Expect ']' after index.");
+                expr = new Expr.Index(expr, bracket, index);
+            }
 
             // no call, exit kleene loop
             else break;
@@ -683,8 +703,8 @@ class Parser {
 
     // report errors in parsing phase
     private ParseError error(Token token, String message) {
-        // pass error to main entry point
-        Lox.error(token, message);
+        // pass error to owning runtime
+        runtime.error(token, message);
         // send to caller
         return new ParseError();
     }
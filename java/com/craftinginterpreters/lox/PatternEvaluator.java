@@ -0,0 +1,367 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Pattern-matching evaluator - tree walker over the sealed records
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// runs SealedStmt/SealedExpr trees with type tests instead of accept and visit calls
+    // one method per tree, a chain of instanceof patterns over the sealed records, most
+    // frequent node types first, so HotSpot sees a few class checks in one frame instead of
+    // a megamorphic accept followed by a virtual visit
+    // the chain becomes a pattern switch once the build targets Java 21, it is preview in 17
+    // semantics and messages follow Interpreter, operators share LoxOps with compiled code
+    // functions and classes are its own, globals and natives come from the host interpreter
+    // single-threaded, spawn and the parallel natives need the interpreter's own functions
+    // it exists to compare dispatch costs, see DispatchBenchmark
+class PatternEvaluator {
+
+    // globals, natives and output
+    private final Interpreter host;
+    private final Environment globals;
+    // resolver distances of the lowered tree
+    private final Map<SealedExpr, Integer> locals;
+    private Environment environment;
+
+    PatternEvaluator(Interpreter host, Map<SealedExpr, Integer> locals) {
+        this.host = host;
+        this.globals = host.globals;
+        this.locals = locals;
+        this.environment = globals;
+    }
+
+    void interpret(List<SealedStmt> statements) {
+        try {
+            for (SealedStmt statement : statements) execute(statement);
+        }
+        catch (RuntimeError error) {
+            host.runtime.runtimeError(error);
+        }
+    }
+
+    // ##### statements #####
+
+    private void execute(SealedStmt stmt) {
+        if (stmt instanceof SealedStmt.Expression s) {
+            evaluate(s.expression());
+        }
+        else if (stmt instanceof SealedStmt.If s) {
+            if (LoxOps.isTruthy(evaluate(s.condition()))) execute(s.thenBranch());
+            else if (s.elseBranch() != null) execute(s.elseBranch());
+        }
+        else if (stmt instanceof SealedStmt.Block s) {
+            executeBlock(s.statements(), new Environment(environment));
+        }
+        else if (stmt instanceof SealedStmt.Var s) {
+            Object value = Environment.UNINITIALIZED;
+            if (s.initializer() != null) value = evaluate(s.initializer());
+            environment.define(s.name().lexeme, value);
+        }
+        else if (stmt instanceof SealedStmt.Return s) {
+            throw new Return(s.value() == null ? null : evaluate(s.value()));
+        }
+        else if (stmt instanceof SealedStmt.While s) {
+            while (LoxOps.isTruthy(evaluate(s.condition()))) execute(s.body());
+        }
+        else if (stmt instanceof SealedStmt.Print s) {
+            host.runtime.out.println(Interpreter.stringify(evaluate(s.expression())));
+        }
+        else if (stmt instanceof SealedStmt.Function s) {
+            environment.define(s.name().lexeme, new Closure(s, environment, false));
+        }
+        else if (stmt instanceof SealedStmt.Class s) {
+            declareClass(s);
+        }
+        else {
+            throw new IllegalStateException("Unknown statement " + stmt);
+        }
+    }
+
+    private void executeBlock(List<SealedStmt> statements, Environment scope) {
+        Environment previous = environment;
+        try {
+            environment = scope;
+            for (SealedStmt statement : statements) execute(statement);
+        }
+        finally {
+            environment = previous;
+        }
+    }
+
+    private void declareClass(SealedStmt.Class stmt) {
+        Klass superclass = null;
+        if (stmt.superclass() != null) {
+            Object value = evaluate(stmt.superclass());
+            if (!(value instanceof Klass)) {
+                throw new RuntimeError(stmt.superclass().name(), "Superclass must be a class.");
+            }
+            superclass = (Klass)value;
+        }
+
+        environment.define(stmt.name().lexeme, null);
+        Environment enclosing = environment;
+        if (superclass != null) {
+            environment = new Environment(environment);
+            environment.define("super", superclass);
+        }
+
+        Map<String, Closure> methods = new HashMap<>();
+        for (SealedStmt.Function method : stmt.methods()) {
+            methods.put(method.name().lexeme, new Closure(method, environment,
+                method.name().lexeme.equals("init")));
+        }
+
+        Klass klass = new Klass(stmt.name().lexeme, superclass, methods);
+        environment = enclosing;
+        environment.assign(stmt.name(), klass);
+    }
+
+    // ##### expressions #####
+
+    private Object evaluate(SealedExpr expr) {
+        if (expr instanceof SealedExpr.Variable e) {
+            return lookUp(expr, e.name());
+        }
+        if (expr instanceof SealedExpr.Literal e) {
+            return e.value();
+        }
+        if (expr instanceof SealedExpr.Binary e) {
+            return binary(e);
+        }
+        if (expr instanceof SealedExpr.Assign e) {
+            Object value = evaluate(e.value());
+            Integer distance = locals.get(expr);
+            if (distance != null) environment.assignAt(distance, e.name(), value);
+            else globals.assign(e.name(), value);
+            return value;
+        }
+        if (expr instanceof SealedExpr.Call e) {
+            return call(e);
+        }
+        if (expr instanceof SealedExpr.Get e) {
+            Object object = evaluate(e.object());
+            if (object instanceof Instance) return ((Instance)object).get(e.name());
+            return LoxOps.get(object, e.name());
+        }
+        if (expr instanceof SealedExpr.Logical e) {
+            Object left = evaluate(e.left());
+            if (e.operator().type == TokenType.OR) {
+                if (LoxOps.isTruthy(left)) return left;
+            }
+            else if (!LoxOps.isTruthy(left)) {
+                return left;
+            }
+            return evaluate(e.right());
+        }
+        if (expr instanceof SealedExpr.Unary e) {
+            Object right = evaluate(e.right());
+            if (e.operator().type == TokenType.BANG) return !LoxOps.isTruthy(right);
+            return LoxOps.negate(right, e.operator());
+        }
+        if (expr instanceof SealedExpr.Grouping e) {
+            return evaluate(e.expression());
+        }
+        if (expr instanceof SealedExpr.Set e) {
+            Object object = evaluate(e.object());
+            if (!(object instanceof Instance)) {
+                throw new RuntimeError(e.name(), "Only instances have fields.");
+            }
+            Object value = evaluate(e.value());
+            ((Instance)object).fields.put(e.name().lexeme, value);
+            return value;
+        }
+        if (expr instanceof SealedExpr.Index e) {
+            return LoxOps.index(evaluate(e.object()), evaluate(e.index()), e.bracket());
+        }
+        if (expr instanceof SealedExpr.IndexSet e) {
+            Object object = evaluate(e.object());
+            Object index = evaluate(e.index());
+            LoxOps.indexable(object, index, e.bracket());
+            return LoxOps.indexSet(object, index, evaluate(e.value()), e.bracket());
+        }
+        if (expr instanceof SealedExpr.This e) {
+            return lookUp(expr, e.keyword());
+        }
+        if (expr instanceof SealedExpr.Super e) {
+            int distance = locals.get(expr);
+            Klass superclass = (Klass)environment.getAt(distance, "super");
+            Instance object = (Instance)environment.getAt(distance - 1, "this");
+            Closure method = superclass.findMethod(e.method().lexeme);
+            if (method == null) {
+                throw new RuntimeError(e.method(),
+                    "Undefined property '" + e.method().lexeme + "'.");
+            }
+            return method.bind(object);
+        }
+        throw new IllegalStateException("Unknown expression " + expr);
+    }
+
+    private Object lookUp(SealedExpr expr, Token name) {
+        Integer distance = locals.get(expr);
+        if (distance != null) return environment.getAt(distance, name.lexeme);
+        return globals.get(name);
+    }
+
+    private Object binary(SealedExpr.Binary expr) {
+        Object left = evaluate(expr.left());
+        Object right = evaluate(expr.right());
+        Token operator = expr.operator();
+
+        switch (operator.type) {
+            case PLUS: return LoxOps.add(left, right, operator);
+            case MINUS: return LoxOps.subtract(left, right, operator);
+            case STAR: return LoxOps.multiply(left, right, operator);
+            case SLASH: return LoxOps.divide(left, right, operator);
+            case GREATER: return LoxOps.greater(left, right, operator);
+            case GREATER_EQUAL: return LoxOps.greaterEqual(left, right, operator);
+            case LESS: return LoxOps.less(left, right, operator);
+            case LESS_EQUAL: return LoxOps.lessEqual(left, right, operator);
+            case EQUAL_EQUAL: return LoxOps.isEqual(left, right);
+            case BANG_EQUAL: return !LoxOps.isEqual(left, right);
+            default: throw new IllegalStateException("Unknown operator " + operator.type);
+        }
+    }
+
+    private Object call(SealedExpr.Call expr) {
+        Object callee = evaluate(expr.callee());
+        List<Object> arguments = new ArrayList<>(expr.arguments().size());
+        for (SealedExpr argument : expr.arguments()) arguments.add(evaluate(argument));
+
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(expr.paren(), "Can only call functions and classes.");
+        }
+        LoxCallable function = (LoxCallable)callee;
+        if (arguments.size() != function.arity()) {
+            throw new RuntimeError(expr.paren(), "Expected " +
+                function.arity() + " arguments but got " +
+                arguments.size() + ".");
+        }
+
+        try {
+            return function.call(host, arguments);
+        }
+        // natives report failures without a token, attach the call site
+        catch (LoxNative.NativeError error) {
+            throw new RuntimeError(expr.paren(), error.getMessage());
+        }
+    }
+
+    // ##### runtime objects #####
+
+    // a function declared in a lowered tree, with the environment it closes over
+    private class Closure implements LoxCallable {
+        final SealedStmt.Function declaration;
+        final Environment closure;
+        final boolean isInitializer;
+
+        Closure(SealedStmt.Function declaration, Environment closure, boolean isInitializer) {
+            this.declaration = declaration;
+            this.closure = closure;
+            this.isInitializer = isInitializer;
+        }
+
+        Closure bind(Instance instance) {
+            Environment environment = new Environment(closure);
+            environment.define("this", instance);
+            return new Closure(declaration, environment, isInitializer);
+        }
+
+        @Override
+        public int arity() {
+            return declaration.params().size();
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            Environment scope = new Environment(closure);
+            for (int i = 0; i < declaration.params().size(); i++) {
+                scope.define(declaration.params().get(i).lexeme, arguments.get(i));
+            }
+
+            try {
+                executeBlock(declaration.body(), scope);
+            }
+            catch (Return value) {
+                if (isInitializer) return closure.getAt(0, "this");
+                return value.value;
+            }
+            if (isInitializer) return closure.getAt(0, "this");
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return "<fn " + declaration.name().lexeme + ">";
+        }
+    }
+
+    // a class declared in a lowered tree
+    private class Klass implements LoxCallable {
+        final String name;
+        final Klass superclass;
+        final Map<String, Closure> methods;
+
+        Klass(String name, Klass superclass, Map<String, Closure> methods) {
+            this.name = name;
+            this.superclass = superclass;
+            this.methods = methods;
+        }
+
+        Closure findMethod(String name) {
+            Closure method = methods.get(name);
+            if (method == null && superclass != null) return superclass.findMethod(name);
+            return method;
+        }
+
+        @Override
+        public int arity() {
+            Closure initializer = findMethod("init");
+            return initializer == null ? 0 : initializer.arity();
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            Instance instance = new Instance(this);
+            Closure initializer = findMethod("init");
+            if (initializer != null) initializer.bind(instance).call(interpreter, arguments);
+            return instance;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private class Instance {
+        final Klass klass;
+        final Map<String, Object> fields = new HashMap<>();
+
+        Instance(Klass klass) {
+            this.klass = klass;
+        }
+
+        Object get(Token name) {
+            // fields may hold nil, so check the key rather than the value
+            if (fields.containsKey(name.lexeme)) return fields.get(name.lexeme);
+
+            Closure method = klass.findMethod(name.lexeme);
+            if (method != null) return method.bind(this);
+
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+
+        @Override
+        public String toString() {
+            return klass.name + " instance";
+        }
+    }
+}
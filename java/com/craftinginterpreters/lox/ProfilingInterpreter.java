@@ -0,0 +1,376 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Node profiler - execution counts and self time per statement
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// interpreter whose statement and call visits count themselves into their node's counter slot
+    // the counting lives in overrides of this subclass, the plain Interpreter never checks for
+    // it, LoxRuntime picks this class instead when -Dlox.hotspots=N is set
+    // self time is a node's time minus the time of the profiled nodes it ran, a call's self
+    // time is its argument evaluation and dispatch, the callee's statements count for themselves
+    // every function stays on the tree walker in this mode, compiled code has no nodes to count
+    // at exit the N statements and calls with the most self time are printed with their line,
+    // then the self time of each function, whose calls are the runs of its first statement
+class ProfilingInterpreter extends Interpreter {
+
+    static final int TOP = Integer.getInteger("lox.hotspots", 0);
+    static final boolean ENABLED = TOP > 0;
+
+    // what a profiled node has done, shared by every interpreter running it
+    static final class Counter {
+        final LongAdder count = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+    }
+
+    // programs run by the runtime's interpreter, the report walks them
+    private final List<List<Stmt>> programs;
+
+    // time of the profiled nodes run inside each node still running on this stack
+    private long[] children = new long[64];
+    private int depth = 0;
+
+    ProfilingInterpreter(LoxRuntime runtime) {
+        super(runtime);
+        this.programs = new ArrayList<>();
+    }
+
+    // spawned tasks profile into the same nodes on a stack of their own
+    private ProfilingInterpreter(ProfilingInterpreter parent) {
+        super(parent);
+        this.programs = parent.programs;
+    }
+
+    @Override
+    Interpreter fork() {
+        return new ProfilingInterpreter(this);
+    }
+
+    @Override
+    void interpret(List<Stmt> statements) {
+        synchronized (programs) {
+            programs.add(statements);
+        }
+        super.interpret(statements);
+    }
+
+    // ##### counting #####
+
+    // a profiled node starts, pass its start time
+    private long enter() {
+        if (depth == children.length) children = Arrays.copyOf(children, depth * 2);
+        children[depth++] = 0;
+        return System.nanoTime();
+    }
+
+    // the node finished, normally or by an exception, charge its self time to its counter
+    private void exit(Counter counter, long start) {
+        long elapsed = System.nanoTime() - start;
+        long inner = children[--depth];
+        if (depth > 0) children[depth - 1] += elapsed;
+        counter.count.increment();
+        counter.nanos.add(elapsed - inner);
+    }
+
+    // counter slot of a statement, created on its first run
+    private static Counter counter(Stmt stmt) {
+        Counter counter = stmt.counter();
+        if (counter != null) return counter;
+        synchronized (stmt) {
+            if (stmt.counter() == null) stmt.setCounter(new Counter());
+            return stmt.counter();
+        }
+    }
+
+    private static Counter counter(Expr.Call expr) {
+        Counter counter = expr.counter();
+        if (counter != null) return counter;
+        synchronized (expr) {
+            if (expr.counter() == null) expr.setCounter(new Counter());
+            return expr.counter();
+        }
+    }
+
+    @Override
+    public Object visitCallExpr(Expr.Call expr) {
+        long start = enter();
+        try {
+            return super.visitCallExpr(expr);
+        }
+        finally {
+            exit(counter(expr), start);
+        }
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        long start = enter();
+        try {
+            return super.visitBlockStmt(stmt);
+        }
+        finally {
+            exit(counter(stmt), start);
+        }
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        long start = enter();
+        try {
+            return super.visitClassStmt(stmt);
+        }
+        finally {
+            exit(counter(stmt), start);
+        }
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        long start = enter();
+        try {
+            return super.visitExpressionStmt(stmt);
+        }
+        finally {
+            exit(counter(stmt), start);
+        }
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        long start = enter();
+        try {
+            return super.visitFunctionStmt(stmt);
+        }
+        finally {
+            exit(counter(stmt), start);
+        }
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        long start = enter();
+        try {
+            return super.visitIfStmt(stmt);
+        }
+        finally {
+            exit(counter(stmt), start);
+        }
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        long start = enter();
+        try {
+            return super.visitPrintStmt(stmt);
+        }
+        finally {
+            exit(counter(stmt), start);
+        }
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        long start = enter();
+        try {
+            return super.visitReturnStmt(stmt);
+        }
+        finally {
+            exit(counter(stmt), start);
+        }
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        long start = enter();
+        try {
+            return super.visitVarStmt(stmt);
+        }
+        finally {
+            exit(counter(stmt), start);
+        }
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        long start = enter();
+        try {
+            return super.visitWhileStmt(stmt);
+        }
+        finally {
+            exit(counter(stmt), start);
+        }
+    }
+
+    // ##### report #####
+
+    // one profiled node that ran
+    private static final class Hotspot {
+        final String kind;
+        final int line;
+        final long count;
+        final long nanos;
+
+        Hotspot(String kind, int line, Counter counter) {
+            this.kind = kind;
+            this.line = line;
+            this.count = counter.count.sum();
+            this.nanos = counter.nanos.sum();
+        }
+    }
+
+    // self time of the statements in one function's body
+    private static final class FunctionTotal {
+        final String name;
+        long calls = 0;
+        long nanos = 0;
+
+        FunctionTotal(String name) {
+            this.name = name;
+        }
+    }
+
+    // collects the nodes that ran and charges each to its innermost function
+    private static class Collector extends AstWalker {
+        final List<Hotspot> hotspots = new ArrayList<>();
+        final Map<Object, FunctionTotal> functions = new LinkedHashMap<>();
+        // function bodies being walked, the script at the bottom
+        private final Deque<FunctionTotal> enclosing = new ArrayDeque<>();
+        private String className;
+
+        Collector() {
+            enclosing.push(total("<script>", "<script>"));
+        }
+
+        private FunctionTotal total(Object key, String name) {
+            return functions.computeIfAbsent(key, k -> new FunctionTotal(name));
+        }
+
+        @Override
+        void walk(Stmt stmt) {
+            Counter counter = stmt.counter();
+            if (counter != null) {
+                Hotspot hotspot = new Hotspot(
+                    stmt.getClass().getSimpleName().toLowerCase(), line(stmt), counter);
+                hotspots.add(hotspot);
+                enclosing.peek().nanos += hotspot.nanos;
+            }
+            super.walk(stmt);
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            Counter counter = expr.counter();
+            if (counter != null) {
+                Hotspot hotspot = new Hotspot("call", expr.paren.line, counter);
+                hotspots.add(hotspot);
+                enclosing.peek().nanos += hotspot.nanos;
+            }
+            return super.visitCallExpr(expr);
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            String outer = className;
+            className = stmt.name.lexeme;
+            try {
+                return super.visitClassStmt(stmt);
+            }
+            finally {
+                className = outer;
+            }
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            // methods are walked straight from their class, nested functions reset the class
+            String name = (className != null ? className + "." : "") + stmt.name.lexeme +
+                " (line " + stmt.name.line + ")";
+            FunctionTotal function = total(stmt, name);
+            // every call runs the first statement of the body exactly once
+            if (!stmt.body.isEmpty() && stmt.body.get(0).counter() != null) {
+                function.calls = stmt.body.get(0).counter().count.sum();
+            }
+
+            String outer = className;
+            className = null;
+            enclosing.push(function);
+            try {
+                walk(stmt.body);
+            }
+            finally {
+                enclosing.pop();
+                className = outer;
+            }
+            return null;
+        }
+    }
+
+    // line of a statement, from its own token or the expression it starts with
+    private static int line(Stmt stmt) {
+        if (stmt instanceof Stmt.Class) return ((Stmt.Class)stmt).name.line;
+        if (stmt instanceof Stmt.Function) return ((Stmt.Function)stmt).name.line;
+        if (stmt instanceof Stmt.Var) return ((Stmt.Var)stmt).name.line;
+        if (stmt instanceof Stmt.Return) return ((Stmt.Return)stmt).keyword.line;
+        if (stmt instanceof Stmt.Expression) {
+            return JvmCompiler.line(((Stmt.Expression)stmt).expression, 0);
+        }
+        if (stmt instanceof Stmt.Print) return JvmCompiler.line(((Stmt.Print)stmt).expression, 0);
+        if (stmt instanceof Stmt.If) return JvmCompiler.line(((Stmt.If)stmt).condition, 0);
+        if (stmt instanceof Stmt.While) return JvmCompiler.line(((Stmt.While)stmt).condition, 0);
+        List<Stmt> statements = ((Stmt.Block)stmt).statements;
+        return statements.isEmpty() ? 0 : line(statements.get(0));
+    }
+
+    // top statements and calls by self time, then every function that ran
+    void report(PrintStream out, String file) {
+        Collector collector = new Collector();
+        synchronized (programs) {
+            for (List<Stmt> program : programs) collector.walk(program);
+            collector.functions.get("<script>").calls = programs.size();
+        }
+
+        List<Hotspot> hotspots = collector.hotspots;
+        long total = 0;
+        for (Hotspot hotspot : hotspots) total += hotspot.nanos;
+        hotspots.sort(Comparator.comparingLong((Hotspot hotspot) -> hotspot.nanos).reversed());
+
+        out.println("hot statements by self time, top " + Math.min(TOP, hotspots.size()) +
+            " of " + hotspots.size() + " that ran:");
+        out.printf("%12s %7s %12s  %s%n", "self ms", "%", "count", "location");
+        for (Hotspot hotspot : hotspots.subList(0, Math.min(TOP, hotspots.size()))) {
+            out.printf("%12.2f %6.1f%% %12d  %s:%d %s%n", hotspot.nanos / 1e6,
+                percent(hotspot.nanos, total), hotspot.count, file, hotspot.line, hotspot.kind);
+        }
+
+        List<FunctionTotal> functions = new ArrayList<>(collector.functions.values());
+        functions.removeIf(function -> function.nanos == 0);
+        functions.sort(Comparator.comparingLong((FunctionTotal function) -> function.nanos)
+            .reversed());
+
+        out.println("functions by self time:");
+        out.printf("%12s %7s %12s  %s%n", "self ms", "%", "calls", "function");
+        for (FunctionTotal function : functions) {
+            out.printf("%12.2f %6.1f%% %12d  %s%n", function.nanos / 1e6,
+                percent(function.nanos, total), function.calls, function.name);
+        }
+    }
+
+    private static double percent(long part, long total) {
+        return total == 0 ? 0 : 100.0 * part / total;
+    }
+}
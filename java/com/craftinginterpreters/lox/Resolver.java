@@ -124,7 +124,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         // check if declaration already made in current scope
         if (scope.containsKey(name.lexeme)) {
             // interpret action as error
-            Lox.error(name,
+            interpreter.runtime.error(name,
                 "Already a variable with this name in this scope.");
         }
         
@@ -193,7 +193,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         if (stmt.superclass != null &&
             stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
                 // raise error before runtime
-                Lox.error(stmt.superclass.name,
+                interpreter.runtime.error(stmt.superclass.name,
                     "A class can't inherit from itself.");
         }
 
@@ -303,7 +303,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         // check if current scope is not inside a function
         if (currentFunction == FunctionType.NONE) {
             // invalid 'return' usage
-            Lox.error(stmt.keyword, "Can't return from tope-level code.");
+            interpreter.runtime.error(stmt.keyword, "Can't return from tope-level code.");
         }
 
         // check for not void
@@ -311,7 +311,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             // check for constructor
             if (currentFunction == FunctionType.INITIALIZER) {
                 // disallow statements from constructors
-                Lox.error(stmt.keyword,
+                interpreter.runtime.error(stmt.keyword,
                     "Can't return a value from an initializer.");
             }
             
@@ -402,6 +402,27 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    // element read, resolve indexed object and index
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+
+        // no value produced
+        return null;
+    }
+
+    // element write, resolve all three parts
+    @Override
+    public Void visitIndexSetExpr(Expr.IndexSet expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        resolve(expr.value);
+
+        // no value produced
+        return null;
+    }
+
     // handle grouped expressions with variables
     @Override
     public Void visitGroupingExpr(Expr.Grouping expr) {
@@ -446,13 +467,13 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         // check for superclass access outside of a class
         if (currentClass == ClassType.NONE) {
             // invalid use, raise error
-            Lox.error(expr.keyword,
+            interpreter.runtime.error(expr.keyword,
                 "Can't use 'super' outside of a class.");
         }
         // check for use outside of a subclass
         else if (currentClass != ClassType.SUBCLASS) {
             // invalid use, raise error
-            Lox.error(expr.keyword,
+            interpreter.runtime.error(expr.keyword,
                 "Can't use 'super' in a class with no superclass");
         }
         
@@ -469,7 +490,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         // check for state not in class
         if (currentClass == ClassType.NONE) {
             // raise error for invalid state
-            Lox.error(expr.keyword,
+            interpreter.runtime.error(expr.keyword,
                 "Can't use 'this' outside of a class.");
             // exit call
             return null;
@@ -500,7 +521,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
 
             // raise error to prevent behavior
-            Lox.error(expr.name,
+            interpreter.runtime.error(expr.name,
                 "Can't read local variable in its own initializer");
         }
 
@@ -0,0 +1,202 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Persisted profiles - feedback carried from one run to the next
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// what one run learned about a program, saved with --profile-out and loaded with --profile-in
+    // nodes are named by their position in a preorder walk of the syntax tree, the file also
+    // names the source by hash, so a profile only ever applies to the exact same program
+    // a loaded profile seeds function and loop counts, hot code compiles on first use, gives
+    // the inliner call targets before any call has run, and keeps '+' nodes that concatenated
+    // last time from speculating on numbers
+    // the file is text, one record per line:
+    //     function <node> <heat> <deopts>
+    //     loop <node> <iterations>
+    //     call <node> <target node>=<calls> ...
+    //     concatenates <node>
+class RunProfile {
+
+    // first line of a profile file, bumped when records change meaning
+    private static final String HEADER = "lox-profile 1";
+
+    // hash of the program bytes
+    private final String source;
+    // every statement and expression, in preorder
+    private final List<Object> nodes = new ArrayList<>();
+    private final Map<Object, Integer> positions = new IdentityHashMap<>();
+
+    // single call target of each site in the loaded run
+    private final Map<Expr.Call, Stmt.Function> targets = new HashMap<>();
+    // '+' nodes that added strings, in the loaded run or this one
+    private final Set<Expr.Binary> concatenations = ConcurrentHashMap.newKeySet();
+
+    RunProfile(byte[] program, List<Stmt> statements) {
+        this.source = hash(program);
+        new AstWalker() {
+            @Override
+            void walk(Stmt stmt) {
+                number(stmt);
+                super.walk(stmt);
+            }
+
+            @Override
+            void walk(Expr expr) {
+                number(expr);
+                super.walk(expr);
+            }
+        }.walk(statements);
+    }
+
+    private void number(Object node) {
+        positions.put(node, nodes.size());
+        nodes.add(node);
+    }
+
+    // ##### feedback #####
+
+    void concatenated(Expr.Binary expr) {
+        concatenations.add(expr);
+    }
+
+    // true when the '+' has been seen adding strings
+    boolean concatenates(Expr.Binary expr) {
+        return concatenations.contains(expr);
+    }
+
+    // the function a call site called in the loaded run, null if none or several
+    Stmt.Function target(Expr.Call call) {
+        return targets.get(call);
+    }
+
+    // ##### files #####
+
+    // seed the interpreter from a saved profile, false when it belongs to another program
+    boolean load(Path file, Interpreter interpreter) throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        if (lines.size() < 2 || !lines.get(0).equals(HEADER)) {
+            throw new IOException("Not a Lox profile: " + file);
+        }
+        if (!lines.get(1).equals("source " + source)) return false;
+
+        for (int i = 2; i < lines.size(); i++) {
+            String[] fields = lines.get(i).split(" ");
+            try {
+                switch (fields[0]) {
+                    case "function":
+                        interpreter.jit.seed(node(fields[1], Stmt.Function.class),
+                            Integer.parseInt(fields[2]), Integer.parseInt(fields[3]));
+                        break;
+                    case "loop":
+                        interpreter.jit.seed(node(fields[1], Stmt.While.class),
+                            Integer.parseInt(fields[2]));
+                        break;
+                    case "call":
+                        // only a site with one target can be inlined
+                        if (fields.length == 3) {
+                            String target = fields[2].substring(0, fields[2].indexOf('='));
+                            targets.put(node(fields[1], Expr.Call.class),
+                                node(target, Stmt.Function.class));
+                        }
+                        break;
+                    case "concatenates":
+                        concatenations.add(node(fields[1], Expr.Binary.class));
+                        break;
+                    default:
+                        throw new IOException("Unknown record '" + fields[0] + "'");
+                }
+            }
+            catch (RuntimeException error) {
+                throw new IOException("Malformed profile line " + (i + 1) + ": " + lines.get(i));
+            }
+        }
+        return true;
+    }
+
+    // node at a position, checked against the kind the record expects
+    private <T> T node(String position, Class<T> kind) throws IOException {
+        Object node = nodes.get(Integer.parseInt(position));
+        if (!kind.isInstance(node)) {
+            throw new IOException("Profile node " + position + " is not a " +
+                kind.getSimpleName());
+        }
+        return kind.cast(node);
+    }
+
+    // write what the interpreter has learned so far
+    void save(Path file, Interpreter interpreter) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write(HEADER + "\n");
+            out.write("source " + source + "\n");
+
+            for (int i = 0; i < nodes.size(); i++) {
+                Object node = nodes.get(i);
+                if (node instanceof Stmt.Function) {
+                    Stmt.Function function = (Stmt.Function)node;
+                    int heat = interpreter.jit.heat(function);
+                    if (heat > 0) {
+                        out.write("function " + i + " " + heat + " " +
+                            interpreter.jit.deopts(function) + "\n");
+                    }
+                }
+                else if (node instanceof Stmt.While) {
+                    int iterations = interpreter.jit.iterations((Stmt.While)node);
+                    if (iterations > 0) out.write("loop " + i + " " + iterations + "\n");
+                }
+                else if (node instanceof Expr.Call) {
+                    LoxCallSite site = interpreter.callSite((Expr.Call)node);
+                    if (site == null) continue;
+
+                    StringBuilder record = new StringBuilder("call " + i);
+                    Map<Stmt.Function, Long> histogram = site.histogram();
+                    for (Map.Entry<Stmt.Function, Long> entry : histogram.entrySet()) {
+                        // a function declared by some other source, the site is not recorded
+                        Integer target = positions.get(entry.getKey());
+                        if (target == null) {
+                            record = null;
+                            break;
+                        }
+                        record.append(" ").append(target).append("=").append(entry.getValue());
+                    }
+                    if (record != null && !histogram.isEmpty()) out.write(record + "\n");
+                }
+                else if (node instanceof Expr.Binary && concatenations.contains(node)) {
+                    out.write("concatenates " + i + "\n");
+                }
+            }
+        }
+    }
+
+    private static String hash(byte[] program) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(program)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException error) {
+            // every JVM ships SHA-256
+            throw new IllegalStateException(error);
+        }
+    }
+}
@@ -53,8 +53,12 @@ class Scanner {
     private int current = 0;    // current file index
     private int line = 1;       // track line of lexem for location data
 
-    Scanner (String sourceCode) {
+    // isolate receiving scan errors
+    private final LoxRuntime runtime;
+
+    Scanner (String sourceCode, LoxRuntime runtime) {
         this.sourceCode = sourceCode;
+        this.runtime = runtime;
     }
 
     // method to populate array of tokens
@@ -83,6 +87,8 @@ class Scanner {
             case ')': addToken(RIGHT_PAREN); break;
             case '{': addToken(LEFT_BRACE); break;
             case '}': addToken(RIGHT_BRACE); break;
+            case '[': addToken(LEFT_BRACKET); break;
+            case ']': addToken(RIGHT_BRACKET); break;
             case ',': addToken(COMMA); break;
             case '.': addToken(DOT); break;
             case '-': addToken(MINUS); break;
@@ -147,7 +153,7 @@ class Scanner {
                 // unrecognized symbol
                 else {
                     // generate error and pass to parent to display
-                    Lox.error(line, "Unexpected character.");
+                    runtime.error(line, "Unexpected character.");
                 }
                 
                 break;
@@ -204,7 +210,7 @@ class Scanner {
         // check for exit due to unterminated string
         if (isAtEnd()) {
             // generate error and pass to caller
-            Lox.error(line, "Unterminated string.");
+            runtime.error(line, "Unterminated string.");
             return;
         }
 
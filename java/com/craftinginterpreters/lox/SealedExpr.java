@@ -0,0 +1,27 @@
+/*
+#   #############################################
+#   #                                           #
+#   From Robert Nystrom's 'Crafting Interpreters'
+#   #                                           #
+#   #############################################
+*/
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+sealed interface SealedExpr {
+    record Assign(Token name, SealedExpr value) implements SealedExpr {}
+    record Binary(SealedExpr left, Token operator, SealedExpr right) implements SealedExpr {}
+    record Call(SealedExpr callee, Token paren, List<SealedExpr> arguments) implements SealedExpr {}
+    record Get(SealedExpr object, Token name) implements SealedExpr {}
+    record Grouping(SealedExpr expression) implements SealedExpr {}
+    record Index(SealedExpr object, Token bracket, SealedExpr index) implements SealedExpr {}
+    record IndexSet(SealedExpr object, Token bracket, SealedExpr index, SealedExpr value) implements SealedExpr {}
+    record Literal(Object value) implements SealedExpr {}
+    record Set(SealedExpr object, Token name, SealedExpr value) implements SealedExpr {}
+    record Super(Token keyword, Token method) implements SealedExpr {}
+    record This(Token keyword) implements SealedExpr {}
+    record Logical(SealedExpr left, Token operator, SealedExpr right) implements SealedExpr {}
+    record Unary(Token operator, SealedExpr right) implements SealedExpr {}
+    record Variable(Token name) implements SealedExpr {}
+}
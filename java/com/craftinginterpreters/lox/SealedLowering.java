@@ -0,0 +1,183 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Sealed records - resolved syntax tree copied into record nodes
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// copies a resolved Expr/Stmt tree into SealedExpr/SealedStmt records for PatternEvaluator
+    // the resolver's distances move with the nodes into an identity table, records compare
+    // by value and two 'x' reads in different scopes would otherwise share one entry
+class SealedLowering implements Expr.Visitor<SealedExpr>, Stmt.Visitor<SealedStmt> {
+
+    // interpreter holding the resolver's distances
+    private final Interpreter resolution;
+    // distances of the lowered nodes, absent for globals
+    final Map<SealedExpr, Integer> locals = new IdentityHashMap<>();
+
+    SealedLowering(Interpreter resolution) {
+        this.resolution = resolution;
+    }
+
+    List<SealedStmt> lower(List<Stmt> statements) {
+        List<SealedStmt> lowered = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) lowered.add(lower(statement));
+        return lowered;
+    }
+
+    private SealedStmt lower(Stmt stmt) {
+        return stmt == null ? null : stmt.accept(this);
+    }
+
+    private SealedExpr lower(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    private List<SealedExpr> lowerAll(List<Expr> exprs) {
+        List<SealedExpr> lowered = new ArrayList<>(exprs.size());
+        for (Expr expr : exprs) lowered.add(lower(expr));
+        return lowered;
+    }
+
+    // carry the distance of a variable reference over to its record
+    private <T extends SealedExpr> T resolved(Expr expr, T lowered) {
+        Integer depth = resolution.resolvedDepth(expr);
+        if (depth != null) locals.put(lowered, depth);
+        return lowered;
+    }
+
+    // ##### statements #####
+
+    @Override
+    public SealedStmt visitBlockStmt(Stmt.Block stmt) {
+        return new SealedStmt.Block(lower(stmt.statements));
+    }
+
+    @Override
+    public SealedStmt visitClassStmt(Stmt.Class stmt) {
+        SealedExpr.Variable superclass = stmt.superclass == null ? null :
+            (SealedExpr.Variable)lower(stmt.superclass);
+        List<SealedStmt.Function> methods = new ArrayList<>();
+        for (Stmt.Function method : stmt.methods) {
+            methods.add((SealedStmt.Function)lower(method));
+        }
+        return new SealedStmt.Class(stmt.name, superclass, methods);
+    }
+
+    @Override
+    public SealedStmt visitExpressionStmt(Stmt.Expression stmt) {
+        return new SealedStmt.Expression(lower(stmt.expression));
+    }
+
+    @Override
+    public SealedStmt visitFunctionStmt(Stmt.Function stmt) {
+        return new SealedStmt.Function(stmt.name, stmt.params, lower(stmt.body));
+    }
+
+    @Override
+    public SealedStmt visitIfStmt(Stmt.If stmt) {
+        return new SealedStmt.If(lower(stmt.condition), lower(stmt.thenBranch),
+            lower(stmt.elseBranch));
+    }
+
+    @Override
+    public SealedStmt visitPrintStmt(Stmt.Print stmt) {
+        return new SealedStmt.Print(lower(stmt.expression));
+    }
+
+    @Override
+    public SealedStmt visitReturnStmt(Stmt.Return stmt) {
+        return new SealedStmt.Return(stmt.keyword, lower(stmt.value));
+    }
+
+    @Override
+    public SealedStmt visitVarStmt(Stmt.Var stmt) {
+        return new SealedStmt.Var(stmt.name, lower(stmt.initializer));
+    }
+
+    @Override
+    public SealedStmt visitWhileStmt(Stmt.While stmt) {
+        return new SealedStmt.While(lower(stmt.condition), lower(stmt.body));
+    }
+
+    // ##### expressions #####
+
+    @Override
+    public SealedExpr visitAssignExpr(Expr.Assign expr) {
+        return resolved(expr, new SealedExpr.Assign(expr.name, lower(expr.value)));
+    }
+
+    @Override
+    public SealedExpr visitBinaryExpr(Expr.Binary expr) {
+        return new SealedExpr.Binary(lower(expr.left), expr.operator, lower(expr.right));
+    }
+
+    @Override
+    public SealedExpr visitCallExpr(Expr.Call expr) {
+        return new SealedExpr.Call(lower(expr.callee), expr.paren, lowerAll(expr.arguments));
+    }
+
+    @Override
+    public SealedExpr visitGetExpr(Expr.Get expr) {
+        return new SealedExpr.Get(lower(expr.object), expr.name);
+    }
+
+    @Override
+    public SealedExpr visitGroupingExpr(Expr.Grouping expr) {
+        return new SealedExpr.Grouping(lower(expr.expression));
+    }
+
+    @Override
+    public SealedExpr visitIndexExpr(Expr.Index expr) {
+        return new SealedExpr.Index(lower(expr.object), expr.bracket, lower(expr.index));
+    }
+
+    @Override
+    public SealedExpr visitIndexSetExpr(Expr.IndexSet expr) {
+        return new SealedExpr.IndexSet(lower(expr.object), expr.bracket, lower(expr.index),
+            lower(expr.value));
+    }
+
+    @Override
+    public SealedExpr visitLiteralExpr(Expr.Literal expr) {
+        return new SealedExpr.Literal(expr.value);
+    }
+
+    @Override
+    public SealedExpr visitLogicalExpr(Expr.Logical expr) {
+        return new SealedExpr.Logical(lower(expr.left), expr.operator, lower(expr.right));
+    }
+
+    @Override
+    public SealedExpr visitSetExpr(Expr.Set expr) {
+        return new SealedExpr.Set(lower(expr.object), expr.name, lower(expr.value));
+    }
+
+    @Override
+    public SealedExpr visitSuperExpr(Expr.Super expr) {
+        return resolved(expr, new SealedExpr.Super(expr.keyword, expr.method));
+    }
+
+    @Override
+    public SealedExpr visitThisExpr(Expr.This expr) {
+        return resolved(expr, new SealedExpr.This(expr.keyword));
+    }
+
+    @Override
+    public SealedExpr visitUnaryExpr(Expr.Unary expr) {
+        return new SealedExpr.Unary(expr.operator, lower(expr.right));
+    }
+
+    @Override
+    public SealedExpr visitVariableExpr(Expr.Variable expr) {
+        return resolved(expr, new SealedExpr.Variable(expr.name));
+    }
+}
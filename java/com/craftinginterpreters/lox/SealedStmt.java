@@ -0,0 +1,22 @@
+/*
+#   #############################################
+#   #                                           #
+#   From Robert Nystrom's 'Crafting Interpreters'
+#   #                                           #
+#   #############################################
+*/
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+sealed interface SealedStmt {
+    record Block(List<SealedStmt> statements) implements SealedStmt {}
+    record Class(Token name, SealedExpr.Variable superclass, List<SealedStmt.Function> methods) implements SealedStmt {}
+    record Expression(SealedExpr expression) implements SealedStmt {}
+    record Function(Token name, List<Token> params, List<SealedStmt> body) implements SealedStmt {}
+    record If(SealedExpr condition, SealedStmt thenBranch, SealedStmt elseBranch) implements SealedStmt {}
+    record Print(SealedExpr expression) implements SealedStmt {}
+    record Return(Token keyword, SealedExpr value) implements SealedStmt {}
+    record Var(Token name, SealedExpr initializer) implements SealedStmt {}
+    record While(SealedExpr condition, SealedStmt body) implements SealedStmt {}
+}
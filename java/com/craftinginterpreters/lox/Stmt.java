@@ -149,4 +149,19 @@ abstract class Stmt {
     }
 
     abstract <R> R accept(Visitor<R> visitor);
+
+    // runtime slots, cleared by resetSlots()
+    private ProfilingInterpreter.Counter counter;
+
+    ProfilingInterpreter.Counter counter() {
+        return counter;
+    }
+
+    void setCounter(ProfilingInterpreter.Counter counter) {
+        this.counter = counter;
+    }
+
+    void resetSlots() {
+        counter = null;
+    }
 }
@@ -13,6 +13,7 @@ package com.craftinginterpreters.lox;
 enum  TokenType {
     // single-character
     LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE,
+    LEFT_BRACKET, RIGHT_BRACKET,
     COMMA, DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR,
 
     // one- or two- character tokens, mostly logical operators
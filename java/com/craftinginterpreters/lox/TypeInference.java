@@ -0,0 +1,405 @@
+/*
+#   ###################################################################
+#   #                                                                 #
+#   Type inference - optional pass after resolution
+#   #                                                                 #
+#   ###################################################################
+*/
+
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// proves which expressions always produce numbers, strings, booleans, nil, instances or callables
+    // locals are tracked flow-sensitively inside their function: each assignment sets the
+    // variable's type until the next one, branches and loops join what reaches them
+    // a local read from a nested function can change on any call, it gets the join of every
+    // value ever stored to it instead, globals and fields are never typed
+    // results go to the interpreter as annotations, the compilers use them to drop checks
+class TypeInference implements Expr.Visitor<LoxType>, Stmt.Visitor<Void> {
+
+    // a local variable, found through the resolver's scope distances
+    private static final class Variable {
+        // function nesting depth of the declaring scope
+        final int function;
+        // read or written from a nested function, flow facts do not hold for it
+        boolean captured = false;
+        // join of every value stored to the variable anywhere
+        LoxType summary;
+
+        Variable(int function) {
+            this.function = function;
+        }
+    }
+
+    // how much of a program was typed
+    static final class Report {
+        int expressions = 0;
+        final Map<LoxType, Integer> counts = new EnumMap<>(LoxType.class);
+
+        void count(LoxType type) {
+            expressions++;
+            counts.merge(type, 1, Integer::sum);
+        }
+
+        int typed() {
+            return expressions - counts.getOrDefault(LoxType.ANY, 0);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder("types: " + typed() + " of " +
+                expressions + " expressions typed");
+            if (expressions > 0) {
+                text.append(String.format(" (%.1f%%)", 100.0 * typed() / expressions));
+            }
+            for (Map.Entry<LoxType, Integer> entry : counts.entrySet()) {
+                if (entry.getKey() == LoxType.ANY) continue;
+                text.append(", ").append(entry.getKey().name().toLowerCase())
+                    .append(" ").append(entry.getValue());
+            }
+            return text.toString();
+        }
+    }
+
+    // receives annotations and holds the resolver's distances
+    private final Interpreter interpreter;
+
+    // variables by declaring token, kept across passes so summaries accumulate
+    private final Map<Token, Variable> variables = new HashMap<>();
+    // mirror of the resolver's scope stack, 'this' and 'super' scopes hold nothing
+    private final List<Map<String, Variable>> scopes = new ArrayList<>();
+
+    // type of each uncaptured local of the current function at this point of the walk
+    private Map<Variable, LoxType> state = new HashMap<>();
+    private int function = 0;
+
+    // a summary or capture changed during the pass, facts used earlier may be stale
+    private boolean changed;
+    // annotations are written only on the final pass, and only once loops are stable
+    private boolean recording;
+    private Report report;
+
+    TypeInference(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    // analyze resolved statements and annotate them
+    Report infer(List<Stmt> statements) {
+        // summaries and captures only ever widen, so this reaches a fixed point
+        do {
+            pass(statements, false);
+        } while (changed);
+
+        report = new Report();
+        pass(statements, true);
+        return report;
+    }
+
+    private void pass(List<Stmt> statements, boolean record) {
+        changed = false;
+        recording = record;
+        scopes.clear();
+        state = new HashMap<>();
+        function = 0;
+
+        for (Stmt statement : statements) statement.accept(this);
+    }
+
+    // ##### variables #####
+
+    private void declare(Token name, LoxType type) {
+        // globals can be rebound by any code, including natives and embedders
+        if (scopes.isEmpty()) return;
+
+        Variable variable = variables.computeIfAbsent(name, token -> new Variable(function));
+        scopes.get(scopes.size() - 1).put(name.lexeme, variable);
+        store(variable, type);
+    }
+
+    private void store(Variable variable, LoxType type) {
+        if (variable.function != function) capture(variable);
+
+        LoxType summary = LoxType.join(variable.summary, type);
+        if (summary != variable.summary) {
+            variable.summary = summary;
+            changed = true;
+        }
+        state.put(variable, type);
+    }
+
+    private LoxType load(Variable variable) {
+        if (variable == null) return LoxType.ANY;
+        if (variable.function != function) capture(variable);
+
+        if (variable.captured) {
+            return variable.summary == null ? LoxType.ANY : variable.summary;
+        }
+        return state.getOrDefault(variable, LoxType.ANY);
+    }
+
+    private void capture(Variable variable) {
+        if (variable.captured) return;
+        variable.captured = true;
+        changed = true;
+    }
+
+    // local a reference resolves to, null for globals and 'this'/'super'
+    private Variable lookup(Expr expr, Token name) {
+        Integer depth = interpreter.resolvedDepth(expr);
+        if (depth == null || depth >= scopes.size()) return null;
+        return scopes.get(scopes.size() - 1 - depth).get(name.lexeme);
+    }
+
+    // ##### flow #####
+
+    private static Map<Variable, LoxType> join(Map<Variable, LoxType> a,
+                                               Map<Variable, LoxType> b) {
+        Map<Variable, LoxType> joined = new HashMap<>(a);
+        for (Map.Entry<Variable, LoxType> entry : b.entrySet()) {
+            // declared on one path only, out of scope where the paths meet
+            joined.merge(entry.getKey(), entry.getValue(), LoxType::join);
+        }
+        return joined;
+    }
+
+    // type of an expression, recorded on the final pass
+    private LoxType type(Expr expr) {
+        LoxType type = expr.accept(this);
+        if (recording) {
+            report.count(type);
+            if (type != LoxType.ANY) interpreter.annotate(expr, type);
+        }
+        return type;
+    }
+
+    // body of a function or method, with its own flow state
+    private void function(Stmt.Function declaration) {
+        Map<Variable, LoxType> enclosing = state;
+        state = new HashMap<>();
+        function++;
+        scopes.add(new HashMap<>());
+
+        // callers are unknown
+        for (Token param : declaration.params) declare(param, LoxType.ANY);
+        for (Stmt statement : declaration.body) statement.accept(this);
+
+        scopes.remove(scopes.size() - 1);
+        function--;
+        state = enclosing;
+    }
+
+    // ##### statements #####
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        scopes.add(new HashMap<>());
+        for (Stmt statement : stmt.statements) statement.accept(this);
+        scopes.remove(scopes.size() - 1);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        declare(stmt.name, LoxType.CALLABLE);
+        if (stmt.superclass != null) type(stmt.superclass);
+
+        if (stmt.superclass != null) scopes.add(new HashMap<>());
+        scopes.add(new HashMap<>());
+        for (Stmt.Function method : stmt.methods) function(method);
+        scopes.remove(scopes.size() - 1);
+        if (stmt.superclass != null) scopes.remove(scopes.size() - 1);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        type(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        declare(stmt.name, LoxType.CALLABLE);
+        function(stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        type(stmt.condition);
+
+        Map<Variable, LoxType> before = new HashMap<>(state);
+        stmt.thenBranch.accept(this);
+        Map<Variable, LoxType> afterThen = state;
+
+        state = before;
+        if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+        state = join(afterThen, state);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        type(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        // flow continues as if the statement fell through, which only widens
+        if (stmt.value != null) type(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        // 'var x;' holds a sentinel until assigned, not nil
+        LoxType type = stmt.initializer != null ? type(stmt.initializer) : LoxType.ANY;
+        declare(stmt.name, type);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        // iterate to the loop-head state without recording, facts of early iterations
+        // may be narrower than what later iterations see
+        boolean record = recording;
+        recording = false;
+
+        Map<Variable, LoxType> head = new HashMap<>(state);
+        for (;;) {
+            state = new HashMap<>(head);
+            type(stmt.condition);
+            stmt.body.accept(this);
+
+            Map<Variable, LoxType> next = join(head, state);
+            if (next.equals(head)) break;
+            head = next;
+        }
+
+        // one more walk from the stable state, the loop exits after a condition check
+        recording = record;
+        state = new HashMap<>(head);
+        type(stmt.condition);
+        Map<Variable, LoxType> exit = new HashMap<>(state);
+        stmt.body.accept(this);
+        state = exit;
+        return null;
+    }
+
+    // ##### expressions #####
+
+    @Override
+    public LoxType visitAssignExpr(Expr.Assign expr) {
+        LoxType type = type(expr.value);
+        Variable variable = lookup(expr, expr.name);
+        if (variable != null) store(variable, type);
+        return type;
+    }
+
+    @Override
+    public LoxType visitBinaryExpr(Expr.Binary expr) {
+        LoxType left = type(expr.left);
+        LoxType right = type(expr.right);
+
+        // a result exists only if the operation did not fail its operand checks
+        switch (expr.operator.type) {
+            case MINUS: case SLASH: case STAR:
+                return LoxType.NUMBER;
+            case PLUS:
+                if (left == LoxType.NUMBER || right == LoxType.NUMBER) return LoxType.NUMBER;
+                if (left == LoxType.STRING || right == LoxType.STRING) return LoxType.STRING;
+                return LoxType.ANY;
+            case GREATER: case GREATER_EQUAL: case LESS: case LESS_EQUAL:
+            case EQUAL_EQUAL: case BANG_EQUAL:
+                return LoxType.BOOLEAN;
+            default:
+                return LoxType.ANY;
+        }
+    }
+
+    @Override
+    public LoxType visitCallExpr(Expr.Call expr) {
+        type(expr.callee);
+        for (Expr argument : expr.arguments) type(argument);
+        return LoxType.ANY;
+    }
+
+    @Override
+    public LoxType visitGetExpr(Expr.Get expr) {
+        type(expr.object);
+        return LoxType.ANY;
+    }
+
+    @Override
+    public LoxType visitGroupingExpr(Expr.Grouping expr) {
+        return type(expr.expression);
+    }
+
+    @Override
+    public LoxType visitIndexExpr(Expr.Index expr) {
+        type(expr.object);
+        type(expr.index);
+        return LoxType.ANY;
+    }
+
+    @Override
+    public LoxType visitIndexSetExpr(Expr.IndexSet expr) {
+        type(expr.object);
+        type(expr.index);
+        return type(expr.value);
+    }
+
+    @Override
+    public LoxType visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) return LoxType.NIL;
+        if (expr.value instanceof Double) return LoxType.NUMBER;
+        if (expr.value instanceof String) return LoxType.STRING;
+        if (expr.value instanceof Boolean) return LoxType.BOOLEAN;
+        return LoxType.ANY;
+    }
+
+    @Override
+    public LoxType visitLogicalExpr(Expr.Logical expr) {
+        LoxType left = type(expr.left);
+
+        // the right operand may not run
+        Map<Variable, LoxType> skipped = new HashMap<>(state);
+        LoxType right = type(expr.right);
+        state = join(skipped, state);
+
+        return LoxType.join(left, right);
+    }
+
+    @Override
+    public LoxType visitSetExpr(Expr.Set expr) {
+        type(expr.object);
+        return type(expr.value);
+    }
+
+    @Override
+    public LoxType visitSuperExpr(Expr.Super expr) {
+        return LoxType.ANY;
+    }
+
+    @Override
+    public LoxType visitThisExpr(Expr.This expr) {
+        return LoxType.INSTANCE;
+    }
+
+    @Override
+    public LoxType visitUnaryExpr(Expr.Unary expr) {
+        type(expr.right);
+        return expr.operator.type == TokenType.BANG ? LoxType.BOOLEAN : LoxType.NUMBER;
+    }
+
+    @Override
+    public LoxType visitVariableExpr(Expr.Variable expr) {
+        return load(lookup(expr, expr.name));
+    }
+}
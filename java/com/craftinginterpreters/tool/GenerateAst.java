@@ -12,39 +12,58 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
 
 // automate generation of AST classes
+    // fields after a '|' are runtime slots: mutable, private, with typed accessors and
+    // cleared by resetSlots(), so resolution and caches live on the node instead of in
+    // side tables keyed by it, slots given for the base type are on every node
+    // --records also writes SealedExpr and SealedStmt, the same nodes as records of a
+    // sealed interface, for evaluators that match on the node type instead of visiting
 public class GenerateAst {
 
+    // references to the other base types, renamed in the sealed variant
+    private static final Pattern BASE_TYPE = Pattern.compile("\\b(Expr|Stmt)\\b");
+
+    // separates a node's fields from its runtime slots
+    private static final String SLOTS = "\\|";
+
     public static void main(String[] args) throws IOException {
 
+        // optional sealed record variant before the directory
+        boolean records = args.length == 2 && args[0].equals("--records");
+
         // check if incorrect argument count given
-        if (args.length != 1) {
-            System.err.println("Usage: generate_ast <output directory>");
+        if (args.length != 1 && !records) {
+            System.err.println("Usage: generate_ast [--records] <output directory>");
             System.exit(64);
         }
 
         // get name for new directory
-        String outputDir = args[0];
+        String outputDir = args[args.length - 1];
 
         // pass type descriptions to generator
-        defineAst(outputDir, "Expr", Arrays.asList(
-            "Assign     : Token name, Expr value",
+        List<String> exprTypes = Arrays.asList(
+            "Assign     : Token name, Expr value | Integer depth",
             "Binary     : Expr left, Token operator, Expr right",
-            "Call       : Expr callee, Token paren, List<Expr> arguments",
+            "Call       : Expr callee, Token paren, List<Expr> arguments" +
+                        " | Interpreter.Folded folded, ProfilingInterpreter.Counter counter",
             "Get        : Expr object, Token name",
             "Grouping   : Expr expression",
+            "Index      : Expr object, Token bracket, Expr index",
+            "IndexSet   : Expr object, Token bracket, Expr index, Expr value",
             "Literal    : Object value",
             "Set        : Expr object, Token name, Expr value",
-            "Super      : Token keyword, Token method",
-            "This       : Token keyword",
+            "Super      : Token keyword, Token method | Integer depth",
+            "This       : Token keyword | Integer depth",
             "Logical    : Expr left, Token operator, Expr right",
             "Unary      : Token operator, Expr right",
-            "Variable   : Token name"
-        ));
+            "Variable   : Token name | Integer depth"
+        );
+        defineAst(outputDir, "Expr", exprTypes, "");
 
         // accepted expressions following grammar's rules
-        defineAst(outputDir, "Stmt", Arrays.asList(
+        List<String> stmtTypes = Arrays.asList(
             "Block      : List<Stmt> statements",
             "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods",
             "Expression : Expr expression",
@@ -55,11 +74,20 @@ public class GenerateAst {
             "Return     : Token keyword, Expr value",
             "Var        : Token name, Expr initializer",
             "While      : Expr condition, Stmt body"
-        ));
+        );
+        // every statement can carry the counters of ProfilingInterpreter
+        defineAst(outputDir, "Stmt", stmtTypes, "ProfilingInterpreter.Counter counter");
+
+        // same nodes again as records
+        if (records) {
+            defineRecords(outputDir, "Expr", exprTypes);
+            defineRecords(outputDir, "Stmt", stmtTypes);
+        }
     }
 
     private static void defineAst(
-        String outputDir, String baseName, List<String> types) throws IOException {
+        String outputDir, String baseName, List<String> types, String baseSlots)
+        throws IOException {
 
         // determine path from parameters
         String path = outputDir + "/" + baseName + ".java";
@@ -87,17 +115,66 @@ public class GenerateAst {
         for (String type : types) {
             // get subclass name from key-value parameter structure
             String className = type.split(":")[0].trim();
-            // get values
-            String fields = type.split(":")[1].trim();
+            // get values, then the runtime slots if any
+            String[] parts = type.split(":")[1].split(SLOTS);
+            String fields = parts[0].trim();
+            String slots = parts.length > 1 ? parts[1].trim() : "";
 
             // create a new class based on the given parameters
-            defineType(writer, baseName, className, fields);
+            defineType(writer, baseName, className, fields, slots);
         }
 
         // base accept() method - polymorphic, interfaced
         writer.println();
         writer.println("    abstract <R> R accept(Visitor<R> visitor);");
 
+        // nodes without slots have nothing to clear
+        if (baseSlots.isEmpty()) {
+            writer.println();
+            writer.println("    void resetSlots() {}");
+        }
+        else {
+            defineSlots(writer, "    ", baseSlots.split(", "), false);
+        }
+
+        writer.println("}");
+        writer.close();
+    }
+
+    // writes Sealed<baseName>, a sealed interface permitting one record per node type
+        // records compare by value, so tables keyed by node must be identity maps
+    private static void defineRecords(
+        String outputDir, String baseName, List<String> types) throws IOException {
+
+        String interfaceName = "Sealed" + baseName;
+        PrintWriter writer = new PrintWriter(
+            outputDir + "/" + interfaceName + ".java", "UTF-8");
+
+        writer.println("/*");
+        writer.println("#   #############################################");
+        writer.println("#   #                                           #");
+        writer.println("#   From Robert Nystrom's 'Crafting Interpreters'");
+        writer.println("#   #                                           #");
+        writer.println("#   #############################################");
+        writer.println("*/");
+
+        writer.println("package com.craftinginterpreters.lox;");
+        writer.println();
+        writer.println("import java.util.List;");
+        writer.println();
+        // nested records are the only permitted subtypes, no permits clause needed
+        writer.println("sealed interface " + interfaceName + " {");
+
+        for (String type : types) {
+            String className = type.split(":")[0].trim();
+            // component types point at the sealed variants, records carry no slots
+            String fields = BASE_TYPE.matcher(type.split(":")[1].split(SLOTS)[0].trim())
+                .replaceAll("Sealed$1");
+
+            writer.println("    record " + className + "(" + fields + ") implements " +
+                interfaceName + " {}");
+        }
+
         writer.println("}");
         writer.close();
     }
@@ -121,7 +198,7 @@ public class GenerateAst {
     // writes out the definition for a class
     private static void defineType(
         PrintWriter writer, String baseName,
-        String className, String fieldList) {
+        String className, String fieldList, String slotList) {
 
         writer.println("    static class " + className + " extends "
                         + baseName + " {");
@@ -159,6 +236,55 @@ public class GenerateAst {
             writer.println("        final " + field + ";");
         }
 
+        if (!slotList.isEmpty()) defineSlots(writer, "        ", slotList.split(", "), true);
+
         writer.println("    }");
     }
-}
\ No newline at end of file
+
+    // writes the slot fields of a class, a getter and setter each, and resetSlots()
+        // a node type's resetSlots() also clears the slots of its base type
+    private static void defineSlots(
+        PrintWriter writer, String indent, String[] slots, boolean node) {
+
+        writer.println();
+        writer.println(indent + "// runtime slots, cleared by resetSlots()");
+        for (String slot : slots) {
+            writer.println(indent + "private " + slot + ";");
+        }
+
+        for (String slot : slots) {
+            String type = slot.split(" ")[0];
+            String name = slot.split(" ")[1];
+            String setter = "set" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+
+            writer.println();
+            writer.println(indent + type + " " + name + "() {");
+            writer.println(indent + "    return " + name + ";");
+            writer.println(indent + "}");
+            writer.println();
+            writer.println(indent + "void " + setter + "(" + slot + ") {");
+            writer.println(indent + "    this." + name + " = " + name + ";");
+            writer.println(indent + "}");
+        }
+
+        writer.println();
+        if (node) writer.println(indent + "@Override");
+        writer.println(indent + "void resetSlots() {");
+        if (node) writer.println(indent + "    super.resetSlots();");
+        for (String slot : slots) {
+            String name = slot.split(" ")[1];
+            writer.println(indent + "    " + name + " = " + initial(slot.split(" ")[0]) + ";");
+        }
+        writer.println(indent + "}");
+    }
+
+    // value a slot of the given type holds before anything is stored in it
+    private static String initial(String type) {
+        switch (type) {
+            case "boolean": return "false";
+            case "int": case "long": case "short": case "byte": case "char":
+            case "float": case "double": return "0";
+            default: return "null";
+        }
+    }
+}